@@ -0,0 +1,89 @@
+package uk.gov.justice.digital.prisoneraccounts.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import uk.gov.justice.digital.prisoneraccounts.PrisonerAccounts;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Transaction;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.TransactionRepository;
+import uk.gov.justice.digital.prisoneraccounts.service.AccountService;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Compares summing an account's ledger by streaming hydrated {@link Transaction} entities against the database SUM projection.
+ * Run with {@code ./gradlew jmh}; the gc profiler reports allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BalanceAggregationBenchmark {
+
+    @Param({"10000", "50000"})
+    private int transactionsPerAccount;
+
+    private ConfigurableApplicationContext context;
+    private TransactionRepository transactionRepository;
+    private Account account;
+
+    @Setup
+    public void setup() {
+        context = new SpringApplicationBuilder(PrisonerAccounts.class)
+                .run("--server.port=0", "--logging.level.root=WARN", "--spring.datasource.url=jdbc:h2:mem:" + UUID.randomUUID());
+
+        transactionRepository = context.getBean(TransactionRepository.class);
+        account = context.getBean(AccountService.class).getOrCreateAccount("BMI", UUID.randomUUID().toString(), "cash", Optional.empty());
+
+        List<Transaction> transactions = LongStream.range(0, transactionsPerAccount)
+                .mapToObj(i -> Transaction.builder()
+                        .account(account)
+                        .amountPence(i % 100)
+                        .description("benchmark")
+                        .clientReference(String.valueOf(i))
+                        .transactionType(i % 3 == 0 ? Transaction.TransactionTypes.DEBIT : Transaction.TransactionTypes.CREDIT)
+                        .build())
+                .collect(Collectors.toList());
+        transactionRepository.save(transactions);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public long entityStream() {
+        List<Transaction> transactions = transactionRepository.findAllByAccountOrderByTransactionDateTimeAsc(account);
+
+        long sumCredits = transactions.stream()
+                .filter(transaction -> transaction.getTransactionType() == Transaction.TransactionTypes.CREDIT)
+                .mapToLong(Transaction::getAmountPence)
+                .sum();
+
+        long sumDebits = transactions.stream()
+                .filter(transaction -> transaction.getTransactionType() == Transaction.TransactionTypes.DEBIT)
+                .mapToLong(Transaction::getAmountPence)
+                .sum();
+
+        return sumCredits - sumDebits;
+    }
+
+    @Benchmark
+    public long sumProjection() {
+        return transactionRepository.sumSignedAmountPence(account);
+    }
+}
@@ -0,0 +1,142 @@
+package uk.gov.justice.digital.prisoneraccounts.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.gov.justice.digital.prisoneraccounts.api.Balance;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+import uk.gov.justice.digital.prisoneraccounts.service.BalanceIndex;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the read model's {@link BalanceIndex} with the same estate held as {@link Account} entities and {@link Balance}
+ * objects: an establishment total, an establishment scan and a prisoner's accounts. Setup prints the heap retained by each,
+ * and the gc profiler reports allocation per operation. Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BalanceIndexBenchmark {
+
+    private static final String[] ACCOUNT_NAMES = {"cash", "spend", "savings"};
+
+    @Param({"270000"})
+    private int accounts;
+
+    @Param({"120"})
+    private int establishments;
+
+    private BalanceIndex balanceIndex;
+    private Map<String, Map<String, List<Account>>> accountsByEstablishment;
+    private Map<Long, Balance> balancesByAccountId;
+    private String establishmentId;
+    private String[] prisonerIds;
+    private int nextPrisoner;
+
+    @Setup
+    public void setup() {
+        long before = usedHeap();
+        balanceIndex = new BalanceIndex();
+        forEachAccount((accountId, establishmentId, prisonerId, accountName, balancePence) ->
+                balanceIndex.put(accountId, establishmentId, prisonerId, accountName, true, balancePence, 1));
+        long indexBytes = usedHeap() - before;
+
+        before = usedHeap();
+        accountsByEstablishment = new HashMap<>();
+        balancesByAccountId = new HashMap<>();
+        forEachAccount((accountId, establishmentId, prisonerId, accountName, balancePence) -> {
+            accountsByEstablishment.computeIfAbsent(establishmentId, establishment -> new HashMap<>())
+                    .computeIfAbsent(prisonerId, prisoner -> new ArrayList<>())
+                    .add(Account.builder()
+                            .accountId(accountId)
+                            .establishmentId(establishmentId)
+                            .prisonerId(prisonerId)
+                            .accountName(accountName)
+                            .accountType(Account.AccountTypes.FULL_ACCESS)
+                            .build());
+            balancesByAccountId.put(accountId, Balance.builder().accountName(accountName).amountPence(balancePence).build());
+        });
+        long objectBytes = usedHeap() - before;
+
+        System.out.printf("%nRetained heap for %d accounts: index %d bytes (%d arrays), objects %d bytes%n",
+                accounts, indexBytes, balanceIndex.arrayBytes(), objectBytes);
+
+        establishmentId = "E" + establishments / 2;
+        prisonerIds = accountsByEstablishment.get(establishmentId).keySet().toArray(new String[0]);
+    }
+
+    @Benchmark
+    public long indexEstablishmentTotal() {
+        return balanceIndex.establishmentBalancePence(establishmentId);
+    }
+
+    @Benchmark
+    public long objectEstablishmentTotal() {
+        return accountsByEstablishment.get(establishmentId).values().stream()
+                .flatMap(List::stream)
+                .mapToLong(account -> balancesByAccountId.get(account.getAccountId()).getAmountPence())
+                .sum();
+    }
+
+    @Benchmark
+    public void indexEstablishmentScan(Blackhole blackhole) {
+        balanceIndex.forEachOpenAccount(establishmentId, (prisonerId, accountName, balancePence) -> blackhole.consume(balancePence));
+    }
+
+    @Benchmark
+    public void objectEstablishmentScan(Blackhole blackhole) {
+        accountsByEstablishment.get(establishmentId).forEach((prisonerId, prisonerAccounts) -> prisonerAccounts
+                .forEach(account -> blackhole.consume(balancesByAccountId.get(account.getAccountId()).getAmountPence())));
+    }
+
+    @Benchmark
+    public void indexPrisonerAccounts(Blackhole blackhole) {
+        balanceIndex.forEachOpenAccount(establishmentId, nextPrisonerId(), (prisonerId, accountName, balancePence) -> blackhole.consume(balancePence));
+    }
+
+    @Benchmark
+    public void objectPrisonerAccounts(Blackhole blackhole) {
+        accountsByEstablishment.get(establishmentId).get(nextPrisonerId())
+                .forEach(account -> blackhole.consume(balancesByAccountId.get(account.getAccountId()).getAmountPence()));
+    }
+
+    private String nextPrisonerId() {
+        nextPrisoner = (nextPrisoner + 1) % prisonerIds.length;
+        return prisonerIds[nextPrisoner];
+    }
+
+    private void forEachAccount(AccountConsumer consumer) {
+        Random random = new Random(42);
+        for (long accountId = 0; accountId < accounts; accountId++) {
+            long prisoner = accountId / ACCOUNT_NAMES.length;
+            consumer.accept(100000 + accountId, "E" + prisoner % establishments, "P" + prisoner,
+                    ACCOUNT_NAMES[(int) (accountId % ACCOUNT_NAMES.length)], random.nextInt(100000));
+        }
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private interface AccountConsumer {
+        void accept(long accountId, String establishmentId, String prisonerId, String accountName, long balancePence);
+    }
+}
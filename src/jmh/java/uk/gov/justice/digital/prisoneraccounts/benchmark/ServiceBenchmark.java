@@ -0,0 +1,158 @@
+package uk.gov.justice.digital.prisoneraccounts.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import uk.gov.justice.digital.prisoneraccounts.PrisonerAccounts;
+import uk.gov.justice.digital.prisoneraccounts.api.AccountState;
+import uk.gov.justice.digital.prisoneraccounts.api.Balance;
+import uk.gov.justice.digital.prisoneraccounts.api.BulkLedgerEntry;
+import uk.gov.justice.digital.prisoneraccounts.api.EstablishmentTransferSummary;
+import uk.gov.justice.digital.prisoneraccounts.api.Operations;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Transaction;
+import uk.gov.justice.digital.prisoneraccounts.service.AccountService;
+import uk.gov.justice.digital.prisoneraccounts.service.LedgerService;
+import uk.gov.justice.digital.prisoneraccounts.service.PrisonerTransferService;
+import uk.gov.justice.digital.prisoneraccounts.service.TransactionService;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Service layer hot paths against embedded H2, over an establishment seeded with {@code accountsPerEstablishment} cash
+ * accounts of {@code transactionsPerAccount} credits each, a tenth of them transferred in from another establishment.
+ * Debits and transfers work on separate, well funded accounts so that they do not grow the seeded ledger.
+ * Run with {@code ./gradlew jmh}; results are written to {@code build/reports/jmh/results.json}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ServiceBenchmark {
+
+    private static final int ENTRIES_PER_POST = 1000;
+    private static final long FUNDS_PENCE = Long.MAX_VALUE / 4;
+
+    @Param({"100", "1000"})
+    private int accountsPerEstablishment;
+
+    @Param({"10", "100"})
+    private int transactionsPerAccount;
+
+    private ConfigurableApplicationContext context;
+    private AccountService accountService;
+    private TransactionService transactionService;
+    private PrisonerTransferService prisonerTransferService;
+    private String establishmentId;
+    private Account seededAccount;
+    private ZonedDateTime seededAt;
+    private Account debitAccount;
+    private Account transferSourceAccount;
+    private Account transferTargetAccount;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        context = new SpringApplicationBuilder(PrisonerAccounts.class)
+                .run("--server.port=0", "--logging.level.root=WARN", "--spring.datasource.url=jdbc:h2:mem:" + UUID.randomUUID());
+
+        accountService = context.getBean(AccountService.class);
+        transactionService = context.getBean(TransactionService.class);
+        prisonerTransferService = context.getBean(PrisonerTransferService.class);
+        LedgerService ledgerService = context.getBean(LedgerService.class);
+
+        establishmentId = UUID.randomUUID().toString();
+        String sendingEstablishmentId = UUID.randomUUID().toString();
+        int transferredIn = Math.max(1, accountsPerEstablishment / 10);
+        List<String> prisonerIds = IntStream.range(0, accountsPerEstablishment)
+                .mapToObj(i -> UUID.randomUUID().toString())
+                .collect(Collectors.toList());
+
+        post(ledgerService, sendingEstablishmentId, prisonerIds.subList(0, transferredIn));
+        post(ledgerService, establishmentId, prisonerIds.subList(transferredIn, accountsPerEstablishment));
+        for (String prisonerId : prisonerIds.subList(0, transferredIn)) {
+            prisonerTransferService.transferPrisonerAccounts(prisonerId, sendingEstablishmentId, establishmentId);
+        }
+
+        seededAccount = accountService.accountFor(establishmentId, prisonerIds.get(accountsPerEstablishment - 1), "cash").get();
+        seededAt = ZonedDateTime.now(ZoneOffset.UTC);
+
+        String operationsEstablishmentId = UUID.randomUUID().toString();
+        debitAccount = fundedAccount(operationsEstablishmentId);
+        transferSourceAccount = fundedAccount(operationsEstablishmentId);
+        transferTargetAccount = fundedAccount(operationsEstablishmentId);
+    }
+
+    private void post(LedgerService ledgerService, String establishmentId, List<String> prisonerIds) {
+        List<BulkLedgerEntry> entries = IntStream.range(0, transactionsPerAccount)
+                .boxed()
+                .flatMap(i -> prisonerIds.stream().map(prisonerId -> BulkLedgerEntry.builder()
+                        .prisonerId(prisonerId)
+                        .accountName("cash")
+                        .operation(Operations.CREDIT)
+                        .amountPence(100)
+                        .description("benchmark")
+                        .clientRef(String.valueOf(i))
+                        .build()))
+                .collect(Collectors.toList());
+
+        for (int offset = 0; offset < entries.size(); offset += ENTRIES_PER_POST) {
+            ledgerService.postTransactions(establishmentId, entries.subList(offset, Math.min(entries.size(), offset + ENTRIES_PER_POST)));
+        }
+    }
+
+    private Account fundedAccount(String establishmentId) throws Exception {
+        Account account = accountService.getOrCreateAccount(establishmentId, UUID.randomUUID().toString(), "cash", Optional.empty());
+        transactionService.creditAccount(account, FUNDS_PENCE, "benchmark", "funds");
+        return account;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Balance balanceAsOf() {
+        return accountService.balanceAsOf(seededAccount, Optional.of(seededAt));
+    }
+
+    @Benchmark
+    public Map<String, List<AccountState>> establishmentAccountsSummary() {
+        return accountService.establishmentAccountsSummary(establishmentId, Optional.empty());
+    }
+
+    @Benchmark
+    public EstablishmentTransferSummary prisonerTransferAccountsSummary() {
+        return prisonerTransferService.prisonerTransferAccountsSummary(establishmentId, Optional.empty(), Optional.empty());
+    }
+
+    @Benchmark
+    public Transaction debitAccount() throws Exception {
+        return transactionService.debitAccount(debitAccount, 1L, "benchmark", "debit");
+    }
+
+    @Benchmark
+    public void transferFunds() throws Exception {
+        transactionService.transferFunds(transferSourceAccount, transferTargetAccount, 1L, "benchmark");
+    }
+}
@@ -0,0 +1,110 @@
+package uk.gov.justice.digital.prisoneraccounts.benchmark;
+
+import org.h2.tools.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import uk.gov.justice.digital.prisoneraccounts.PrisonerAccounts;
+import uk.gov.justice.digital.prisoneraccounts.api.BulkLedgerEntry;
+import uk.gov.justice.digital.prisoneraccounts.api.Operations;
+import uk.gov.justice.digital.prisoneraccounts.service.LedgerService;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Posts 100,000 credits through the bulk ledger path, 1,000 entries per transaction, with one id round trip and one insert
+ * statement per row ({@code unbatched}) against pooled sequence ids with JDBC batching and ordered inserts ({@code batched}).
+ * The {@code tcp} database runs H2 behind its TCP server so that each statement pays a real round trip, as it would against a
+ * networked database. Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class TransactionInsertBenchmark {
+
+    private static final int TRANSACTIONS = 100000;
+    private static final int ENTRIES_PER_POST = 1000;
+    private static final int PRISONERS = 1000;
+
+    @Param({"unbatched", "batched"})
+    private String insertStrategy;
+
+    @Param({"embedded", "tcp"})
+    private String database;
+
+    private Server tcpServer;
+    private ConfigurableApplicationContext context;
+    private LedgerService ledgerService;
+    private List<String> prisonerIds;
+    private String establishmentId;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        boolean batched = insertStrategy.equals("batched");
+        String databaseName = "mem:" + UUID.randomUUID();
+
+        if (database.equals("tcp")) {
+            tcpServer = Server.createTcpServer("-tcpPort", "0").start();
+            databaseName = "tcp://localhost:" + tcpServer.getPort() + "/" + databaseName;
+        }
+
+        context = new SpringApplicationBuilder(PrisonerAccounts.class)
+                .run("--server.port=0", "--logging.level.root=WARN", "--spring.datasource.url=jdbc:h2:" + databaseName,
+                        "--flyway.placeholders.idAllocationSize=" + (batched ? 50 : 1),
+                        "--spring.jpa.properties.hibernate.jdbc.batch_size=" + (batched ? 50 : 0),
+                        "--spring.jpa.properties.hibernate.order_inserts=" + batched);
+
+        ledgerService = context.getBean(LedgerService.class);
+        prisonerIds = IntStream.range(0, PRISONERS).mapToObj(i -> UUID.randomUUID().toString()).collect(Collectors.toList());
+    }
+
+    @Setup(Level.Iteration)
+    public void newEstablishment() {
+        establishmentId = UUID.randomUUID().toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        if (tcpServer != null) {
+            tcpServer.stop();
+        }
+    }
+
+    @Benchmark
+    public int post100kTransactions() {
+        int posted = 0;
+        for (int offset = 0; offset < TRANSACTIONS; offset += ENTRIES_PER_POST) {
+            List<BulkLedgerEntry> entries = IntStream.range(offset, offset + ENTRIES_PER_POST)
+                    .mapToObj(i -> BulkLedgerEntry.builder()
+                            .prisonerId(prisonerIds.get(i % PRISONERS))
+                            .accountName("cash")
+                            .operation(Operations.CREDIT)
+                            .amountPence(100)
+                            .description("payroll")
+                            .clientRef(String.valueOf(i))
+                            .build())
+                    .collect(Collectors.toList());
+            posted += ledgerService.postTransactions(establishmentId, entries).size();
+        }
+        return posted;
+    }
+}
@@ -0,0 +1,14 @@
+package uk.gov.justice.digital.prisoneraccounts.api;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class BalanceDiscrepancy {
+    private Long accountId;
+    private String prisonerId;
+    private String accountName;
+    private long storedAmountPence;
+    private long ledgerAmountPence;
+}
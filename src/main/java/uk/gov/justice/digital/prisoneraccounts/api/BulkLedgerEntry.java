@@ -0,0 +1,17 @@
+package uk.gov.justice.digital.prisoneraccounts.api;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder(toBuilder = true)
+public class BulkLedgerEntry {
+
+    private String prisonerId;
+    private String accountName;
+    private long amountPence;
+    private Operations operation;
+    private String clientRef;
+    private String description;
+
+}
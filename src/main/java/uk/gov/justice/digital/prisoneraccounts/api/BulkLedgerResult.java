@@ -0,0 +1,22 @@
+package uk.gov.justice.digital.prisoneraccounts.api;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.ZonedDateTime;
+
+@Data
+@Builder
+public class BulkLedgerResult {
+
+    private String prisonerId;
+    private String accountName;
+    private String clientRef;
+    private Outcomes outcome;
+    private String message;
+    private Long transactionId;
+    private ZonedDateTime transactionDateTime;
+
+    public enum Outcomes {POSTED, INVALID, INSUFFICIENT_FUNDS, ACCOUNT_CLOSED, DEBIT_NOT_SUPPORTED}
+
+}
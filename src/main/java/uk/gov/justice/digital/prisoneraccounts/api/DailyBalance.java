@@ -0,0 +1,14 @@
+package uk.gov.justice.digital.prisoneraccounts.api;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class DailyBalance {
+    private String prisonerId;
+    private String accountName;
+    private long closingBalancePence;
+    private Long creditsPence;
+    private Long debitsPence;
+}
@@ -0,0 +1,15 @@
+package uk.gov.justice.digital.prisoneraccounts.api;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class EstablishmentSummary {
+    private String establishmentId;
+    private int prisoners;
+    private int accounts;
+    private long balancePence;
+    private long amountToRequestPence;
+    private long amountToTransferPence;
+}
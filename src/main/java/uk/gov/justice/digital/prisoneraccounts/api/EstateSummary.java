@@ -0,0 +1,19 @@
+package uk.gov.justice.digital.prisoneraccounts.api;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+
+@Data
+@Builder
+public class EstateSummary {
+    private ZonedDateTime atDateTime;
+    private int prisoners;
+    private int accounts;
+    private long balancePence;
+    private long amountToRequestPence;
+    private long amountToTransferPence;
+    private List<EstablishmentSummary> establishments;
+}
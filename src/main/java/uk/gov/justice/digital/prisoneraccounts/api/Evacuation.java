@@ -0,0 +1,29 @@
+package uk.gov.justice.digital.prisoneraccounts.api;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+
+@Data
+@Builder(toBuilder = true)
+public class Evacuation {
+
+    private String evacuationId;
+    private String fromEstablishmentId;
+    private String toEstablishmentId;
+    private Statuses status;
+    private int prisoners;
+    private int accounts;
+    private long amountPence;
+    private int prisonersTransferred;
+    private int accountsTransferred;
+    private long amountTransferredPence;
+    private List<String> failedPrisonerIds;
+    private ZonedDateTime startedDateTime;
+    private ZonedDateTime completedDateTime;
+
+    public enum Statuses {DRY_RUN, RUNNING, COMPLETED, COMPLETED_WITH_FAILURES}
+
+}
@@ -0,0 +1,17 @@
+package uk.gov.justice.digital.prisoneraccounts.api;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class EvacuationRequest {
+    private String toEstablishmentId;
+    /**
+     * Prisoners to transfer; every prisoner with an open account at the establishment when absent.
+     */
+    private List<String> prisonerIds;
+    private boolean dryRun;
+}
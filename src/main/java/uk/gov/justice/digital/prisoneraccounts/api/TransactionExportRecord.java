@@ -0,0 +1,21 @@
+package uk.gov.justice.digital.prisoneraccounts.api;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.ZonedDateTime;
+
+@Data
+@Builder
+@AllArgsConstructor
+public class TransactionExportRecord {
+    private String prisonerId;
+    private String accountName;
+    private Long transactionId;
+    private String description;
+    private String clientReference;
+    private String transactionType;
+    private Long amountPence;
+    private ZonedDateTime transactionDateTime;
+}
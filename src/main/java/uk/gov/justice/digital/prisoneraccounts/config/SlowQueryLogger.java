@@ -0,0 +1,34 @@
+package uk.gov.justice.digital.prisoneraccounts.config;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.listener.logging.DefaultQueryLogEntryCreator;
+
+import java.util.List;
+
+/**
+ * Logs statements, with their bind parameters, once they have taken at least the threshold to execute.
+ */
+@Slf4j
+public class SlowQueryLogger implements QueryExecutionListener {
+
+    private final long thresholdMs;
+    private final DefaultQueryLogEntryCreator logEntryCreator = new DefaultQueryLogEntryCreator();
+
+    public SlowQueryLogger(long thresholdMs) {
+        this.thresholdMs = thresholdMs;
+    }
+
+    @Override
+    public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+    }
+
+    @Override
+    public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        if (execInfo.getElapsedTime() >= thresholdMs) {
+            log.warn("Slow query: {}", logEntryCreator.getLogEntry(execInfo, queryInfoList, false, false));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package uk.gov.justice.digital.prisoneraccounts.config;
+
+import net.ttddyy.dsproxy.QueryCount;
+import net.ttddyy.dsproxy.QueryCountHolder;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.util.function.Supplier;
+
+/**
+ * Wraps the data source so that every statement is counted and timed against the current thread, and statements slower than
+ * {@code prisoneraccounts.sql.slowquerythresholdms} are logged with their bind parameters. Work handed to another thread is
+ * only counted against the request if it is wrapped with {@link #countedAgainstCaller}.
+ */
+@Configuration
+public class SqlDiagnosticsConfig {
+
+    public static final String DATA_SOURCE_NAME = "prisoneraccounts";
+
+    /**
+     * Wraps a task, on the calling thread, so that the statements it runs on a pool thread are added to the caller's count once
+     * it finishes. The caller must wait for the task before reading its count.
+     */
+    public static <T> Supplier<T> countedAgainstCaller(Supplier<T> task) {
+        QueryCount callerCount = QueryCountHolder.get(DATA_SOURCE_NAME);
+        if (callerCount == null) {
+            callerCount = new QueryCount();
+            QueryCountHolder.put(DATA_SOURCE_NAME, callerCount);
+        }
+        QueryCount target = callerCount;
+        return () -> {
+            QueryCountHolder.clear();
+            try {
+                return task.get();
+            } finally {
+                QueryCount taskCount = QueryCountHolder.get(DATA_SOURCE_NAME);
+                if (taskCount != null) {
+                    synchronized (target) {
+                        add(target, taskCount);
+                    }
+                }
+                QueryCountHolder.clear();
+            }
+        };
+    }
+
+    private static void add(QueryCount target, QueryCount count) {
+        target.setSelect(target.getSelect() + count.getSelect());
+        target.setInsert(target.getInsert() + count.getInsert());
+        target.setUpdate(target.getUpdate() + count.getUpdate());
+        target.setDelete(target.getDelete() + count.getDelete());
+        target.setOther(target.getOther() + count.getOther());
+        target.setStatement(target.getStatement() + count.getStatement());
+        target.setPrepared(target.getPrepared() + count.getPrepared());
+        target.setCallable(target.getCallable() + count.getCallable());
+        target.setTotal(target.getTotal() + count.getTotal());
+        target.setSuccess(target.getSuccess() + count.getSuccess());
+        target.setFailure(target.getFailure() + count.getFailure());
+        target.setTime(target.getTime() + count.getTime());
+    }
+
+    @Bean
+    public static BeanPostProcessor sqlDiagnosticsDataSourcePostProcessor() {
+        return new SqlDiagnosticsDataSourcePostProcessor();
+    }
+
+    private static class SqlDiagnosticsDataSourcePostProcessor implements BeanPostProcessor, EnvironmentAware {
+
+        private long slowQueryThresholdMs;
+
+        @Override
+        public void setEnvironment(Environment environment) {
+            slowQueryThresholdMs = environment.getProperty("prisoneraccounts.sql.slowquerythresholdms", Long.class, 500L);
+        }
+
+        @Override
+        public Object postProcessBeforeInitialization(Object bean, String beanName) {
+            return bean;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (!(bean instanceof DataSource)) {
+                return bean;
+            }
+            return ProxyDataSourceBuilder.create((DataSource) bean)
+                    .name(DATA_SOURCE_NAME)
+                    .countQuery()
+                    .listener(new SlowQueryLogger(slowQueryThresholdMs))
+                    .build();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package uk.gov.justice.digital.prisoneraccounts.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -14,6 +15,10 @@ import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import uk.gov.justice.digital.prisoneraccounts.api.AccountState;
 import uk.gov.justice.digital.prisoneraccounts.api.Balance;
+import uk.gov.justice.digital.prisoneraccounts.api.BulkLedgerEntry;
+import uk.gov.justice.digital.prisoneraccounts.api.BulkLedgerResult;
+import uk.gov.justice.digital.prisoneraccounts.api.Evacuation;
+import uk.gov.justice.digital.prisoneraccounts.api.EvacuationRequest;
 import uk.gov.justice.digital.prisoneraccounts.api.LedgerEntry;
 import uk.gov.justice.digital.prisoneraccounts.api.TransactionDetail;
 import uk.gov.justice.digital.prisoneraccounts.api.TransferRequest;
@@ -21,15 +26,21 @@ import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
 import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Transaction;
 import uk.gov.justice.digital.prisoneraccounts.service.AccountClosedException;
 import uk.gov.justice.digital.prisoneraccounts.service.AccountService;
+import uk.gov.justice.digital.prisoneraccounts.service.BalanceReadModel;
 import uk.gov.justice.digital.prisoneraccounts.service.DebitNotSupportedException;
+import uk.gov.justice.digital.prisoneraccounts.service.EvacuationService;
 import uk.gov.justice.digital.prisoneraccounts.service.InsufficientFundsException;
+import uk.gov.justice.digital.prisoneraccounts.service.InvalidRequestException;
 import uk.gov.justice.digital.prisoneraccounts.service.LedgerService;
 import uk.gov.justice.digital.prisoneraccounts.service.NoSuchAccountException;
 import uk.gov.justice.digital.prisoneraccounts.service.PrisonerTransferService;
+import uk.gov.justice.digital.prisoneraccounts.service.TransactionCursor;
+import uk.gov.justice.digital.prisoneraccounts.service.TransactionPage;
 import uk.gov.justice.digital.prisoneraccounts.service.TransactionService;
 
 import java.time.ZonedDateTime;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -42,17 +53,26 @@ import static org.springframework.http.HttpStatus.OK;
 @RequestMapping("/prisoneraccounts")
 public class AccountController {
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_BULK_ENTRIES = 10000;
+
     private final LedgerService ledgerService;
     private final AccountService accountService;
     private final TransactionService transactionService;
     private final PrisonerTransferService prisonerTransferService;
+    private final EvacuationService evacuationService;
+    private final Optional<BalanceReadModel> maybeBalanceReadModel;
 
     @Autowired
-    public AccountController(LedgerService ledgerService, AccountService accountService, TransactionService transactionService, PrisonerTransferService prisonerTransferService) {
+    public AccountController(LedgerService ledgerService, AccountService accountService, TransactionService transactionService, PrisonerTransferService prisonerTransferService, EvacuationService evacuationService, Optional<BalanceReadModel> maybeBalanceReadModel) {
         this.ledgerService = ledgerService;
         this.accountService = accountService;
         this.transactionService = transactionService;
         this.prisonerTransferService = prisonerTransferService;
+        this.evacuationService = evacuationService;
+        this.maybeBalanceReadModel = maybeBalanceReadModel;
     }
 
     @RequestMapping(value = "/establishments/{establishmentId}/prisoners/{prisonerId}/accounts/{accountName}", method = RequestMethod.PUT)
@@ -74,24 +94,31 @@ public class AccountController {
         return asResponseEntity(transaction);
     }
 
+    @RequestMapping(value = "/establishments/{establishmentId}/ledger", method = RequestMethod.POST)
+    public List<BulkLedgerResult> bulkLedgerEntries(
+            @PathVariable("establishmentId") String establishmentId,
+            @RequestBody List<BulkLedgerEntry> ledgerEntries) {
+        if (ledgerEntries.size() > MAX_BULK_ENTRIES) {
+            throw new InvalidRequestException("At most " + MAX_BULK_ENTRIES + " ledger entries may be posted at once");
+        }
+
+        return ledgerService.postTransactions(establishmentId, ledgerEntries);
+    }
+
     private ResponseEntity<TransactionDetail> asResponseEntity(Transaction transaction) {
-        return new ResponseEntity<TransactionDetail>(TransactionDetail.builder()
-                .amountPence(transaction.getAmountPence())
-                .clientReference(transaction.getClientReference())
-                .description(transaction.getDescription())
-                .transactionDateTime(transaction.getTransactionDateTime())
-                .transactionId(transaction.getTransactionId())
-                .transactionType(TransactionDetail.TransactionTypes.valueOf(transaction.getTransactionType().toString()))
-                .build(), HttpStatus.OK);
+        return new ResponseEntity<TransactionDetail>(transactionDetailOf(transaction), HttpStatus.OK);
     }
 
     @RequestMapping(value = "/establishments/{establishmentId}/prisoners/{prisonerId}/accounts/{accName}/balance", method = RequestMethod.GET)
     public ResponseEntity<Balance> getBalance(
             @PathVariable("establishmentId") String establishmentId,
             @PathVariable("prisonerId") String prisonerId,
-            @PathVariable("accName") String accName) {
+            @PathVariable("accName") String accName,
+            @RequestParam(name = "fresh", defaultValue = "false") boolean fresh) {
 
-        Optional<Balance> maybeBalance = accountService.currentBalanceOf(establishmentId, prisonerId, accName);
+        Optional<Balance> maybeBalance = readModel(fresh)
+                .map(balanceReadModel -> balanceReadModel.balanceOf(establishmentId, prisonerId, accName))
+                .orElseGet(() -> accountService.currentBalanceOf(establishmentId, prisonerId, accName));
 
         return maybeBalance
                 .map(balance -> new ResponseEntity<>(balance, HttpStatus.OK))
@@ -104,7 +131,9 @@ public class AccountController {
             @PathVariable("prisonerId") String prisonerId,
             @PathVariable("accName") String accName,
             @RequestParam(name = "fromDateTime", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) ZonedDateTime fromDateTime,
-            @RequestParam(name = "toDateTime", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) ZonedDateTime toDateTime) {
+            @RequestParam(name = "toDateTime", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) ZonedDateTime toDateTime,
+            @RequestParam(name = "limit", required = false) Integer limit,
+            @RequestParam(name = "after", required = false) String after) {
 
         // Hack to work around springfox-swagger problem of ignoring Optional<ZonedDateTime>
         Optional<ZonedDateTime> maybeFromDateTime = Optional.ofNullable(fromDateTime);
@@ -112,17 +141,16 @@ public class AccountController {
 
         Optional<Account> maybeAccount = accountService.accountFor(establishmentId, prisonerId, accName);
 
+        if (isPaged(limit, after)) {
+            return maybeAccount
+                    .map(account -> transactionPageResponse(Collections.singletonList(account), maybeFromDateTime, maybeToDateTime, Optional.empty(), limit, after))
+                    .orElse(notFound());
+        }
+
         Optional<List<TransactionDetail>> maybeTransactionDetails = maybeAccount
                 .map(account -> transactionService.getTransactions(account, maybeFromDateTime, maybeToDateTime))
                 .map(transactions -> transactions.stream()
-                        .map(transaction -> TransactionDetail.builder()
-                                .amountPence(transaction.getAmountPence())
-                                .clientReference(transaction.getClientReference())
-                                .description(transaction.getDescription())
-                                .transactionDateTime(transaction.getTransactionDateTime())
-                                .transactionType(TransactionDetail.TransactionTypes.valueOf(transaction.getTransactionType().toString()))
-                                .transactionId(transaction.getTransactionId())
-                                .build())
+                        .map(this::transactionDetailOf)
                         .collect(Collectors.toList()));
 
         return maybeTransactionDetails.map(transactionDetails -> new ResponseEntity<>(transactionDetails, HttpStatus.OK))
@@ -136,7 +164,9 @@ public class AccountController {
             @PathVariable("prisonerId") String prisonerId,
             @PathVariable("accName") String accName,
             @RequestParam(name = "fromDateTime", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) ZonedDateTime fromDateTime,
-            @RequestParam(name = "toDateTime", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) ZonedDateTime toDateTime) {
+            @RequestParam(name = "toDateTime", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) ZonedDateTime toDateTime,
+            @RequestParam(name = "limit", required = false) Integer limit,
+            @RequestParam(name = "after", required = false) String after) {
 
         // Hack to work around springfox-swagger problem of ignoring Optional<ZonedDateTime>
         Optional<ZonedDateTime> maybeFromDateTime = Optional.ofNullable(fromDateTime);
@@ -149,33 +179,62 @@ public class AccountController {
             return notFound();
         }
 
+        if (isPaged(limit, after)) {
+            return transactionPageResponse(prisonerAccounts, maybeFromDateTime, maybeToDateTime, Optional.of(PrisonerTransferService.TRANSFER_DESCRIPTION), limit, after);
+        }
+
         List<TransactionDetail> transactionDetailList = prisonerAccounts.stream()
                 .map(account -> transactionService.getTransactions(account, maybeFromDateTime, maybeToDateTime))
                 .map(transactions -> transactions.stream()
-                        .filter(transaction -> transaction.getDescription() != "prisoner transfer")
-                        .map(transaction -> TransactionDetail.builder()
-                                .amountPence(transaction.getAmountPence())
-                                .clientReference(transaction.getClientReference())
-                                .description(transaction.getDescription())
-                                .transactionDateTime(transaction.getTransactionDateTime())
-                                .transactionType(TransactionDetail.TransactionTypes.valueOf(transaction.getTransactionType().toString()))
-                                .transactionId(transaction.getTransactionId())
-                                .build())
+                        .filter(transaction -> !PrisonerTransferService.TRANSFER_DESCRIPTION.equals(transaction.getDescription()))
+                        .map(this::transactionDetailOf)
                         .collect(Collectors.toList()))
                 .flatMap(Collection::stream).collect(Collectors.toList());
 
         return new ResponseEntity<>(transactionDetailList, HttpStatus.OK);
     }
 
+    private boolean isPaged(Integer limit, String after) {
+        return limit != null || after != null;
+    }
+
+    private ResponseEntity<List<TransactionDetail>> transactionPageResponse(List<Account> accounts, Optional<ZonedDateTime> maybeFromDateTime, Optional<ZonedDateTime> maybeToDateTime, Optional<String> excludedDescription, Integer limit, String after) {
+        int pageSize = Optional.ofNullable(limit).orElse(DEFAULT_PAGE_SIZE);
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new InvalidRequestException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        TransactionPage page = transactionService.getTransactionsPage(accounts, maybeFromDateTime, maybeToDateTime, Optional.ofNullable(after).map(TransactionCursor::decode), excludedDescription, pageSize);
+
+        HttpHeaders headers = new HttpHeaders();
+        page.getNext().ifPresent(next -> headers.set(NEXT_CURSOR_HEADER, next.encode()));
+
+        return new ResponseEntity<>(page.getTransactions().stream().map(this::transactionDetailOf).collect(Collectors.toList()), headers, HttpStatus.OK);
+    }
+
+    private TransactionDetail transactionDetailOf(Transaction transaction) {
+        return TransactionDetail.builder()
+                .amountPence(transaction.getAmountPence())
+                .clientReference(transaction.getClientReference())
+                .description(transaction.getDescription())
+                .transactionDateTime(transaction.getTransactionDateTime())
+                .transactionType(TransactionDetail.TransactionTypes.valueOf(transaction.getTransactionType().toString()))
+                .transactionId(transaction.getTransactionId())
+                .build();
+    }
+
     @RequestMapping(value = "/establishments/{establishmentId}/prisoners/{prisonerId}/accounts", method = RequestMethod.GET)
     public ResponseEntity<List<Balance>> getPrisonerAccountsSummary(
             @PathVariable("establishmentId") String establishmentId,
-            @PathVariable("prisonerId") String prisonerId) {
+            @PathVariable("prisonerId") String prisonerId,
+            @RequestParam(name = "fresh", defaultValue = "false") boolean fresh) {
 
-        List<Balance> balanceList = accountService.prisonerOpenAccounts(establishmentId, prisonerId)
-                .stream()
-                .map(acc -> accountService.currentBalanceOf(acc))
-                .collect(Collectors.toList());
+        List<Balance> balanceList = readModel(fresh)
+                .map(balanceReadModel -> balanceReadModel.prisonerBalances(establishmentId, prisonerId))
+                .orElseGet(() -> accountService.prisonerOpenAccounts(establishmentId, prisonerId)
+                        .stream()
+                        .map(acc -> accountService.currentBalanceOf(acc))
+                        .collect(Collectors.toList()));
 
         return accountSummaryFor(balanceList);
 
@@ -183,13 +242,23 @@ public class AccountController {
 
     @RequestMapping(value = "/establishments/{establishmentId}/prisoners/accounts", method = RequestMethod.GET)
     public Map<String, List<AccountState>> getPrisonAccounts(
-            @PathVariable("establishmentId") String establishmentId) {
+            @PathVariable("establishmentId") String establishmentId,
+            @RequestParam(name = "fresh", defaultValue = "false") boolean fresh) {
 
-        Map<String, List<AccountState>> balances = accountService.establishmentAccountsSummary(establishmentId, Optional.empty());
+        Map<String, List<AccountState>> balances = readModel(fresh)
+                .map(balanceReadModel -> balanceReadModel.establishmentAccountsSummary(establishmentId))
+                .orElseGet(() -> accountService.establishmentAccountsSummary(establishmentId, Optional.empty()));
 
         return balances;
     }
 
+    /**
+     * The in-memory read model, unless the caller asked to read the database, which it should after writing through another instance.
+     */
+    private Optional<BalanceReadModel> readModel(boolean fresh) {
+        return fresh ? Optional.empty() : maybeBalanceReadModel;
+    }
+
     private ResponseEntity<List<Balance>> accountSummaryFor(List<Balance> balanceList) {
         if (balanceList.isEmpty()) {
             return new ResponseEntity(NOT_FOUND);
@@ -229,6 +298,31 @@ public class AccountController {
 
     }
 
+    @RequestMapping(value = "/establishments/{establishmentId}/evacuations", method = RequestMethod.POST)
+    public ResponseEntity<Evacuation> evacuateEstablishment(
+            @PathVariable("establishmentId") String fromEstablishmentId,
+            @RequestBody EvacuationRequest evacuationRequest) {
+        String toEstablishmentId = evacuationRequest.getToEstablishmentId();
+        if (toEstablishmentId == null || toEstablishmentId.equals(fromEstablishmentId)) {
+            throw new InvalidRequestException("toEstablishmentId must name a different establishment");
+        }
+
+        Optional<Collection<String>> maybePrisonerIds = Optional.ofNullable(evacuationRequest.getPrisonerIds());
+
+        if (evacuationRequest.isDryRun()) {
+            return new ResponseEntity<>(evacuationService.plan(fromEstablishmentId, toEstablishmentId, maybePrisonerIds), OK);
+        }
+
+        return new ResponseEntity<>(evacuationService.start(fromEstablishmentId, toEstablishmentId, maybePrisonerIds), HttpStatus.ACCEPTED);
+    }
+
+    @RequestMapping(value = "/evacuations/{evacuationId}", method = RequestMethod.GET)
+    public ResponseEntity<Evacuation> getEvacuation(@PathVariable("evacuationId") String evacuationId) {
+        return evacuationService.evacuation(evacuationId)
+                .map(evacuation -> new ResponseEntity<>(evacuation, OK))
+                .orElse(new ResponseEntity<>(NOT_FOUND));
+    }
+
     @ExceptionHandler(DebitNotSupportedException.class)
     public ResponseEntity<String> debitNotSupported(DebitNotSupportedException e) {
         return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
@@ -238,4 +332,9 @@ public class AccountController {
     public ResponseEntity<String> insufficientFunds(InsufficientFundsException e) {
         return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
     }
+
+    @ExceptionHandler(InvalidRequestException.class)
+    public ResponseEntity<String> badRequest(InvalidRequestException e) {
+        return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+    }
 }
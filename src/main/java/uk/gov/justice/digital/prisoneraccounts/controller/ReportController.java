@@ -1,8 +1,11 @@
 package uk.gov.justice.digital.prisoneraccounts.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
@@ -10,11 +13,21 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import uk.gov.justice.digital.prisoneraccounts.api.AccountState;
+import uk.gov.justice.digital.prisoneraccounts.api.BalanceDiscrepancy;
+import uk.gov.justice.digital.prisoneraccounts.api.DailyBalance;
 import uk.gov.justice.digital.prisoneraccounts.api.EstablishmentTransferSummary;
+import uk.gov.justice.digital.prisoneraccounts.api.EstateSummary;
 import uk.gov.justice.digital.prisoneraccounts.service.AccountService;
+import uk.gov.justice.digital.prisoneraccounts.service.BalanceCheckpointService;
+import uk.gov.justice.digital.prisoneraccounts.service.EstateReportService;
 import uk.gov.justice.digital.prisoneraccounts.service.PrisonerTransferService;
 import uk.gov.justice.digital.prisoneraccounts.service.TransactionService;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.Map;
@@ -27,12 +40,18 @@ public class ReportController {
     private final AccountService accountService;
     private final TransactionService transactionService;
     private final PrisonerTransferService prisonerTransferService;
+    private final EstateReportService estateReportService;
+    private final BalanceCheckpointService balanceCheckpointService;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public ReportController(AccountService accountService, TransactionService transactionService, PrisonerTransferService prisonerTransferService) {
+    public ReportController(AccountService accountService, TransactionService transactionService, PrisonerTransferService prisonerTransferService, EstateReportService estateReportService, BalanceCheckpointService balanceCheckpointService, MappingJackson2HttpMessageConverter jsonConverter) {
         this.accountService = accountService;
         this.transactionService = transactionService;
         this.prisonerTransferService = prisonerTransferService;
+        this.estateReportService = estateReportService;
+        this.balanceCheckpointService = balanceCheckpointService;
+        this.objectMapper = jsonConverter.getObjectMapper();
     }
 
     @RequestMapping(value = "/establishments/{establishmentId}/prisonertransfers", method = RequestMethod.GET)
@@ -57,4 +76,46 @@ public class ReportController {
         return balances;
     }
 
+    @RequestMapping(value = "/establishments/{establishmentId}/dailybalances/{day}", method = RequestMethod.GET)
+    public ResponseEntity<List<DailyBalance>> getDailyBalances(
+            @PathVariable("establishmentId") String establishmentId,
+            @PathVariable("day") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate day) {
+
+        return balanceCheckpointService.establishmentDailyBalances(establishmentId, day)
+                .map(balances -> new ResponseEntity<>(balances, HttpStatus.OK))
+                .orElse(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
+
+    @RequestMapping(value = "/estate", method = RequestMethod.GET)
+    public EstateSummary getEstateReport(
+            @RequestParam(name = "atDateTime", required = true) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) ZonedDateTime atDateTime) {
+
+        return estateReportService.estateSummary(atDateTime);
+    }
+
+    @RequestMapping(value = "/establishments/{establishmentId}/transactions", method = RequestMethod.GET)
+    public void exportTransactions(
+            @PathVariable("establishmentId") String establishmentId,
+            @RequestParam(name = "fromDateTime", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) ZonedDateTime fromDateTime,
+            @RequestParam(name = "toDateTime", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) ZonedDateTime toDateTime,
+            @RequestParam(name = "format", defaultValue = "NDJSON") TransactionExportFormat format,
+            HttpServletResponse response) throws IOException {
+
+        response.setContentType(format.getContentType());
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+        try (TransactionExportFormat.RecordWriter writer = format.writerFor(response.getOutputStream(), objectMapper)) {
+            transactionService.exportEstablishmentTransactions(establishmentId, Optional.ofNullable(fromDateTime), Optional.ofNullable(toDateTime), writer);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @RequestMapping(value = "/establishments/{establishmentId}/balances/discrepancies", method = RequestMethod.GET)
+    public List<BalanceDiscrepancy> getBalanceDiscrepancies(
+            @PathVariable("establishmentId") String establishmentId) {
+
+        return accountService.balanceDiscrepancies(establishmentId);
+    }
+
 }
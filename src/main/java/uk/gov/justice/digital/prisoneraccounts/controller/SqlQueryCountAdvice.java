@@ -0,0 +1,28 @@
+package uk.gov.justice.digital.prisoneraccounts.controller;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+/**
+ * Adds the query count headers just before a response body is written, since the response is committed by the time
+ * {@link SqlQueryCountFilter} regains control. Responses streamed directly to the servlet response carry no headers.
+ */
+@ControllerAdvice
+public class SqlQueryCountAdvice implements ResponseBodyAdvice<Object> {
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType, Class<? extends HttpMessageConverter<?>> selectedConverterType, ServerHttpRequest request, ServerHttpResponse response) {
+        SqlQueryCountFilter.addQueryCountHeaders(response.getHeaders());
+        return body;
+    }
+}
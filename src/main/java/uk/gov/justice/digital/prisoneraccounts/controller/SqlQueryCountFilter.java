@@ -0,0 +1,65 @@
+package uk.gov.justice.digital.prisoneraccounts.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import net.ttddyy.dsproxy.QueryCount;
+import net.ttddyy.dsproxy.QueryCountHolder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import uk.gov.justice.digital.prisoneraccounts.config.SqlDiagnosticsConfig;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Counts the SQL statements run, and the time spent in them, while handling each request. Requests running more than
+ * {@code prisoneraccounts.sql.warnquerycount} statements are logged as warnings, others at debug.
+ * Counts are kept per thread. Estate reports add the statements of their pool to the request's count; work done elsewhere on
+ * the request's behalf, by the group committer, the journal projector or an evacuation job, is not included.
+ */
+@Slf4j
+@Component
+public class SqlQueryCountFilter extends OncePerRequestFilter {
+
+    public static final String QUERY_COUNT_HEADER = "X-Query-Count";
+    public static final String QUERY_TIME_HEADER = "X-Query-Time-Ms";
+
+    private final long warnQueryCount;
+
+    @Autowired
+    public SqlQueryCountFilter(@Value("${prisoneraccounts.sql.warnquerycount:50}") long warnQueryCount) {
+        this.warnQueryCount = warnQueryCount;
+    }
+
+    /**
+     * Adds the statements counted so far in this request to the response headers.
+     */
+    public static void addQueryCountHeaders(HttpHeaders headers) {
+        QueryCount queryCount = QueryCountHolder.get(SqlDiagnosticsConfig.DATA_SOURCE_NAME);
+        headers.set(QUERY_COUNT_HEADER, String.valueOf(queryCount == null ? 0 : queryCount.getTotal()));
+        headers.set(QUERY_TIME_HEADER, String.valueOf(queryCount == null ? 0 : queryCount.getTime()));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        QueryCountHolder.clear();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            QueryCount queryCount = QueryCountHolder.get(SqlDiagnosticsConfig.DATA_SOURCE_NAME);
+            if (queryCount != null) {
+                if (queryCount.getTotal() > warnQueryCount) {
+                    log.warn("{} {} ran {} queries in {} ms", request.getMethod(), request.getRequestURI(), queryCount.getTotal(), queryCount.getTime());
+                } else {
+                    log.debug("{} {} ran {} queries in {} ms", request.getMethod(), request.getRequestURI(), queryCount.getTotal(), queryCount.getTime());
+                }
+            }
+            QueryCountHolder.clear();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package uk.gov.justice.digital.prisoneraccounts.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import uk.gov.justice.digital.prisoneraccounts.api.TransactionExportRecord;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Line-oriented encodings for streamed transaction exports. Each writer holds at most one record at a time.
+ */
+public enum TransactionExportFormat {
+
+    NDJSON("application/x-ndjson") {
+        @Override
+        RecordWriter writerFor(OutputStream outputStream, ObjectMapper objectMapper) throws IOException {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+            // Each record ends its own line, so no separator is wanted between root values.
+            generator.setRootValueSeparator(null);
+            ObjectWriter objectWriter = objectMapper.writerFor(TransactionExportRecord.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+            return new RecordWriter(generator) {
+                @Override
+                void write(TransactionExportRecord record) throws IOException {
+                    objectWriter.writeValue(generator, record);
+                    generator.writeRaw('\n');
+                }
+            };
+        }
+    },
+
+    CSV("text/csv") {
+        @Override
+        RecordWriter writerFor(OutputStream outputStream, ObjectMapper objectMapper) throws IOException {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            writer.write("prisonerId,accountName,transactionId,description,clientReference,transactionType,amountPence,transactionDateTime\n");
+
+            return new RecordWriter(writer) {
+                @Override
+                void write(TransactionExportRecord record) throws IOException {
+                    writer.write(csvLineOf(
+                            record.getPrisonerId(),
+                            record.getAccountName(),
+                            record.getTransactionId(),
+                            record.getDescription(),
+                            record.getClientReference(),
+                            record.getTransactionType(),
+                            record.getAmountPence(),
+                            record.getTransactionDateTime()));
+                }
+            };
+        }
+    };
+
+    private final String contentType;
+
+    TransactionExportFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    abstract RecordWriter writerFor(OutputStream outputStream, ObjectMapper objectMapper) throws IOException;
+
+    private static String csvLineOf(Object... values) {
+        return Arrays.stream(values)
+                .map(value -> csvFieldOf(Objects.toString(value, "")))
+                .collect(Collectors.joining(",", "", "\n"));
+    }
+
+    private static String csvFieldOf(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    abstract static class RecordWriter implements Consumer<TransactionExportRecord>, Closeable {
+
+        private final Closeable target;
+
+        RecordWriter(Closeable target) {
+            this.target = target;
+        }
+
+        abstract void write(TransactionExportRecord record) throws IOException;
+
+        @Override
+        public void accept(TransactionExportRecord record) {
+            try {
+                write(record);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            target.close();
+        }
+    }
+}
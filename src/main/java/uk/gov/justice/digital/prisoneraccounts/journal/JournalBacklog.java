@@ -0,0 +1,33 @@
+package uk.gov.justice.digital.prisoneraccounts.journal;
+
+import org.springframework.stereotype.Component;
+
+import java.time.ZonedDateTime;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The transaction times of the journal records appended but not yet projected, keyed by the position just after each record.
+ * Reports over a window these times fall in can still change. Empty when journal mode is off.
+ */
+@Component
+public class JournalBacklog {
+
+    private final ConcurrentSkipListMap<Long, ZonedDateTime> unprojected = new ConcurrentSkipListMap<>();
+
+    public void appended(long position, ZonedDateTime transactionDateTime) {
+        unprojected.put(position, transactionDateTime);
+    }
+
+    /**
+     * Forgets every record up to and including the one ending at {@code position}.
+     */
+    public void projectedTo(long position) {
+        unprojected.headMap(position, true).clear();
+    }
+
+    public Optional<ZonedDateTime> oldestTransactionDateTime() {
+        return unprojected.values().stream().min(Comparator.naturalOrder());
+    }
+}
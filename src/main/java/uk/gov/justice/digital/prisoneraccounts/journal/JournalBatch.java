@@ -0,0 +1,14 @@
+package uk.gov.justice.digital.prisoneraccounts.journal;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Records read from the journal, and the position just after the last of them.
+ */
+@Value
+public class JournalBatch {
+    private final List<JournalRecord> records;
+    private final long nextPosition;
+}
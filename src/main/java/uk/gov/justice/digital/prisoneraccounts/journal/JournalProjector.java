@@ -0,0 +1,121 @@
+package uk.gov.justice.digital.prisoneraccounts.journal;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.JournalPosition;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.RejectedJournalRecord;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Transaction;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.AccountRepository;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.JournalPositionRepository;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.RejectedJournalRecordRepository;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.TransactionRepository;
+import uk.gov.justice.digital.prisoneraccounts.service.AccountClosedException;
+import uk.gov.justice.digital.prisoneraccounts.service.AccountService;
+import uk.gov.justice.digital.prisoneraccounts.service.InsufficientFundsException;
+import uk.gov.justice.digital.prisoneraccounts.service.LedgerMetrics;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Applies batches of journal records to the transactions and balances tables, advancing the journal's projected position in
+ * the same transaction so that a batch is applied exactly once however often it is replayed. Records are checked again as they
+ * are applied: a posting to an account that is no longer open, or debiting more than the stored balance, is left out of the
+ * ledger and written to {@code REJECTED_JOURNAL_RECORDS} with the batch, so that the acknowledged posting can be reconciled.
+ */
+@Component
+@Slf4j
+public class JournalProjector {
+
+    private final AccountService accountService;
+    private final AccountRepository accountRepository;
+    private final TransactionRepository transactionRepository;
+    private final JournalPositionRepository journalPositionRepository;
+    private final RejectedJournalRecordRepository rejectedJournalRecordRepository;
+    private final LedgerMetrics ledgerMetrics;
+
+    @Autowired
+    public JournalProjector(AccountService accountService, AccountRepository accountRepository, TransactionRepository transactionRepository, JournalPositionRepository journalPositionRepository, RejectedJournalRecordRepository rejectedJournalRecordRepository, LedgerMetrics ledgerMetrics) {
+        this.accountService = accountService;
+        this.accountRepository = accountRepository;
+        this.transactionRepository = transactionRepository;
+        this.journalPositionRepository = journalPositionRepository;
+        this.rejectedJournalRecordRepository = rejectedJournalRecordRepository;
+        this.ledgerMetrics = ledgerMetrics;
+    }
+
+    public long projectedPosition(String journalName) {
+        return Optional.ofNullable(journalPositionRepository.findOne(journalName))
+                .map(JournalPosition::getProjectedPosition)
+                .orElse(0L);
+    }
+
+    /**
+     * Projects the batch and returns the change its records, rejected ones included, were journaled as making to each account's
+     * balance.
+     */
+    @Transactional
+    public Map<Long, Long> project(String journalName, JournalBatch batch) {
+        Map<Long, Long> amountsPence = batch.getRecords().stream()
+                .collect(Collectors.groupingBy(JournalRecord::getAccountId, Collectors.summingLong(JournalRecord::signedAmountPence)));
+        Map<Long, Account> accounts = accountRepository.findAll(amountsPence.keySet())
+                .stream()
+                .collect(Collectors.toMap(Account::getAccountId, Function.identity()));
+
+        Map<Long, Long> balances = accountService.lockBalancesOf(accounts.values());
+        List<Transaction> transactions = new ArrayList<>();
+        for (JournalRecord record : batch.getRecords()) {
+            // Only accounts open in the database have a locked balance.
+            Long balancePence = balances.get(record.getAccountId());
+            if (balancePence == null) {
+                rejected(journalName, record, new AccountClosedException("Account " + record.getAccountId() + " is closed. New transactions not permitted."));
+            } else if (record.getTransactionType() == Transaction.TransactionTypes.DEBIT && balancePence < record.getAmountPence()) {
+                rejected(journalName, record, new InsufficientFundsException("Insufficient funds."));
+            } else {
+                balances.put(record.getAccountId(), balancePence + record.signedAmountPence());
+                transactions.add(Transaction.builder()
+                        .account(accounts.get(record.getAccountId()))
+                        .transactionType(record.getTransactionType())
+                        .amountPence(record.getAmountPence())
+                        .transactionDateTime(record.getTransactionDateTime())
+                        .description(record.getDescription())
+                        .clientReference(record.getClientRef())
+                        .build());
+            }
+        }
+        transactionRepository.save(transactions);
+        accountService.storeLockedBalances(balances);
+
+        journalPositionRepository.save(JournalPosition.builder()
+                .journalName(journalName)
+                .projectedPosition(batch.getNextPosition())
+                .build());
+
+        return amountsPence;
+    }
+
+    private void rejected(String journalName, JournalRecord record, Exception reason) {
+        log.warn("Journal {} rejected {} of {} pence to account {} with client reference {}: {}", journalName, record.getTransactionType(),
+                record.getAmountPence(), record.getAccountId(), record.getClientRef(), ledgerMetrics.rejected(reason).getMessage());
+        rejectedJournalRecordRepository.save(RejectedJournalRecord.builder()
+                .journalName(journalName)
+                .accountId(record.getAccountId())
+                .transactionType(record.getTransactionType())
+                .amountPence(record.getAmountPence())
+                .transactionDateTime(record.getTransactionDateTime())
+                .description(record.getDescription())
+                .clientReference(record.getClientRef())
+                .reason(reason.getMessage())
+                .rejectedDateTime(ZonedDateTime.now(ZoneOffset.UTC))
+                .build());
+    }
+}
@@ -0,0 +1,92 @@
+package uk.gov.justice.digital.prisoneraccounts.journal;
+
+import lombok.Builder;
+import lombok.Value;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Transaction;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+/**
+ * One ledger posting as written to the journal: the account it applies to and everything needed to rebuild its transaction.
+ */
+@Value
+@Builder
+public class JournalRecord {
+
+    private static final int FIXED_BYTES = Long.BYTES + 1 + Long.BYTES + Long.BYTES + Integer.BYTES + 2 * Short.BYTES;
+
+    private final long accountId;
+    private final Transaction.TransactionTypes transactionType;
+    private final long amountPence;
+    private final ZonedDateTime transactionDateTime;
+    private final String description;
+    private final String clientRef;
+
+    public long signedAmountPence() {
+        return transactionType == Transaction.TransactionTypes.DEBIT ? -amountPence : amountPence;
+    }
+
+    byte[] encode() {
+        byte[] descriptionBytes = bytesOf(description);
+        byte[] clientRefBytes = bytesOf(clientRef);
+        Instant instant = transactionDateTime.toInstant();
+
+        ByteBuffer buffer = ByteBuffer.allocate(FIXED_BYTES + lengthOf(descriptionBytes) + lengthOf(clientRefBytes))
+                .putLong(accountId)
+                .put((byte) transactionType.ordinal())
+                .putLong(amountPence)
+                .putLong(instant.getEpochSecond())
+                .putInt(instant.getNano());
+        putString(buffer, descriptionBytes);
+        putString(buffer, clientRefBytes);
+        return buffer.array();
+    }
+
+    static JournalRecord decode(ByteBuffer buffer) {
+        return JournalRecord.builder()
+                .accountId(buffer.getLong())
+                .transactionType(Transaction.TransactionTypes.values()[buffer.get()])
+                .amountPence(buffer.getLong())
+                .transactionDateTime(ZonedDateTime.ofInstant(Instant.ofEpochSecond(buffer.getLong(), buffer.getInt()), ZoneOffset.UTC))
+                .description(getString(buffer))
+                .clientRef(getString(buffer))
+                .build();
+    }
+
+    private static byte[] bytesOf(String value) {
+        if (value == null) {
+            return null;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Journal strings are limited to " + Short.MAX_VALUE + " bytes");
+        }
+        return bytes;
+    }
+
+    private static int lengthOf(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
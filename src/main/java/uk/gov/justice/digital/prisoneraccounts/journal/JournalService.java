@@ -0,0 +1,284 @@
+package uk.gov.justice.digital.prisoneraccounts.journal;
+
+import com.google.common.util.concurrent.Striped;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import uk.gov.justice.digital.prisoneraccounts.api.Operations;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Transaction;
+import uk.gov.justice.digital.prisoneraccounts.service.AccountClosedException;
+import uk.gov.justice.digital.prisoneraccounts.service.AccountService;
+import uk.gov.justice.digital.prisoneraccounts.service.InsufficientFundsException;
+import uk.gov.justice.digital.prisoneraccounts.service.LedgerMetrics;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * Journal mode for single ledger postings, enabled by {@code prisoneraccounts.journal.enabled}. A posting is checked, appended
+ * to the {@link LedgerJournal} and acknowledged once the append is durable; a background projector then writes it to the
+ * transactions and balances tables in batches. Any unprojected tail left by a crash is projected at startup, before postings
+ * are accepted.
+ * <p>
+ * Debits are checked against the stored balance plus the amounts still waiting to be projected. Balances, transactions and
+ * reports only show a posting once it has been projected. Writes that work on the stored balances directly, such as bulk
+ * postings and transfers, {@link #holdAccounts hold} the accounts they debit or close for the length of their transaction.
+ * The projector rejects any record that no longer fits, such as a posting to an account closed elsewhere.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "prisoneraccounts.journal.enabled", havingValue = "true")
+public class JournalService {
+
+    private final AccountService accountService;
+    private final JournalProjector journalProjector;
+    private final JournalBacklog journalBacklog;
+    private final LedgerMetrics ledgerMetrics;
+    private final MeterRegistry meterRegistry;
+    private final String journalName;
+    private final String directory;
+    private final int segmentBytes;
+    private final int projectBatchSize;
+    private final long projectIdleMillis;
+
+    private final Striped<Lock> accountLocks = Striped.lock(64);
+    // Held exclusively while a batch is committed, so no debit sees it both stored and pending.
+    private final ReadWriteLock projectionLock = new ReentrantReadWriteLock();
+    private final Map<Long, Long> pendingPence = new ConcurrentHashMap<>();
+
+    private LedgerJournal journal;
+    private volatile long projectedPosition;
+    private volatile boolean running;
+    private Thread projector;
+
+    @Autowired
+    public JournalService(AccountService accountService,
+                          JournalProjector journalProjector,
+                          JournalBacklog journalBacklog,
+                          LedgerMetrics ledgerMetrics,
+                          MeterRegistry meterRegistry,
+                          @Value("${prisoneraccounts.journal.name:ledger}") String journalName,
+                          @Value("${prisoneraccounts.journal.directory}") String directory,
+                          @Value("${prisoneraccounts.journal.segmentmb:64}") int segmentMegabytes,
+                          @Value("${prisoneraccounts.journal.projectbatchsize:1000}") int projectBatchSize,
+                          @Value("${prisoneraccounts.journal.projectidlems:10}") long projectIdleMillis) {
+        this.accountService = accountService;
+        this.journalProjector = journalProjector;
+        this.journalBacklog = journalBacklog;
+        this.ledgerMetrics = ledgerMetrics;
+        this.meterRegistry = meterRegistry;
+        this.journalName = journalName;
+        this.directory = directory;
+        this.segmentBytes = segmentMegabytes * 1024 * 1024;
+        this.projectBatchSize = projectBatchSize;
+        this.projectIdleMillis = projectIdleMillis;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        projectedPosition = journalProjector.projectedPosition(journalName);
+        journal = new LedgerJournal(Paths.get(directory), segmentBytes, projectedPosition);
+
+        int replayed = 0;
+        for (int projected = projectOnce(); projected > 0; projected = projectOnce()) {
+            replayed += projected;
+        }
+        if (replayed > 0) {
+            log.info("Replayed {} unprojected records from journal {}", replayed, journalName);
+        }
+
+        Gauge.builder("prisoneraccounts.journal.unprojected", this, service -> service.journal.writePosition() - service.projectedPosition)
+                .description("Bytes appended to the ledger journal but not yet projected")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+
+        running = true;
+        projector = new Thread(this::projectContinuously, "journal-projector-" + journalName);
+        projector.setDaemon(true);
+        projector.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        projector.interrupt();
+        projector.join();
+        journal.close();
+    }
+
+    /**
+     * Journals a posting to an open account, returning its transaction once durable. The transaction has no id until projected.
+     */
+    public Transaction post(Account account, Operations operation, long amountPence, String description, String clientRef) throws InsufficientFundsException, AccountClosedException {
+        JournalRecord record = JournalRecord.builder()
+                .accountId(account.getAccountId())
+                .transactionType(operation == Operations.DEBIT ? Transaction.TransactionTypes.DEBIT : Transaction.TransactionTypes.CREDIT)
+                .amountPence(amountPence)
+                .transactionDateTime(ZonedDateTime.now(ZoneOffset.UTC))
+                .description(description)
+                .clientRef(clientRef)
+                .build();
+
+        long position;
+        Lock accountLock = accountLocks.get(account.getAccountId());
+        accountLock.lock();
+        projectionLock.readLock().lock();
+        try {
+            long balancePence = accountService.openBalanceOf(account);
+            if (record.getTransactionType() == Transaction.TransactionTypes.DEBIT
+                    && balancePence + pendingPence.getOrDefault(account.getAccountId(), 0L) < amountPence) {
+                throw ledgerMetrics.rejected(new InsufficientFundsException("Insufficient funds."));
+            }
+            position = journal.append(record);
+            pendingPence.merge(account.getAccountId(), record.signedAmountPence(), Long::sum);
+            journalBacklog.appended(position, record.getTransactionDateTime());
+        } finally {
+            projectionLock.readLock().unlock();
+            accountLock.unlock();
+        }
+
+        journal.awaitDurable(position);
+
+        return Transaction.builder()
+                .account(account)
+                .transactionType(record.getTransactionType())
+                .amountPence(amountPence)
+                .transactionDateTime(record.getTransactionDateTime())
+                .description(description)
+                .clientReference(clientRef)
+                .build();
+    }
+
+    /**
+     * Holds off postings to the accounts until the surrounding transaction completes, then waits until everything journaled so far
+     * has been projected. A write that works on the stored balances directly then sees every posting to those accounts, and no
+     * posting is checked against a balance it is about to change. Accounts already held by the transaction are not waited for
+     * again, so a transaction should hold every account it needs with its first call.
+     */
+    public void holdAccounts(Collection<Account> accounts) {
+        Set<Long> heldAccountIds = heldAccountIds();
+        List<Long> accountIds = accounts.stream()
+                .map(Account::getAccountId)
+                .filter(accountId -> !heldAccountIds.contains(accountId))
+                .distinct()
+                .collect(Collectors.toList());
+        if (accountIds.isEmpty()) {
+            return;
+        }
+
+        List<Lock> locks = new ArrayList<>();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                locks.forEach(Lock::unlock);
+            }
+        });
+        // Striped hands back the locks in a fixed order, so transactions holding overlapping accounts cannot deadlock.
+        for (Lock lock : accountLocks.bulkGet(accountIds)) {
+            lock.lock();
+            locks.add(lock);
+        }
+        heldAccountIds.addAll(accountIds);
+        awaitProjection();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<Long> heldAccountIds() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Accounts can only be held for the length of a transaction");
+        }
+        Set<Long> heldAccountIds = (Set<Long>) TransactionSynchronizationManager.getResource(this);
+        if (heldAccountIds == null) {
+            heldAccountIds = new HashSet<>();
+            TransactionSynchronizationManager.bindResource(this, heldAccountIds);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(JournalService.this);
+                }
+            });
+        }
+        return heldAccountIds;
+    }
+
+    /**
+     * Waits until everything journaled so far has been projected.
+     */
+    public void awaitProjection() {
+        long target = journal.writePosition();
+        synchronized (this) {
+            while (projectedPosition < target) {
+                try {
+                    wait(projectIdleMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted waiting for journal " + journalName + " to be projected", e);
+                }
+            }
+        }
+    }
+
+    private int projectOnce() throws IOException {
+        JournalBatch batch = journal.read(projectedPosition, journal.durablePosition(), projectBatchSize);
+        if (batch.getRecords().isEmpty()) {
+            return 0;
+        }
+
+        projectionLock.writeLock().lock();
+        try {
+            journalProjector.project(journalName, batch).forEach((accountId, amountPence) ->
+                    pendingPence.computeIfPresent(accountId, (id, pending) -> pending.equals(amountPence) ? null : pending - amountPence));
+            projectedPosition = batch.getNextPosition();
+            journalBacklog.projectedTo(projectedPosition);
+        } finally {
+            projectionLock.writeLock().unlock();
+        }
+
+        synchronized (this) {
+            notifyAll();
+        }
+        journal.release(projectedPosition);
+        return batch.getRecords().size();
+    }
+
+    private void projectContinuously() {
+        while (running) {
+            try {
+                if (projectOnce() == 0) {
+                    Thread.sleep(projectIdleMillis);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                log.error("Failed to project journal {}, retrying", journalName, e);
+                try {
+                    Thread.sleep(projectIdleMillis * 100);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+}
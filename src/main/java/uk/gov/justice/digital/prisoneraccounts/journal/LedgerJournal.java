@@ -0,0 +1,267 @@
+package uk.gov.justice.digital.prisoneraccounts.journal;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal kept in fixed size, memory-mapped segment files. Each record is framed by its length and CRC32, so a
+ * record torn by a crash is found and discarded when the journal is reopened. A position is the segment number times the
+ * segment size plus the offset within the segment.
+ * <p>
+ * Appends are made durable in groups: the first thread to wait for its record forces the mapped segment for every record
+ * written so far, and threads arriving meanwhile wait for that force rather than issuing their own.
+ */
+@Slf4j
+public class LedgerJournal implements Closeable {
+
+    private static final int FRAME_HEADER_BYTES = 2 * Integer.BYTES;
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final ConcurrentNavigableMap<Long, MappedByteBuffer> segments = new ConcurrentSkipListMap<>();
+
+    private MappedByteBuffer appendSegment;
+    private long writePosition;
+
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition synced = syncLock.newCondition();
+    private boolean syncing;
+    private volatile long durablePosition;
+
+    /**
+     * Opens the journal in {@code directory}, discarding segments wholly before {@code startPosition} and anything after the
+     * last intact record.
+     */
+    public LedgerJournal(Path directory, int segmentBytes, long startPosition) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files.filter(f -> f.getFileName().toString().endsWith(SEGMENT_SUFFIX))::iterator) {
+                long segment = Long.parseLong(file.getFileName().toString().replace(SEGMENT_SUFFIX, ""));
+                if (segment < segmentOf(startPosition)) {
+                    Files.delete(file);
+                } else {
+                    map(segment);
+                }
+            }
+        }
+
+        writePosition = recover(startPosition);
+        durablePosition = writePosition;
+    }
+
+    public long append(JournalRecord record) {
+        byte[] payload = record.encode();
+        int frameBytes = FRAME_HEADER_BYTES + payload.length;
+        if (frameBytes > segmentBytes) {
+            throw new IllegalArgumentException("Journal record of " + frameBytes + " bytes does not fit in a segment");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        synchronized (this) {
+            if (offsetOf(writePosition) + frameBytes > segmentBytes) {
+                roll();
+            }
+            ByteBuffer frame = appendSegment.duplicate();
+            frame.position(offsetOf(writePosition));
+            frame.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+            writePosition += frameBytes;
+            return writePosition;
+        }
+    }
+
+    /**
+     * Returns once every record up to {@code position} has been forced to disk.
+     */
+    public void awaitDurable(long position) {
+        syncLock.lock();
+        try {
+            while (durablePosition < position) {
+                if (syncing) {
+                    synced.awaitUninterruptibly();
+                    continue;
+                }
+                syncing = true;
+                syncLock.unlock();
+                long forcedPosition;
+                try {
+                    forcedPosition = force();
+                } finally {
+                    syncLock.lock();
+                    syncing = false;
+                    synced.signalAll();
+                }
+                durablePosition = Math.max(durablePosition, forcedPosition);
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    public long durablePosition() {
+        return durablePosition;
+    }
+
+    public synchronized long writePosition() {
+        return writePosition;
+    }
+
+    /**
+     * Reads at most {@code maxRecords} records from {@code fromPosition}, stopping at {@code toPosition}.
+     */
+    public JournalBatch read(long fromPosition, long toPosition, int maxRecords) {
+        List<JournalRecord> records = new ArrayList<>();
+        long position = fromPosition;
+
+        while (position < toPosition && records.size() < maxRecords) {
+            long segment = segmentOf(position);
+            int offset = offsetOf(position);
+            MappedByteBuffer buffer = segments.get(segment);
+            if (buffer == null) {
+                throw new IllegalStateException("Journal segment " + segment + " is missing from " + directory);
+            }
+
+            int length = offset + FRAME_HEADER_BYTES <= segmentBytes ? buffer.getInt(offset) : 0;
+            if (length == 0) {
+                position = (segment + 1) * segmentBytes;
+                continue;
+            }
+
+            ByteBuffer payload = buffer.duplicate();
+            payload.limit(offset + FRAME_HEADER_BYTES + length).position(offset + FRAME_HEADER_BYTES);
+            records.add(JournalRecord.decode(payload.slice()));
+            position += FRAME_HEADER_BYTES + length;
+        }
+
+        return new JournalBatch(records, position);
+    }
+
+    /**
+     * Deletes the segments that lie wholly before {@code position}, once everything in them has been projected.
+     */
+    public void release(long position) throws IOException {
+        for (Long segment : new ArrayList<>(segments.headMap(segmentOf(position)).keySet())) {
+            segments.remove(segment);
+            Files.deleteIfExists(segmentFile(segment));
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        appendSegment.force();
+    }
+
+    private long recover(long startPosition) throws IOException {
+        long position = startPosition;
+        while (true) {
+            long segment = segmentOf(position);
+            MappedByteBuffer buffer = segments.containsKey(segment) ? segments.get(segment) : map(segment);
+            int length = intactFrameLengthAt(buffer, offsetOf(position));
+            if (length > 0) {
+                position += FRAME_HEADER_BYTES + length;
+            } else if (segments.containsKey(segment + 1)) {
+                position = (segment + 1) * segmentBytes;
+            } else {
+                break;
+            }
+        }
+
+        long lastSegment = segmentOf(position);
+        for (Long segment : new ArrayList<>(segments.tailMap(lastSegment, false).keySet())) {
+            segments.remove(segment);
+            Files.delete(segmentFile(segment));
+        }
+
+        appendSegment = segments.get(lastSegment);
+        ByteBuffer tail = appendSegment.duplicate();
+        tail.position(offsetOf(position));
+        byte[] zeros = new byte[Math.min(tail.remaining(), 64 * 1024)];
+        while (tail.hasRemaining()) {
+            tail.put(zeros, 0, Math.min(zeros.length, tail.remaining()));
+        }
+        appendSegment.force();
+
+        if (position != startPosition) {
+            log.info("Journal in {} has {} unprojected bytes", directory, position - startPosition);
+        }
+        return position;
+    }
+
+    private int intactFrameLengthAt(ByteBuffer buffer, int offset) {
+        if (offset + FRAME_HEADER_BYTES > segmentBytes) {
+            return 0;
+        }
+        int length = buffer.getInt(offset);
+        if (length <= 0 || offset + FRAME_HEADER_BYTES + length > segmentBytes) {
+            return 0;
+        }
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(offset + FRAME_HEADER_BYTES + length).position(offset + FRAME_HEADER_BYTES);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue() == buffer.getInt(offset + Integer.BYTES) ? length : 0;
+    }
+
+    private void roll() {
+        appendSegment.force();
+        long segment = segmentOf(writePosition) + 1;
+        try {
+            appendSegment = map(segment);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        writePosition = segment * segmentBytes;
+    }
+
+    private long force() {
+        MappedByteBuffer segment;
+        long position;
+        synchronized (this) {
+            segment = appendSegment;
+            position = writePosition;
+        }
+        segment.force();
+        return position;
+    }
+
+    private MappedByteBuffer map(long segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFile(segment), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            segments.put(segment, buffer);
+            return buffer;
+        }
+    }
+
+    private Path segmentFile(long segment) {
+        return directory.resolve(String.format("%016d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    private long segmentOf(long position) {
+        return position / segmentBytes;
+    }
+
+    private int offsetOf(long position) {
+        return (int) (position % segmentBytes);
+    }
+}
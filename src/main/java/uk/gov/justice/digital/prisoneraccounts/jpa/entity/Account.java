@@ -4,10 +4,15 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import uk.gov.justice.digital.prisoneraccounts.jpa.id.PooledSequenceGenerator;
 
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.OneToOne;
@@ -25,7 +30,8 @@ import java.time.ZonedDateTime;
 public class Account {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = "account_seq")
+    @GenericGenerator(name = "account_seq", strategy = PooledSequenceGenerator.STRATEGY, parameters = @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "ACCOUNT_SEQ"))
     private Long accountId;
     @NotNull
     private String establishmentId;
@@ -44,7 +50,7 @@ public class Account {
     @Builder.Default
     private ZonedDateTime accountCreatedDateTime = ZonedDateTime.now(ZoneOffset.UTC);
     private ZonedDateTime accountClosedDateTime;
-    @OneToOne
+    @OneToOne(fetch = FetchType.LAZY)
     private PrisonerTransfer prisonerTransfer;
 
     public enum AccountTypes {SAVINGS, FULL_ACCESS}
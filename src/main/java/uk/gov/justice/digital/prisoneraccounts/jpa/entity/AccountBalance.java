@@ -0,0 +1,29 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Materialized current balance of an account, kept in step with the ledger by every credit and debit.
+ */
+@Entity
+@Table(name = "ACCOUNT_BALANCES")
+@Getter
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class AccountBalance {
+
+    @Id
+    private Long accountId;
+    @NotNull
+    @Builder.Default
+    private Long balancePence = 0L;
+}
@@ -0,0 +1,33 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+import java.time.ZonedDateTime;
+
+/**
+ * The lease on the transaction archive job, held by the run named in {@code lockedBy} until {@code lockedUntil}, and the
+ * number of times the archive has changed.
+ */
+@Entity
+@Table(name = "ARCHIVE_LOCK")
+@Getter
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class ArchiveLock {
+
+    @Id
+    private Integer lockId;
+    private String lockedBy;
+    @NotNull
+    private ZonedDateTime lockedUntil;
+    @NotNull
+    private Long generation;
+}
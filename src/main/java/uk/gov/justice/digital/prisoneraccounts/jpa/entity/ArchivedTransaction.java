@@ -0,0 +1,58 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+import java.time.ZonedDateTime;
+
+/**
+ * A {@link Transaction} moved out of the live table once its account has been closed for the retention period. It keeps
+ * its original id and is never written again.
+ */
+@Entity
+@Table(name = "ARCHIVED_TRANSACTIONS")
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ArchivedTransaction {
+
+    @Id
+    private Long transactionId;
+    @ManyToOne
+    @NotNull
+    private Account account;
+    private String description;
+    private String clientReference;
+    @Enumerated(EnumType.STRING)
+    @NotNull
+    private Transaction.TransactionTypes transactionType;
+    @NotNull
+    private Long amountPence;
+    @NotNull
+    private ZonedDateTime transactionDateTime;
+
+    /**
+     * A detached copy in the live form, for merging archived history with live results. Never save it.
+     */
+    public Transaction toTransaction() {
+        return Transaction.builder()
+                .transactionId(transactionId)
+                .account(account)
+                .description(description)
+                .clientReference(clientReference)
+                .transactionType(transactionType)
+                .amountPence(amountPence)
+                .transactionDateTime(transactionDateTime)
+                .build();
+    }
+}
@@ -0,0 +1,44 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import uk.gov.justice.digital.prisoneraccounts.jpa.id.PooledSequenceGenerator;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.validation.constraints.NotNull;
+import java.time.ZonedDateTime;
+
+/**
+ * Closing balance of an account at a fixed boundary. The balance includes every transaction
+ * strictly before {@code checkpointDateTime}; the credit and debit totals cover the day before it.
+ */
+@Entity
+@Table(name = "BALANCE_CHECKPOINTS", uniqueConstraints = @UniqueConstraint(columnNames = {"accountId", "checkpointDateTime"}))
+@Getter
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class BalanceCheckpoint {
+
+    @Id
+    @GeneratedValue(generator = "balance_checkpoint_seq")
+    @GenericGenerator(name = "balance_checkpoint_seq", strategy = PooledSequenceGenerator.STRATEGY, parameters = @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "BALANCE_CHECKPOINT_SEQ"))
+    private Long checkpointId;
+    @NotNull
+    private Long accountId;
+    @NotNull
+    private ZonedDateTime checkpointDateTime;
+    @NotNull
+    private Long balancePence;
+    private Long creditsPence;
+    private Long debitsPence;
+}
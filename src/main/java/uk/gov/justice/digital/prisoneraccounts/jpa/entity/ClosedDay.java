@@ -0,0 +1,30 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+import java.time.ZonedDateTime;
+
+/**
+ * A day whose close has completed, keyed by the day's checkpoint time and written in the same transaction as its last
+ * checkpoints.
+ */
+@Entity
+@Table(name = "CLOSED_DAYS")
+@Getter
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClosedDay {
+
+    @Id
+    private ZonedDateTime checkpointDateTime;
+    @NotNull
+    private ZonedDateTime closedDateTime;
+}
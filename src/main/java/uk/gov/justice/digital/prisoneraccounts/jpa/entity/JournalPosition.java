@@ -0,0 +1,28 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+
+/**
+ * How far a ledger journal has been projected into the transactions table, written in the same transaction as the rows.
+ */
+@Entity
+@Table(name = "JOURNAL_POSITIONS")
+@Getter
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class JournalPosition {
+
+    @Id
+    private String journalName;
+    @NotNull
+    private Long projectedPosition;
+}
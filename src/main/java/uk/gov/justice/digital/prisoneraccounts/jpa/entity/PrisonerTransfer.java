@@ -5,6 +5,10 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import uk.gov.justice.digital.prisoneraccounts.jpa.id.PooledSequenceGenerator;
 
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
@@ -23,7 +27,8 @@ import java.time.ZonedDateTime;
 @Builder(toBuilder = true)
 public class PrisonerTransfer {
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = "prisoner_transfer_seq")
+    @GenericGenerator(name = "prisoner_transfer_seq", strategy = PooledSequenceGenerator.STRATEGY, parameters = @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "PRISONER_TRANSFER_SEQ"))
     private Long transferId;
     @NotNull
     private String prisonerId;
@@ -0,0 +1,54 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import uk.gov.justice.digital.prisoneraccounts.jpa.id.PooledSequenceGenerator;
+
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+import java.time.ZonedDateTime;
+
+/**
+ * A journaled posting the projector could not apply, written in the same transaction as the batch it was part of. The posting
+ * was acknowledged to the client, so it is kept here to be reconciled by hand.
+ */
+@Entity
+@Table(name = "REJECTED_JOURNAL_RECORDS")
+@Getter
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class RejectedJournalRecord {
+
+    @Id
+    @GeneratedValue(generator = "rejected_journal_record_seq")
+    @GenericGenerator(name = "rejected_journal_record_seq", strategy = PooledSequenceGenerator.STRATEGY, parameters = @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "REJECTED_JOURNAL_RECORD_SEQ"))
+    private Long rejectedRecordId;
+    @NotNull
+    private String journalName;
+    @NotNull
+    private Long accountId;
+    @Enumerated(EnumType.STRING)
+    @NotNull
+    private Transaction.TransactionTypes transactionType;
+    @NotNull
+    private Long amountPence;
+    @NotNull
+    private ZonedDateTime transactionDateTime;
+    private String description;
+    private String clientReference;
+    @NotNull
+    private String reason;
+    @NotNull
+    private ZonedDateTime rejectedDateTime;
+}
@@ -4,6 +4,10 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import uk.gov.justice.digital.prisoneraccounts.jpa.id.PooledSequenceGenerator;
 
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
@@ -25,7 +29,8 @@ import java.time.ZonedDateTime;
 public class Transaction {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = "transaction_seq")
+    @GenericGenerator(name = "transaction_seq", strategy = PooledSequenceGenerator.STRATEGY, parameters = @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "TRANSACTION_SEQ"))
     private Long transactionId;
     @ManyToOne
     @NotNull
@@ -0,0 +1,34 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.id;
+
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.id.enhanced.StandardOptimizerDescriptor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.util.Properties;
+
+/**
+ * Sequence generator that reserves a block of ids per sequence call and hands them out in memory (the pooled-lo optimizer), so
+ * inserts need no id round trip of their own and can be batched. The block size is read from the {@value #ALLOCATION_SIZE_SETTING}
+ * Hibernate setting and must equal the increment of the database sequences, which the migrations take from the same
+ * {@code flyway.placeholders.idAllocationSize} property.
+ */
+public class PooledSequenceGenerator extends SequenceStyleGenerator {
+
+    public static final String STRATEGY = "uk.gov.justice.digital.prisoneraccounts.jpa.id.PooledSequenceGenerator";
+    public static final String ALLOCATION_SIZE_SETTING = "prisoneraccounts.id.allocation_size";
+    private static final int DEFAULT_ALLOCATION_SIZE = 50;
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+        int allocationSize = ConfigurationHelper.getInt(ALLOCATION_SIZE_SETTING,
+                serviceRegistry.getService(ConfigurationService.class).getSettings(), DEFAULT_ALLOCATION_SIZE);
+
+        params.setProperty(INCREMENT_PARAM, String.valueOf(allocationSize));
+        params.setProperty(OPT_PARAM, StandardOptimizerDescriptor.POOLED_LO.getExternalName());
+        super.configure(type, params, serviceRegistry);
+    }
+}
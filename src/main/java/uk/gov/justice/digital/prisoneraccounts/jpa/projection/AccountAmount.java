@@ -0,0 +1,7 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.projection;
+
+public interface AccountAmount {
+    Long getAccountId();
+
+    Long getAmountPence();
+}
@@ -0,0 +1,17 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.projection;
+
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+
+public interface AccountBalanceView {
+    Long getAccountId();
+
+    String getEstablishmentId();
+
+    String getPrisonerId();
+
+    String getAccountName();
+
+    Account.AccountStatuses getAccountStatus();
+
+    Long getBalancePence();
+}
@@ -0,0 +1,9 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.projection;
+
+public interface AccountTotals {
+    Long getAccountId();
+
+    Long getCreditsPence();
+
+    Long getDebitsPence();
+}
@@ -0,0 +1,9 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.projection;
+
+public interface CounterpartyPrisonerAmount {
+    String getEstablishmentId();
+
+    String getPrisonerId();
+
+    Long getAmountPence();
+}
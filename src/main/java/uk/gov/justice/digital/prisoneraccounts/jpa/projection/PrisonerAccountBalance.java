@@ -0,0 +1,13 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.projection;
+
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+
+public interface PrisonerAccountBalance {
+    String getPrisonerId();
+
+    String getAccountName();
+
+    Account.AccountStatuses getAccountStatus();
+
+    Long getBalancePence();
+}
@@ -0,0 +1,13 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.projection;
+
+public interface PrisonerDailyBalance {
+    String getPrisonerId();
+
+    String getAccountName();
+
+    Long getClosingBalancePence();
+
+    Long getCreditsPence();
+
+    Long getDebitsPence();
+}
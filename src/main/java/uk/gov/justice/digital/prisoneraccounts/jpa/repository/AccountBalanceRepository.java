@@ -0,0 +1,57 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.AccountBalance;
+import uk.gov.justice.digital.prisoneraccounts.jpa.projection.AccountBalanceView;
+import uk.gov.justice.digital.prisoneraccounts.jpa.projection.PrisonerAccountBalance;
+
+import javax.persistence.LockModeType;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface AccountBalanceRepository extends JpaRepository<AccountBalance, Long> {
+
+    @Query("select b.balancePence from AccountBalance b where b.accountId = :accountId")
+    Optional<Long> findBalancePenceByAccountId(@Param("accountId") Long accountId);
+
+    /**
+     * Restricts a balance read or update to an account whose status in the database is open, whatever a cached copy of the account says.
+     */
+    String IF_ACCOUNT_OPEN = "and b.accountId in (select a.accountId from Account a where a.accountId = :accountId and a.accountStatus = :accountStatus)";
+
+    @Query("select b.balancePence from AccountBalance b where b.accountId = :accountId " + IF_ACCOUNT_OPEN)
+    Optional<Long> findOpenBalancePence(@Param("accountId") Long accountId, @Param("accountStatus") Account.AccountStatuses accountStatus);
+
+    @Modifying
+    @Query("update AccountBalance b set b.balancePence = b.balancePence + :amountPence where b.accountId = :accountId " + IF_ACCOUNT_OPEN)
+    int adjustBalanceIfOpen(@Param("accountId") Long accountId, @Param("amountPence") long amountPence, @Param("accountStatus") Account.AccountStatuses accountStatus);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select b from AccountBalance b where b.accountId in " +
+            "(select a.accountId from Account a where a.accountId in :accountIds and a.accountStatus = :accountStatus) order by b.accountId")
+    List<AccountBalance> findAllForUpdate(@Param("accountIds") Collection<Long> accountIds, @Param("accountStatus") Account.AccountStatuses accountStatus);
+
+    @Modifying
+    @Query("update AccountBalance b set b.balancePence = b.balancePence - :amountPence where b.accountId = :accountId and b.balancePence >= :amountPence " + IF_ACCOUNT_OPEN)
+    int debitBalanceIfCovered(@Param("accountId") Long accountId, @Param("amountPence") long amountPence, @Param("accountStatus") Account.AccountStatuses accountStatus);
+
+    @Query("select a.prisonerId as prisonerId, a.accountName as accountName, a.accountStatus as accountStatus, b.balancePence as balancePence " +
+            "from Account a, AccountBalance b where b.accountId = a.accountId and a.establishmentId = :establishmentId and a.accountStatus = :accountStatus")
+    List<PrisonerAccountBalance> findPrisonerAccountBalances(@Param("establishmentId") String establishmentId, @Param("accountStatus") Account.AccountStatuses accountStatus);
+
+    @Query("select a.accountId as accountId, a.establishmentId as establishmentId, a.prisonerId as prisonerId, a.accountName as accountName, " +
+            "a.accountStatus as accountStatus, b.balancePence as balancePence " +
+            "from Account a, AccountBalance b where b.accountId = a.accountId and a.accountStatus = :accountStatus")
+    List<AccountBalanceView> findAccountBalancesByStatus(@Param("accountStatus") Account.AccountStatuses accountStatus);
+
+    @Query("select a.accountId as accountId, a.establishmentId as establishmentId, a.prisonerId as prisonerId, a.accountName as accountName, " +
+            "a.accountStatus as accountStatus, b.balancePence as balancePence " +
+            "from Account a, AccountBalance b where b.accountId = a.accountId and a.accountId in :accountIds")
+    List<AccountBalanceView> findAccountBalances(@Param("accountIds") Collection<Long> accountIds);
+}
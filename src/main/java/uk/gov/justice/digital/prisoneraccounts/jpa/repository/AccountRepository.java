@@ -1,10 +1,14 @@
 package uk.gov.justice.digital.prisoneraccounts.jpa.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
 import uk.gov.justice.digital.prisoneraccounts.jpa.entity.PrisonerTransfer;
+import uk.gov.justice.digital.prisoneraccounts.jpa.projection.CounterpartyPrisonerAmount;
 
 import java.time.ZonedDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -16,12 +20,44 @@ public interface AccountRepository extends JpaRepository<Account, Long> {
     List<Account> findByEstablishmentIdAndPrisonerIdAndAccountStatus(
             String estId, String prisId, Account.AccountStatuses accStatus);
 
-    List<Account> findByPrisonerTransferIn(List<PrisonerTransfer> transfers);
+    List<Account> findByEstablishmentIdAndPrisonerIdInAndAccountStatus(
+            String estId, Collection<String> prisIds, Account.AccountStatuses accStatus);
+
+    @Query("select a from Account a where a.prisonerTransfer in :transfers")
+    List<Account> findByPrisonerTransferIn(@Param("transfers") List<PrisonerTransfer> transfers);
 
     List<Account> findByEstablishmentIdAndAccountCreatedDateTimeBefore(String establishmentId, ZonedDateTime asOfDateTime);
 
     List<Account> findByEstablishmentIdAndAccountStatus(String establishmentId, Account.AccountStatuses accountStatuse);
 
+    long countByAccountStatus(Account.AccountStatuses accountStatus);
+
+    @Query("select distinct a.establishmentId from Account a where a.accountCreatedDateTime < :asOfDateTime")
+    List<String> findEstablishmentIdsWithAccountsCreatedBefore(@Param("asOfDateTime") ZonedDateTime asOfDateTime);
+
     List<Account> findByPrisonerIdAndAccountNameOrderByAccountCreatedDateTimeAsc( String prisonerId, String accountName);
 
+    @Query("select a from Account a where a.accountCreatedDateTime < :toDateTime and (a.accountClosedDateTime is null or a.accountClosedDateTime >= :fromDateTime)")
+    List<Account> findAccountsOpenDuring(@Param("fromDateTime") ZonedDateTime fromDateTime, @Param("toDateTime") ZonedDateTime toDateTime);
+
+
+    /**
+     * Per sending establishment and prisoner, the balance of accounts transferred into the establishment as at each transfer.
+     */
+    @Query("select p.fromEstablishmentId as establishmentId, a.prisonerId as prisonerId, " + TransactionRepository.SIGNED_AMOUNT_PENCE + " as amountPence " +
+            "from Transaction t join t.account a join a.prisonerTransfer p " +
+            "where p.toEstablishmentId = :establishmentId and p.accountsTransferDateTime >= :from and p.accountsTransferDateTime <= :to " +
+            "and t.transactionDateTime <= p.accountsTransferDateTime " +
+            "group by p.fromEstablishmentId, a.prisonerId")
+    List<CounterpartyPrisonerAmount> findTransferredInAmounts(@Param("establishmentId") String establishmentId, @Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
+
+    /**
+     * Per receiving establishment and prisoner, the balance of accounts transferred out of the establishment as at each transfer.
+     */
+    @Query("select p.toEstablishmentId as establishmentId, a.prisonerId as prisonerId, " + TransactionRepository.SIGNED_AMOUNT_PENCE + " as amountPence " +
+            "from Transaction t join t.account a join a.prisonerTransfer p " +
+            "where p.fromEstablishmentId = :establishmentId and p.accountsTransferDateTime >= :from and p.accountsTransferDateTime <= :to " +
+            "and t.transactionDateTime <= p.accountsTransferDateTime " +
+            "group by p.toEstablishmentId, a.prisonerId")
+    List<CounterpartyPrisonerAmount> findTransferredOutAmounts(@Param("establishmentId") String establishmentId, @Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
 }
@@ -0,0 +1,46 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.ArchiveLock;
+
+import javax.persistence.LockModeType;
+import java.time.ZonedDateTime;
+
+/**
+ * The archive lock is a single row. Its state is only read through scalar queries, so it is never served stale from the
+ * persistence context.
+ */
+public interface ArchiveLockRepository extends JpaRepository<ArchiveLock, Integer> {
+
+    /**
+     * Takes the lease for {@code owner} if it has expired or {@code owner} already holds it.
+     */
+    @Modifying
+    @Query("update ArchiveLock l set l.lockedBy = :owner, l.lockedUntil = :lockedUntil, l.generation = l.generation + 1 " +
+            "where l.lockId = 1 and (l.lockedUntil <= :now or l.lockedBy = :owner)")
+    int acquire(@Param("owner") String owner, @Param("now") ZonedDateTime now, @Param("lockedUntil") ZonedDateTime lockedUntil);
+
+    /**
+     * Moves the lease of {@code owner} to {@code lockedUntil} and counts a change to the archive, unless another run has taken it over.
+     */
+    @Modifying
+    @Query("update ArchiveLock l set l.lockedUntil = :lockedUntil, l.generation = l.generation + 1 where l.lockId = 1 and l.lockedBy = :owner")
+    int advance(@Param("owner") String owner, @Param("lockedUntil") ZonedDateTime lockedUntil);
+
+    @Query("select l.generation from ArchiveLock l where l.lockId = 1")
+    long findGeneration();
+
+    @Query("select l.lockedUntil from ArchiveLock l where l.lockId = 1")
+    ZonedDateTime findLockedUntil();
+
+    /**
+     * Locks the row until the current transaction ends, holding off archive batches.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select l from ArchiveLock l where l.lockId = 1")
+    ArchiveLock findForUpdate();
+}
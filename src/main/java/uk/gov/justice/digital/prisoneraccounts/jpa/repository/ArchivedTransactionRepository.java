@@ -0,0 +1,98 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import uk.gov.justice.digital.prisoneraccounts.api.TransactionExportRecord;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.ArchivedTransaction;
+import uk.gov.justice.digital.prisoneraccounts.jpa.projection.AccountAmount;
+import uk.gov.justice.digital.prisoneraccounts.jpa.projection.AccountTotals;
+import uk.gov.justice.digital.prisoneraccounts.jpa.projection.CounterpartyPrisonerAmount;
+
+import javax.persistence.QueryHint;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+
+/**
+ * The archived counterparts of the {@link TransactionRepository} and {@link AccountRepository} queries that can reach the
+ * transactions of long closed accounts. Callers combine them with the live results.
+ */
+public interface ArchivedTransactionRepository extends JpaRepository<ArchivedTransaction, Long> {
+
+    @Modifying
+    @Query("insert into ArchivedTransaction (transactionId, account, description, clientReference, transactionType, amountPence, transactionDateTime) " +
+            "select t.transactionId, t.account, t.description, t.clientReference, t.transactionType, t.amountPence, t.transactionDateTime " +
+            "from Transaction t where t.transactionId in :transactionIds")
+    int copyFromTransactions(@Param("transactionIds") Collection<Long> transactionIds);
+
+    @Query("select t from ArchivedTransaction t where t.account in :accounts and t.transactionDateTime >= :from and t.transactionDateTime <= :to " +
+            "order by t.transactionDateTime asc, t.transactionId asc")
+    List<ArchivedTransaction> findAllByAccounts(@Param("accounts") List<Account> accounts, @Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
+
+    @Query("select t from ArchivedTransaction t where t.account in :accounts and t.transactionDateTime >= :from and t.transactionDateTime <= :to " +
+            "and (t.transactionDateTime > :afterDateTime or (t.transactionDateTime = :afterDateTime and t.transactionId > :afterTransactionId)) " +
+            "and (:excludedDescription is null or t.description is null or t.description <> :excludedDescription) " +
+            "order by t.transactionDateTime asc, t.transactionId asc")
+    List<ArchivedTransaction> findPageByAccounts(@Param("accounts") List<Account> accounts,
+                                                 @Param("from") ZonedDateTime from,
+                                                 @Param("to") ZonedDateTime to,
+                                                 @Param("afterDateTime") ZonedDateTime afterDateTime,
+                                                 @Param("afterTransactionId") long afterTransactionId,
+                                                 @Param("excludedDescription") String excludedDescription,
+                                                 Pageable pageable);
+
+    @Query("select " + TransactionRepository.SIGNED_AMOUNT_PENCE + " from ArchivedTransaction t where t.account = :account")
+    long sumSignedAmountPence(@Param("account") Account account);
+
+    @Query("select " + TransactionRepository.SIGNED_AMOUNT_PENCE + " from ArchivedTransaction t where t.account = :account and t.transactionDateTime <= :to")
+    long sumSignedAmountPenceTo(@Param("account") Account account, @Param("to") ZonedDateTime to);
+
+    @Query("select " + TransactionRepository.SIGNED_AMOUNT_PENCE + " from ArchivedTransaction t where t.account = :account and t.transactionDateTime >= :from and t.transactionDateTime <= :to")
+    long sumSignedAmountPenceBetween(@Param("account") Account account, @Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
+
+    @Query("select " + TransactionRepository.SIGNED_AMOUNT_PENCE + " from ArchivedTransaction t where t.account = :account and t.transactionDateTime < :before")
+    long sumSignedAmountPenceBefore(@Param("account") Account account, @Param("before") ZonedDateTime before);
+
+    @Query("select " + TransactionRepository.SIGNED_AMOUNT_PENCE + " from ArchivedTransaction t where t.account = :account and t.transactionDateTime >= :from and t.transactionDateTime < :before")
+    long sumSignedAmountPenceFromBefore(@Param("account") Account account, @Param("from") ZonedDateTime from, @Param("before") ZonedDateTime before);
+
+    @Query("select t.account.accountId as accountId, " + TransactionRepository.SIGNED_AMOUNT_PENCE + " as amountPence from ArchivedTransaction t " +
+            "where t.account.establishmentId = :establishmentId and t.transactionDateTime >= :from and t.transactionDateTime <= :to " +
+            "and t.transactionDateTime >= all (select c.checkpointDateTime from BalanceCheckpoint c where c.accountId = t.account.accountId and c.checkpointDateTime <= :to) " +
+            "group by t.account.accountId")
+    List<AccountAmount> sumSignedAmountPenceSinceCheckpointByAccount(@Param("establishmentId") String establishmentId, @Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
+
+    @Query("select t.account.accountId as accountId, " + TransactionRepository.CREDITS_PENCE + " as creditsPence, " + TransactionRepository.DEBITS_PENCE + " as debitsPence from ArchivedTransaction t " +
+            "where t.account in :accounts and t.transactionDateTime >= :from and t.transactionDateTime < :before " +
+            "group by t.account.accountId")
+    List<AccountTotals> sumCreditsAndDebitsByAccountFromBefore(@Param("accounts") List<Account> accounts, @Param("from") ZonedDateTime from, @Param("before") ZonedDateTime before);
+
+    @Query("select p.fromEstablishmentId as establishmentId, a.prisonerId as prisonerId, " + TransactionRepository.SIGNED_AMOUNT_PENCE + " as amountPence " +
+            "from ArchivedTransaction t join t.account a join a.prisonerTransfer p " +
+            "where p.toEstablishmentId = :establishmentId and p.accountsTransferDateTime >= :from and p.accountsTransferDateTime <= :to " +
+            "and t.transactionDateTime <= p.accountsTransferDateTime " +
+            "group by p.fromEstablishmentId, a.prisonerId")
+    List<CounterpartyPrisonerAmount> findTransferredInAmounts(@Param("establishmentId") String establishmentId, @Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
+
+    @Query("select p.toEstablishmentId as establishmentId, a.prisonerId as prisonerId, " + TransactionRepository.SIGNED_AMOUNT_PENCE + " as amountPence " +
+            "from ArchivedTransaction t join t.account a join a.prisonerTransfer p " +
+            "where p.fromEstablishmentId = :establishmentId and p.accountsTransferDateTime >= :from and p.accountsTransferDateTime <= :to " +
+            "and t.transactionDateTime <= p.accountsTransferDateTime " +
+            "group by p.toEstablishmentId, a.prisonerId")
+    List<CounterpartyPrisonerAmount> findTransferredOutAmounts(@Param("establishmentId") String establishmentId, @Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
+
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    @Query("select new uk.gov.justice.digital.prisoneraccounts.api.TransactionExportRecord(a.prisonerId, a.accountName, t.transactionId, t.description, t.clientReference, " + TransactionRepository.TRANSACTION_TYPE_NAME + ", t.amountPence, t.transactionDateTime) " +
+            "from ArchivedTransaction t join t.account a " +
+            "where a.establishmentId = :establishmentId and t.transactionDateTime >= :from and t.transactionDateTime <= :to " +
+            "order by t.transactionDateTime asc, t.transactionId asc")
+    Stream<TransactionExportRecord> streamEstablishmentTransactions(@Param("establishmentId") String establishmentId, @Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
+}
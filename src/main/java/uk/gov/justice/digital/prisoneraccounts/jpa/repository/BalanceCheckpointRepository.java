@@ -0,0 +1,49 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.BalanceCheckpoint;
+import uk.gov.justice.digital.prisoneraccounts.jpa.projection.PrisonerDailyBalance;
+
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface BalanceCheckpointRepository extends JpaRepository<BalanceCheckpoint, Long> {
+
+    Optional<BalanceCheckpoint> findFirstByAccountIdAndCheckpointDateTimeLessThanEqualOrderByCheckpointDateTimeDesc(Long accountId, ZonedDateTime asOfDateTime);
+
+    Optional<BalanceCheckpoint> findFirstByAccountIdAndCheckpointDateTimeLessThanOrderByCheckpointDateTimeDesc(Long accountId, ZonedDateTime beforeDateTime);
+
+    boolean existsByAccountIdAndCheckpointDateTime(Long accountId, ZonedDateTime checkpointDateTime);
+
+    List<BalanceCheckpoint> findByCheckpointDateTimeAndAccountIdIn(ZonedDateTime checkpointDateTime, Collection<Long> accountIds);
+
+    @Query("select max(c.checkpointDateTime) from BalanceCheckpoint c")
+    Optional<ZonedDateTime> findLatestCheckpointDateTime();
+
+    /**
+     * Replaces a checkpoint's day totals, adjusting its balance by the change, only if the totals are still the ones read.
+     */
+    @Modifying
+    @Query("update BalanceCheckpoint c set c.balancePence = c.balancePence + :creditsPence - c.creditsPence - :debitsPence + c.debitsPence, " +
+            "c.creditsPence = :creditsPence, c.debitsPence = :debitsPence " +
+            "where c.checkpointId = :checkpointId and c.creditsPence = :storedCreditsPence and c.debitsPence = :storedDebitsPence")
+    int correctTotals(@Param("checkpointId") Long checkpointId, @Param("storedCreditsPence") long storedCreditsPence, @Param("storedDebitsPence") long storedDebitsPence,
+                      @Param("creditsPence") long creditsPence, @Param("debitsPence") long debitsPence);
+
+    @Modifying
+    @Query("update BalanceCheckpoint c set c.balancePence = c.balancePence + :amountPence where c.accountId = :accountId and c.checkpointDateTime > :checkpointDateTime")
+    int adjustBalancesAfter(@Param("accountId") Long accountId, @Param("checkpointDateTime") ZonedDateTime checkpointDateTime, @Param("amountPence") long amountPence);
+
+    @Query("select a.prisonerId as prisonerId, a.accountName as accountName, c.balancePence as closingBalancePence, c.creditsPence as creditsPence, c.debitsPence as debitsPence " +
+            "from Account a, BalanceCheckpoint c where c.accountId = a.accountId and a.establishmentId = :establishmentId and c.checkpointDateTime = :checkpointDateTime")
+    List<PrisonerDailyBalance> findPrisonerDailyBalances(@Param("establishmentId") String establishmentId, @Param("checkpointDateTime") ZonedDateTime checkpointDateTime);
+
+    @Query("select c from BalanceCheckpoint c where c.accountId in (select a.accountId from Account a where a.establishmentId = :establishmentId) " +
+            "and c.checkpointDateTime = (select max(l.checkpointDateTime) from BalanceCheckpoint l where l.accountId = c.accountId and l.checkpointDateTime <= :asOfDateTime)")
+    List<BalanceCheckpoint> findLatestForEstablishmentAsOf(@Param("establishmentId") String establishmentId, @Param("asOfDateTime") ZonedDateTime asOfDateTime);
+}
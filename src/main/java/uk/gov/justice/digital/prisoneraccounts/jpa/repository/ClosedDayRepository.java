@@ -0,0 +1,14 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.ClosedDay;
+
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+public interface ClosedDayRepository extends JpaRepository<ClosedDay, ZonedDateTime> {
+
+    @Query("select max(d.checkpointDateTime) from ClosedDay d")
+    Optional<ZonedDateTime> findLatestCheckpointDateTime();
+}
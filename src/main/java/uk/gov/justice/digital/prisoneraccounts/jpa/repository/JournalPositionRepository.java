@@ -0,0 +1,7 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.JournalPosition;
+
+public interface JournalPositionRepository extends JpaRepository<JournalPosition, String> {
+}
@@ -0,0 +1,11 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.RejectedJournalRecord;
+
+import java.util.List;
+
+public interface RejectedJournalRecordRepository extends JpaRepository<RejectedJournalRecord, Long> {
+
+    List<RejectedJournalRecord> findByAccountIdOrderByTransactionDateTimeAsc(Long accountId);
+}
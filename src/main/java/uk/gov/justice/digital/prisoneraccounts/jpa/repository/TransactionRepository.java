@@ -1,20 +1,130 @@
 package uk.gov.justice.digital.prisoneraccounts.jpa.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import uk.gov.justice.digital.prisoneraccounts.api.TransactionExportRecord;
 import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
 import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Transaction;
+import uk.gov.justice.digital.prisoneraccounts.jpa.projection.AccountAmount;
+import uk.gov.justice.digital.prisoneraccounts.jpa.projection.AccountTotals;
 
+import javax.persistence.QueryHint;
 import java.time.ZonedDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 public interface TransactionRepository extends JpaRepository<Transaction, Long> {
 
-    List<Transaction> findAllByAccountOrderByTransactionDateTimeAsc(Account account);
+    /*
+     * The account finders spell out their queries because the derived form joins ACCOUNTS and filters on the joined id,
+     * which stops the database using the TRANSACTIONS account index.
+     */
+    @Query("select t from Transaction t where t.account = :account order by t.transactionDateTime asc")
+    List<Transaction> findAllByAccountOrderByTransactionDateTimeAsc(@Param("account") Account account);
+
+    @Query("select t from Transaction t where t.account = :account and t.transactionDateTime between :from and :to order by t.transactionDateTime asc")
+    List<Transaction> findAllByAccountAndTransactionDateTimeBetweenOrderByTransactionDateTimeAsc(@Param("account") Account account, @Param("from") Optional<ZonedDateTime> from, @Param("to") Optional<ZonedDateTime> to);
+
+    @Query("select t from Transaction t where t.account = :account and t.transactionDateTime <= :to order by t.transactionDateTime asc")
+    List<Transaction> findAllByAccountAndTransactionDateTimeLessThanEqualOrderByTransactionDateTimeAsc(@Param("account") Account account, @Param("to") Optional<ZonedDateTime> to);
+
+    @Query("select t from Transaction t where t.account = :account and t.transactionDateTime >= :from order by t.transactionDateTime asc")
+    List<Transaction> findAllByAccountAndTransactionDateTimeGreaterThanEqualOrderByTransactionDateTimeAsc(@Param("account") Account account, @Param("from") Optional<ZonedDateTime> from);
+
+    /**
+     * Credits minus debits, computed in the database without loading any entities.
+     */
+    String SIGNED_AMOUNT_PENCE = "coalesce(sum(case when t.transactionType = 'CREDIT' then t.amountPence else -t.amountPence end), 0)";
+    String CREDITS_PENCE = "coalesce(sum(case when t.transactionType = 'CREDIT' then t.amountPence else 0 end), 0)";
+    String DEBITS_PENCE = "coalesce(sum(case when t.transactionType = 'DEBIT' then t.amountPence else 0 end), 0)";
+    /**
+     * The transaction type as a plain name, so that exported records do not carry the entity's enum.
+     */
+    String TRANSACTION_TYPE_NAME = "case when t.transactionType = 'CREDIT' then 'CREDIT' else 'DEBIT' end";
+
+    @Query("select " + SIGNED_AMOUNT_PENCE + " from Transaction t where t.account = :account")
+    long sumSignedAmountPence(@Param("account") Account account);
+
+    @Query("select " + SIGNED_AMOUNT_PENCE + " from Transaction t where t.account = :account and t.transactionDateTime <= :to")
+    long sumSignedAmountPenceTo(@Param("account") Account account, @Param("to") ZonedDateTime to);
+
+    @Query("select " + SIGNED_AMOUNT_PENCE + " from Transaction t where t.account = :account and t.transactionDateTime >= :from and t.transactionDateTime <= :to")
+    long sumSignedAmountPenceBetween(@Param("account") Account account, @Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
+
+    @Query("select " + SIGNED_AMOUNT_PENCE + " from Transaction t where t.account = :account and t.transactionDateTime < :before")
+    long sumSignedAmountPenceBefore(@Param("account") Account account, @Param("before") ZonedDateTime before);
+
+    @Query("select " + SIGNED_AMOUNT_PENCE + " from Transaction t where t.account = :account and t.transactionDateTime >= :from and t.transactionDateTime < :before")
+    long sumSignedAmountPenceFromBefore(@Param("account") Account account, @Param("from") ZonedDateTime from, @Param("before") ZonedDateTime before);
+
+    /**
+     * Per-account signed totals for an establishment of the transactions after each account's latest checkpoint at or before {@code to}.
+     * {@code from} must not be later than any of those checkpoints; it only narrows the range the database has to read.
+     */
+    @Query("select t.account.accountId as accountId, " + SIGNED_AMOUNT_PENCE + " as amountPence from Transaction t " +
+            "where t.account.establishmentId = :establishmentId and t.transactionDateTime >= :from and t.transactionDateTime <= :to " +
+            "and t.transactionDateTime >= all (select c.checkpointDateTime from BalanceCheckpoint c where c.accountId = t.account.accountId and c.checkpointDateTime <= :to) " +
+            "group by t.account.accountId")
+    List<AccountAmount> sumSignedAmountPenceSinceCheckpointByAccount(@Param("establishmentId") String establishmentId, @Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
+
+    /**
+     * Per account, the credits and debits from {@code from} up to but excluding {@code before}. Accounts without transactions are omitted.
+     */
+    @Query("select t.account.accountId as accountId, " + CREDITS_PENCE + " as creditsPence, " + DEBITS_PENCE + " as debitsPence from Transaction t " +
+            "where t.account in :accounts and t.transactionDateTime >= :from and t.transactionDateTime < :before " +
+            "group by t.account.accountId")
+    List<AccountTotals> sumCreditsAndDebitsByAccountFromBefore(@Param("accounts") List<Account> accounts, @Param("from") ZonedDateTime from, @Param("before") ZonedDateTime before);
+
+    /**
+     * Per account of the establishment in the given status, the signed sum of its whole ledger. Accounts without transactions are omitted.
+     */
+    @Query("select t.account.accountId as accountId, " + SIGNED_AMOUNT_PENCE + " as amountPence from Transaction t " +
+            "where t.account.establishmentId = :establishmentId and t.account.accountStatus = :accountStatus " +
+            "group by t.account.accountId")
+    List<AccountAmount> sumSignedAmountPenceByAccount(@Param("establishmentId") String establishmentId, @Param("accountStatus") Account.AccountStatuses accountStatus);
+
+    /**
+     * Ids of up to a page of transactions of accounts closed before {@code closedBefore}, for the archive job to move.
+     */
+    @Query("select t.transactionId from Transaction t join t.account a where a.accountStatus = :accountStatus and a.accountClosedDateTime < :closedBefore")
+    List<Long> findArchivableTransactionIds(@Param("accountStatus") Account.AccountStatuses accountStatus, @Param("closedBefore") ZonedDateTime closedBefore, Pageable pageable);
 
-    List<Transaction> findAllByAccountAndTransactionDateTimeBetweenOrderByTransactionDateTimeAsc(Account account, Optional<ZonedDateTime> from, Optional<ZonedDateTime> to);
+    @Modifying
+    @Query("delete from Transaction t where t.transactionId in :transactionIds")
+    int deleteByTransactionIdIn(@Param("transactionIds") Collection<Long> transactionIds);
 
-    List<Transaction> findAllByAccountAndTransactionDateTimeLessThanEqualOrderByTransactionDateTimeAsc(Account account, Optional<ZonedDateTime> to);
+    /**
+     * Keyset page of the accounts' transactions strictly after the (afterDateTime, afterTransactionId) position, oldest first. Transactions
+     * described as {@code excludedDescription} are left out unless it is null.
+     */
+    @Query("select t from Transaction t where t.account in :accounts and t.transactionDateTime >= :from and t.transactionDateTime <= :to " +
+            "and (t.transactionDateTime > :afterDateTime or (t.transactionDateTime = :afterDateTime and t.transactionId > :afterTransactionId)) " +
+            "and (:excludedDescription is null or t.description is null or t.description <> :excludedDescription) " +
+            "order by t.transactionDateTime asc, t.transactionId asc")
+    List<Transaction> findPageByAccounts(@Param("accounts") List<Account> accounts,
+                                         @Param("from") ZonedDateTime from,
+                                         @Param("to") ZonedDateTime to,
+                                         @Param("afterDateTime") ZonedDateTime afterDateTime,
+                                         @Param("afterTransactionId") long afterTransactionId,
+                                         @Param("excludedDescription") String excludedDescription,
+                                         Pageable pageable);
 
-    List<Transaction> findAllByAccountAndTransactionDateTimeGreaterThanEqualOrderByTransactionDateTimeAsc(Account account, Optional<ZonedDateTime> from);
+    /**
+     * Streams an establishment's transactions in ledger order as plain records, so the caller can export them without
+     * materializing the result or growing the persistence context. Must be consumed within a transaction.
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    @Query("select new uk.gov.justice.digital.prisoneraccounts.api.TransactionExportRecord(a.prisonerId, a.accountName, t.transactionId, t.description, t.clientReference, " + TRANSACTION_TYPE_NAME + ", t.amountPence, t.transactionDateTime) " +
+            "from Transaction t join t.account a " +
+            "where a.establishmentId = :establishmentId and t.transactionDateTime >= :from and t.transactionDateTime <= :to " +
+            "order by t.transactionDateTime asc, t.transactionId asc")
+    Stream<TransactionExportRecord> streamEstablishmentTransactions(@Param("establishmentId") String establishmentId, @Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
 }
@@ -0,0 +1,96 @@
+package uk.gov.justice.digital.prisoneraccounts.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, expiring cache of open accounts by establishment, prisoner and account name.
+ * <p>
+ * Accounts are only cached once the transaction that loaded or created them has committed, and an invalidation is repeated
+ * after its transaction commits; a load that started before the most recent invalidation of its key is not cached. Each
+ * application instance has its own cache, so a closure made by another instance is seen once the entry expires.
+ */
+@Component
+public class AccountCache {
+
+    private final Cache<AccountKey, Account> accounts;
+    private final Cache<AccountKey, Long> invalidations;
+
+    public AccountCache(@Value("${prisoneraccounts.accountcache.maximumsize:10000}") long maximumSize,
+                        @Value("${prisoneraccounts.accountcache.ttlseconds:600}") long ttlSeconds) {
+        this.accounts = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        this.invalidations = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    public Optional<Account> get(String establishmentId, String prisonerId, String accountName, Supplier<Optional<Account>> loader) {
+        AccountKey key = new AccountKey(establishmentId, prisonerId, accountName);
+        Account cached = accounts.getIfPresent(key);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+
+        long loadStartedNanos = System.nanoTime();
+        Optional<Account> loaded = loader.get();
+        loaded.ifPresent(account -> afterCommit(() -> {
+            Long invalidatedNanos = invalidations.getIfPresent(key);
+            if (invalidatedNanos == null || invalidatedNanos - loadStartedNanos < 0) {
+                accounts.put(key, account);
+            }
+        }));
+        return loaded;
+    }
+
+    public void invalidate(Account account) {
+        AccountKey key = new AccountKey(account.getEstablishmentId(), account.getPrisonerId(), account.getAccountName());
+        Runnable invalidation = () -> {
+            invalidations.put(key, System.nanoTime());
+            accounts.invalidate(key);
+        };
+        invalidation.run();
+        afterCommit(invalidation);
+    }
+
+    public CacheStats stats() {
+        return accounts.stats();
+    }
+
+    public long size() {
+        return accounts.size();
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    @lombok.Value
+    private static class AccountKey {
+        private final String establishmentId;
+        private final String prisonerId;
+        private final String accountName;
+    }
+}
@@ -0,0 +1,35 @@
+package uk.gov.justice.digital.prisoneraccounts.service;
+
+import com.google.common.cache.CacheStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Publishes the account cache statistics on the actuator {@code /metrics} endpoint.
+ */
+@Component
+public class AccountCacheMetrics implements PublicMetrics {
+
+    private final AccountCache accountCache;
+
+    @Autowired
+    public AccountCacheMetrics(AccountCache accountCache) {
+        this.accountCache = accountCache;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        CacheStats stats = accountCache.stats();
+        return Arrays.asList(
+                new Metric<>("cache.accounts.size", accountCache.size()),
+                new Metric<>("cache.accounts.hit.count", stats.hitCount()),
+                new Metric<>("cache.accounts.miss.count", stats.missCount()),
+                new Metric<>("cache.accounts.eviction.count", stats.evictionCount()),
+                new Metric<>("cache.accounts.hit.ratio", stats.hitRate()));
+    }
+}
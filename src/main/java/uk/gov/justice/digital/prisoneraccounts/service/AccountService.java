@@ -1,22 +1,39 @@
 package uk.gov.justice.digital.prisoneraccounts.service;
 
-import com.google.common.collect.Maps;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Table;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import uk.gov.justice.digital.prisoneraccounts.api.AccountState;
 import uk.gov.justice.digital.prisoneraccounts.api.Balance;
+import uk.gov.justice.digital.prisoneraccounts.api.BalanceDiscrepancy;
 import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.AccountBalance;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.BalanceCheckpoint;
 import uk.gov.justice.digital.prisoneraccounts.jpa.entity.PrisonerTransfer;
-import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Transaction;
+import uk.gov.justice.digital.prisoneraccounts.jpa.projection.AccountAmount;
+import uk.gov.justice.digital.prisoneraccounts.jpa.projection.PrisonerAccountBalance;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.AccountBalanceRepository;
 import uk.gov.justice.digital.prisoneraccounts.jpa.repository.AccountRepository;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.ArchivedTransactionRepository;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.BalanceCheckpointRepository;
 import uk.gov.justice.digital.prisoneraccounts.jpa.repository.TransactionRepository;
 
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 
 @Service
@@ -24,25 +41,93 @@ public class AccountService {
 
     private final AccountRepository accountRepository;
     private final TransactionRepository transactionRepository;
+    private final ArchivedTransactionRepository archivedTransactionRepository;
+    private final AccountBalanceRepository accountBalanceRepository;
+    private final BalanceCheckpointRepository balanceCheckpointRepository;
+    private final AccountCache accountCache;
+    private final HistoricReportCache historicReportCache;
+    private final LedgerMetrics ledgerMetrics;
+    private final Optional<BalanceReadModel> maybeBalanceReadModel;
+    private final TransactionArchiveService transactionArchiveService;
 
     @Autowired
-    public AccountService(AccountRepository accountRepository, TransactionRepository transactionRepository) {
+    public AccountService(AccountRepository accountRepository, TransactionRepository transactionRepository, ArchivedTransactionRepository archivedTransactionRepository, AccountBalanceRepository accountBalanceRepository, BalanceCheckpointRepository balanceCheckpointRepository, AccountCache accountCache, HistoricReportCache historicReportCache, LedgerMetrics ledgerMetrics, Optional<BalanceReadModel> maybeBalanceReadModel, TransactionArchiveService transactionArchiveService) {
         this.accountRepository = accountRepository;
         this.transactionRepository = transactionRepository;
+        this.archivedTransactionRepository = archivedTransactionRepository;
+        this.accountBalanceRepository = accountBalanceRepository;
+        this.balanceCheckpointRepository = balanceCheckpointRepository;
+        this.accountCache = accountCache;
+        this.historicReportCache = historicReportCache;
+        this.ledgerMetrics = ledgerMetrics;
+        this.maybeBalanceReadModel = maybeBalanceReadModel;
+        this.transactionArchiveService = transactionArchiveService;
     }
 
+    @Transactional
     public Account getOrCreateAccount(String establishmentId, String prisonerId, String accName, Optional<PrisonerTransfer> maybePrisonerTransfer) {
+        return accountCache.get(establishmentId, prisonerId, accName,
+                () -> Optional.of(findOrCreateAccount(establishmentId, prisonerId, accName, maybePrisonerTransfer))).get();
+    }
+
+    private Account findOrCreateAccount(String establishmentId, String prisonerId, String accName, Optional<PrisonerTransfer> maybePrisonerTransfer) {
 
         Optional<Account> maybeExistingAccount = accountRepository.findByEstablishmentIdAndPrisonerIdAndAccountNameAndAccountStatus(establishmentId, prisonerId, accName, Account.AccountStatuses.OPEN);
 
-        return maybeExistingAccount.orElseGet(() ->
-                accountRepository.save(Account.builder()
+        return maybeExistingAccount.orElseGet(() -> {
+            Account account = accountRepository.save(Account.builder()
+                    .establishmentId(establishmentId)
+                    .prisonerId(prisonerId)
+                    .accountName(accName)
+                    .accountType(accountTypeOf(accName))
+                    .prisonerTransfer(maybePrisonerTransfer.orElse(null))
+                    .build());
+            accountBalanceRepository.save(AccountBalance.builder().accountId(account.getAccountId()).build());
+            balancesChanged(Collections.singleton(account.getAccountId()));
+            return account;
+        });
+    }
+
+    /**
+     * Resolves the open account for every prisoner and account name pair with a single query, opening any that do not exist yet.
+     */
+    @Transactional
+    public Table<String, String, Account> getOrCreateAccounts(String establishmentId, SetMultimap<String, String> accountNamesByPrisonerId) {
+        return getOrCreateAccounts(establishmentId, accountNamesByPrisonerId, Collections.emptyMap(), ZonedDateTime.now(ZoneOffset.UTC));
+    }
+
+    /**
+     * As {@link #getOrCreateAccounts(String, SetMultimap)}, linking any account it opens to the prisoner's transfer and dating
+     * it {@code accountCreatedDateTime}, so that it exists from the time of the transfer legs that fund it.
+     */
+    @Transactional
+    public Table<String, String, Account> getOrCreateAccounts(String establishmentId, SetMultimap<String, String> accountNamesByPrisonerId, Map<String, PrisonerTransfer> prisonerTransfersByPrisonerId, ZonedDateTime accountCreatedDateTime) {
+        Table<String, String, Account> accounts = HashBasedTable.create();
+        if (accountNamesByPrisonerId.isEmpty()) {
+            return accounts;
+        }
+        accountRepository.findByEstablishmentIdAndPrisonerIdInAndAccountStatus(establishmentId, accountNamesByPrisonerId.keySet(), Account.AccountStatuses.OPEN)
+                .forEach(account -> accounts.put(account.getPrisonerId(), account.getAccountName(), account));
+
+        List<Account> newAccounts = accountNamesByPrisonerId.entries().stream()
+                .filter(prisonerAccount -> !accounts.contains(prisonerAccount.getKey(), prisonerAccount.getValue()))
+                .map(prisonerAccount -> Account.builder()
                         .establishmentId(establishmentId)
-                        .prisonerId(prisonerId)
-                        .accountName(accName)
-                        .accountType(accountTypeOf(accName))
-                        .prisonerTransfer(maybePrisonerTransfer.orElse(null))
-                        .build()));
+                        .prisonerId(prisonerAccount.getKey())
+                        .accountName(prisonerAccount.getValue())
+                        .accountType(accountTypeOf(prisonerAccount.getValue()))
+                        .prisonerTransfer(prisonerTransfersByPrisonerId.get(prisonerAccount.getKey()))
+                        .accountCreatedDateTime(accountCreatedDateTime)
+                        .build())
+                .collect(Collectors.toList());
+
+        accountRepository.save(newAccounts).forEach(account -> accounts.put(account.getPrisonerId(), account.getAccountName(), account));
+        accountBalanceRepository.save(newAccounts.stream()
+                .map(account -> AccountBalance.builder().accountId(account.getAccountId()).build())
+                .collect(Collectors.toList()));
+        balancesChanged(newAccounts.stream().map(Account::getAccountId).collect(Collectors.toList()));
+
+        return accounts;
     }
 
     private Account.AccountTypes accountTypeOf(String accountName) {
@@ -50,10 +135,11 @@ public class AccountService {
     }
 
     public Optional<Account> accountFor(String establishmentId, String prisonerId, String accName) {
-        return accountRepository.findByEstablishmentIdAndPrisonerIdAndAccountNameAndAccountStatus(
-                establishmentId, prisonerId, accName, Account.AccountStatuses.OPEN);
+        return accountCache.get(establishmentId, prisonerId, accName, () -> accountRepository.findByEstablishmentIdAndPrisonerIdAndAccountNameAndAccountStatus(
+                establishmentId, prisonerId, accName, Account.AccountStatuses.OPEN));
     }
 
+    @Timed("prisoneraccounts.accounts")
     public Optional<Balance> currentBalanceOf(String establishmentId, String prisonerId, String accName) {
         return accountFor(establishmentId, prisonerId, accName)
                 .map(acc -> balanceAsOf(acc, Optional.empty()));
@@ -63,27 +149,149 @@ public class AccountService {
         return balanceAsOf(account, Optional.empty());
     }
 
+    @Timed("prisoneraccounts.accounts")
     public Balance balanceAsOf(Account account, Optional<ZonedDateTime> maybeAsOfDateTime) {
-        List<Transaction> transactions =
-                maybeAsOfDateTime.map(asOfDateTime -> transactionRepository.findAllByAccountAndTransactionDateTimeLessThanEqualOrderByTransactionDateTimeAsc(account, maybeAsOfDateTime))
-                        .orElse(transactionRepository.findAllByAccountOrderByTransactionDateTimeAsc(account));
-
-        long sumCredits = transactions.stream()
-                .filter(transaction -> transaction.getTransactionType() == Transaction.TransactionTypes.CREDIT)
-                .mapToLong(Transaction::getAmountPence)
-                .sum();
-
-        long sumDebits = transactions.stream()
-                .filter(transaction -> transaction.getTransactionType() == Transaction.TransactionTypes.DEBIT)
-                .mapToLong(Transaction::getAmountPence)
-                .sum();
+        long amountPence = maybeAsOfDateTime.isPresent() ? ledgerBalanceAsOf(account, maybeAsOfDateTime) : storedBalanceOf(account);
 
         return Balance.builder()
                 .accountName(account.getAccountName())
-                .amountPence(sumCredits - sumDebits)
+                .amountPence(amountPence)
                 .build();
     }
 
+    /**
+     * The stored balance of an account, read only if the account is open in the database.
+     */
+    public long openBalanceOf(Account account) throws AccountClosedException {
+        return accountBalanceRepository.findOpenBalancePence(account.getAccountId(), Account.AccountStatuses.OPEN)
+                .orElseThrow(() -> closed(account));
+    }
+
+    private long storedBalanceOf(Account account) {
+        return accountBalanceRepository.findBalancePenceByAccountId(account.getAccountId())
+                .orElseGet(() -> ledgerBalanceAsOf(account, Optional.empty()));
+    }
+
+    private long ledgerBalanceAsOf(Account account, Optional<ZonedDateTime> maybeAsOfDateTime) {
+        return ledgerRead(account, () -> maybeAsOfDateTime.map(asOfDateTime -> balanceCheckpointRepository
+                .findFirstByAccountIdAndCheckpointDateTimeLessThanEqualOrderByCheckpointDateTimeDesc(account.getAccountId(), asOfDateTime)
+                .map(checkpoint -> checkpoint.getBalancePence() + transactionRepository.sumSignedAmountPenceBetween(account, checkpoint.getCheckpointDateTime(), asOfDateTime)
+                        + archivedAmountPence(account, () -> archivedTransactionRepository.sumSignedAmountPenceBetween(account, checkpoint.getCheckpointDateTime(), asOfDateTime)))
+                .orElseGet(() -> transactionRepository.sumSignedAmountPenceTo(account, asOfDateTime)
+                        + archivedAmountPence(account, () -> archivedTransactionRepository.sumSignedAmountPenceTo(account, asOfDateTime))))
+                .orElseGet(() -> transactionRepository.sumSignedAmountPence(account)
+                        + archivedAmountPence(account, () -> archivedTransactionRepository.sumSignedAmountPence(account))));
+    }
+
+    /**
+     * Only closed accounts have archived transactions, so the archive is not queried for open ones.
+     */
+    private long archivedAmountPence(Account account, Supplier<Long> archivedAmount) {
+        return account.getAccountStatus() == Account.AccountStatuses.CLOSED ? archivedAmount.get() : 0L;
+    }
+
+    /**
+     * Reads of closed accounts sum both tables, so they must not straddle an archive batch.
+     */
+    private long ledgerRead(Account account, Supplier<Long> read) {
+        return account.getAccountStatus() == Account.AccountStatuses.CLOSED ? transactionArchiveService.consistentRead(read) : read.get();
+    }
+
+    /**
+     * Balance of the account over every transaction strictly before {@code beforeDateTime}, built on the latest earlier checkpoint.
+     */
+    public long closingBalanceOf(Account account, ZonedDateTime beforeDateTime) {
+        return ledgerRead(account, () -> balanceCheckpointRepository
+                .findFirstByAccountIdAndCheckpointDateTimeLessThanOrderByCheckpointDateTimeDesc(account.getAccountId(), beforeDateTime)
+                .map(checkpoint -> checkpoint.getBalancePence() + transactionRepository.sumSignedAmountPenceFromBefore(account, checkpoint.getCheckpointDateTime(), beforeDateTime)
+                        + archivedAmountPence(account, () -> archivedTransactionRepository.sumSignedAmountPenceFromBefore(account, checkpoint.getCheckpointDateTime(), beforeDateTime)))
+                .orElseGet(() -> transactionRepository.sumSignedAmountPenceBefore(account, beforeDateTime)
+                        + archivedAmountPence(account, () -> archivedTransactionRepository.sumSignedAmountPenceBefore(account, beforeDateTime))));
+    }
+
+    /**
+     * Applies a signed amount to the stored balance. Must be called in the same transaction as the ledger write it reflects.
+     * The update only matches an account that is open in the database, so a stale cached account cannot be credited once closed.
+     */
+    public void adjustBalance(Account account, long amountPence) throws AccountClosedException {
+        if (accountBalanceRepository.adjustBalanceIfOpen(account.getAccountId(), amountPence, Account.AccountStatuses.OPEN) == 0) {
+            throw closed(account);
+        }
+        balancesChanged(Collections.singleton(account.getAccountId()));
+    }
+
+    /**
+     * Debits the stored balance only if it covers the amount and the account is open. The check and the write are a single
+     * conditional update, so the account's balance row lock serialises competing debits of that account while other accounts are
+     * unaffected.
+     */
+    public void debitBalance(Account account, long amountPence) throws InsufficientFundsException, AccountClosedException {
+        if (accountBalanceRepository.debitBalanceIfCovered(account.getAccountId(), amountPence, Account.AccountStatuses.OPEN) == 0) {
+            if (accountRepository.findOne(account.getAccountId()).getAccountStatus() == Account.AccountStatuses.CLOSED) {
+                throw closed(account);
+            }
+            throw ledgerMetrics.rejected(new InsufficientFundsException("Insufficient funds."));
+        }
+        balancesChanged(Collections.singleton(account.getAccountId()));
+    }
+
+    /**
+     * The database says the account is closed, so any cached copy still showing it open is dropped.
+     */
+    private AccountClosedException closed(Account account) {
+        accountCache.invalidate(account);
+        return ledgerMetrics.rejected(new AccountClosedException("Account " + account.getAccountId() + " is closed. New transactions not permitted."));
+    }
+
+    /**
+     * Locks the stored balances of those given accounts that are open in the database, in account id order, until the surrounding
+     * transaction ends. A closed account has no entry in the result.
+     */
+    public Map<Long, Long> lockBalancesOf(Collection<Account> accounts) {
+        List<Long> accountIds = accounts.stream().map(Account::getAccountId).distinct().collect(Collectors.toList());
+        return accountBalanceRepository.findAllForUpdate(accountIds, Account.AccountStatuses.OPEN).stream()
+                .collect(Collectors.toMap(AccountBalance::getAccountId, AccountBalance::getBalancePence));
+    }
+
+    /**
+     * Overwrites balances locked earlier in the same transaction by {@link #lockBalancesOf}. The rows are updated when the
+     * transaction flushes, so the writes are batched rather than issued one statement at a time.
+     */
+    public void storeLockedBalances(Map<Long, Long> balancePenceByAccountId) {
+        accountBalanceRepository.save(balancePenceByAccountId.entrySet().stream()
+                .map(balance -> AccountBalance.builder().accountId(balance.getKey()).balancePence(balance.getValue()).build())
+                .collect(Collectors.toList()));
+        balancesChanged(balancePenceByAccountId.keySet());
+    }
+
+    /**
+     * Tells the read model, if there is one, to pick up these accounts once the surrounding transaction commits.
+     */
+    private void balancesChanged(Collection<Long> accountIds) {
+        maybeBalanceReadModel.ifPresent(balanceReadModel -> balanceReadModel.changed(accountIds));
+    }
+
+    public List<BalanceDiscrepancy> balanceDiscrepancies(String establishmentId) {
+        List<Account> accounts = accountRepository.findByEstablishmentIdAndAccountStatus(establishmentId, Account.AccountStatuses.OPEN);
+        Map<Long, Long> storedAmounts = accountBalanceRepository.findAll(accounts.stream().map(Account::getAccountId).collect(Collectors.toList()))
+                .stream()
+                .collect(Collectors.toMap(AccountBalance::getAccountId, AccountBalance::getBalancePence));
+        Map<Long, Long> ledgerAmounts = transactionRepository.sumSignedAmountPenceByAccount(establishmentId, Account.AccountStatuses.OPEN)
+                .stream()
+                .collect(Collectors.toMap(AccountAmount::getAccountId, AccountAmount::getAmountPence));
+
+        return accounts.stream()
+                .map(acc -> BalanceDiscrepancy.builder()
+                        .accountId(acc.getAccountId())
+                        .prisonerId(acc.getPrisonerId())
+                        .accountName(acc.getAccountName())
+                        .storedAmountPence(storedAmounts.getOrDefault(acc.getAccountId(), 0L))
+                        .ledgerAmountPence(ledgerAmounts.getOrDefault(acc.getAccountId(), 0L))
+                        .build())
+                .filter(discrepancy -> discrepancy.getStoredAmountPence() != discrepancy.getLedgerAmountPence())
+                .collect(Collectors.toList());
+    }
+
 
     public List<Account> prisonerOpenAccounts(String establishmentId, String prisonerId) {
         return accountRepository.findByEstablishmentIdAndPrisonerIdAndAccountStatus(establishmentId, prisonerId, Account.AccountStatuses.OPEN);
@@ -91,7 +299,7 @@ public class AccountService {
 
     public void checkNotSavingsAccount(Account acc) throws DebitNotSupportedException {
         if (acc.getAccountType() == Account.AccountTypes.SAVINGS) {
-            throw new DebitNotSupportedException("Cannot debit a savings account.");
+            throw ledgerMetrics.rejected(new DebitNotSupportedException("Cannot debit a savings account."));
         }
     }
 
@@ -103,29 +311,73 @@ public class AccountService {
                 .build();
         accountRepository.save(
                 modifiedAccount);
+        accountCache.invalidate(sourceAccount);
+        balancesChanged(Collections.singleton(sourceAccount.getAccountId()));
     }
 
-    public List<Account> accountsForPrisonerTransfers(List<PrisonerTransfer> transfersIn) {
-        return accountRepository.findByPrisonerTransferIn(transfersIn);
+    /**
+     * Closes the accounts as at the given time with one batched update.
+     */
+    public void closeAccounts(Collection<Account> accounts, ZonedDateTime closedDateTime) {
+        accountRepository.save(accounts.stream()
+                .map(account -> account.toBuilder()
+                        .accountStatus(Account.AccountStatuses.CLOSED)
+                        .accountClosedDateTime(closedDateTime)
+                        .build())
+                .collect(Collectors.toList()));
+        accounts.forEach(accountCache::invalidate);
+        balancesChanged(accounts.stream().map(Account::getAccountId).collect(Collectors.toList()));
     }
 
+    @Timed("prisoneraccounts.accounts")
     public Map<String, List<AccountState>> establishmentAccountsSummary(String establishmentId, Optional<ZonedDateTime> maybeAtDateTime) {
-        List<Account> accounts = maybeAtDateTime.map(asOfDateTime -> accountRepository.findByEstablishmentIdAndAccountCreatedDateTimeBefore(establishmentId, asOfDateTime))
-                .orElse(accountRepository.findByEstablishmentIdAndAccountStatus(establishmentId, Account.AccountStatuses.OPEN));
-
-        Map<String, List<Account>> prisonerAccounts = accounts.stream().collect(Collectors.groupingBy(Account::getPrisonerId));
+        return maybeAtDateTime
+                .map(atDateTime -> historicReportCache.get(HistoricReportCache.Report.ACCOUNTS_SUMMARY, establishmentId, TimeBounds.EARLIEST, atDateTime,
+                        () -> historicEstablishmentAccountsSummary(establishmentId, atDateTime)))
+                .orElseGet(() -> currentEstablishmentAccountsSummary(establishmentId));
+    }
 
-        Map<String, List<AccountState>> prisonerBalances = Maps.transformValues(prisonerAccounts, input -> input.stream().map(acc -> accountStateOf(acc,maybeAtDateTime)).collect(Collectors.toList()));
-        
-        return prisonerBalances;
+    private Map<String, List<AccountState>> currentEstablishmentAccountsSummary(String establishmentId) {
+        return accountBalanceRepository.findPrisonerAccountBalances(establishmentId, Account.AccountStatuses.OPEN)
+                .stream()
+                .collect(Collectors.groupingBy(PrisonerAccountBalance::getPrisonerId, Collectors.mapping(balance -> AccountState.builder()
+                        .accountName(balance.getAccountName())
+                        .amountPence(balance.getBalancePence())
+                        .accountStatus(balance.getAccountStatus())
+                        .build(), Collectors.toList())));
     }
 
-    private AccountState accountStateOf(Account acc, Optional<ZonedDateTime> maybeAtDateTime) {
-        return AccountState.builder()
-                .accountName(acc.getAccountName())
-                .amountPence(balanceAsOf(acc, maybeAtDateTime).getAmountPence())
-                .accountStatus(historicAccountStatusOf(acc, maybeAtDateTime))
-                .build();
+    private Map<String, List<AccountState>> historicEstablishmentAccountsSummary(String establishmentId, ZonedDateTime atDateTime) {
+        List<Account> accounts = accountRepository.findByEstablishmentIdAndAccountCreatedDateTimeBefore(establishmentId, atDateTime);
+
+        if (accounts.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<Long, BalanceCheckpoint> checkpoints = balanceCheckpointRepository.findLatestForEstablishmentAsOf(establishmentId, atDateTime)
+                .stream()
+                .collect(Collectors.toMap(BalanceCheckpoint::getAccountId, Function.identity()));
+
+        // No account has transactions before its latest checkpoint (or, lacking one, its creation) that still need summing.
+        ZonedDateTime earliestUncheckpointed = accounts.stream()
+                .map(acc -> Optional.ofNullable(checkpoints.get(acc.getAccountId()))
+                        .map(BalanceCheckpoint::getCheckpointDateTime)
+                        .orElse(acc.getAccountCreatedDateTime()))
+                .min(Comparator.naturalOrder())
+                .get();
+
+        Map<Long, Long> amountsSinceCheckpoint = transactionArchiveService.consistentRead(() -> Stream.concat(
+                transactionRepository.sumSignedAmountPenceSinceCheckpointByAccount(establishmentId, earliestUncheckpointed, atDateTime).stream(),
+                archivedTransactionRepository.sumSignedAmountPenceSinceCheckpointByAccount(establishmentId, earliestUncheckpointed, atDateTime).stream())
+                .collect(Collectors.toMap(AccountAmount::getAccountId, AccountAmount::getAmountPence, Long::sum)));
+
+        return accounts.stream()
+                .collect(Collectors.groupingBy(Account::getPrisonerId, Collectors.mapping(acc -> AccountState.builder()
+                        .accountName(acc.getAccountName())
+                        .amountPence(Optional.ofNullable(checkpoints.get(acc.getAccountId())).map(BalanceCheckpoint::getBalancePence).orElse(0L)
+                                + amountsSinceCheckpoint.getOrDefault(acc.getAccountId(), 0L))
+                        .accountStatus(historicAccountStatusOf(acc, Optional.of(atDateTime)))
+                        .build(), Collectors.toList())));
     }
 
     private Account.AccountStatuses historicAccountStatusOf(Account acc, Optional<ZonedDateTime> maybeAtDateTime) {
@@ -0,0 +1,270 @@
+package uk.gov.justice.digital.prisoneraccounts.service;
+
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.gov.justice.digital.prisoneraccounts.api.DailyBalance;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.BalanceCheckpoint;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.ClosedDay;
+import uk.gov.justice.digital.prisoneraccounts.jpa.projection.AccountTotals;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.AccountRepository;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.ArchivedTransactionRepository;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.BalanceCheckpointRepository;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.ClosedDayRepository;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.TransactionRepository;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Closes each day (UTC) by writing every account's closing balance and the day's credit and debit totals, so that daily
+ * figures and historic balance queries only read the transactions after the nearest checkpoint. A day counts as closed once
+ * its {@link ClosedDay} is written with the last chunk. Recently closed days are checked against the ledger again, since
+ * transactions can still be committed, or projected from the journal, into a day after it has been closed.
+ */
+@Service
+@Slf4j
+public class BalanceCheckpointService {
+
+    private final AccountService accountService;
+    private final AccountRepository accountRepository;
+    private final BalanceCheckpointRepository balanceCheckpointRepository;
+    private final ClosedDayRepository closedDayRepository;
+    private final TransactionRepository transactionRepository;
+    private final ArchivedTransactionRepository archivedTransactionRepository;
+    private final TransactionArchiveService transactionArchiveService;
+    private final TransactionTemplate chunkTransaction;
+    private final int chunkSize;
+    private final int reconcileDays;
+
+    @Autowired
+    public BalanceCheckpointService(AccountService accountService,
+                                    AccountRepository accountRepository,
+                                    BalanceCheckpointRepository balanceCheckpointRepository,
+                                    ClosedDayRepository closedDayRepository,
+                                    TransactionRepository transactionRepository,
+                                    ArchivedTransactionRepository archivedTransactionRepository,
+                                    TransactionArchiveService transactionArchiveService,
+                                    PlatformTransactionManager transactionManager,
+                                    @Value("${prisoneraccounts.checkpoints.chunksize:1000}") int chunkSize,
+                                    @Value("${prisoneraccounts.checkpoints.reconciledays:3}") int reconcileDays) {
+        this.accountService = accountService;
+        this.accountRepository = accountRepository;
+        this.balanceCheckpointRepository = balanceCheckpointRepository;
+        this.closedDayRepository = closedDayRepository;
+        this.transactionRepository = transactionRepository;
+        this.archivedTransactionRepository = archivedTransactionRepository;
+        this.transactionArchiveService = transactionArchiveService;
+        this.chunkTransaction = new TransactionTemplate(transactionManager);
+        this.chunkSize = chunkSize;
+        this.reconcileDays = reconcileDays;
+    }
+
+    /**
+     * Reconciles the closed days among the last {@code prisoneraccounts.checkpoints.reconciledays}, then closes every day after
+     * the latest one completed, up to yesterday. Without a completed day, it starts from the latest day with checkpoints.
+     */
+    @Scheduled(cron = "${prisoneraccounts.checkpoints.cron:0 5 0 * * *}", zone = "UTC")
+    public void closeOutstandingDays() {
+        LocalDate yesterday = LocalDate.now(ZoneOffset.UTC).minusDays(1);
+        for (LocalDate day = yesterday.minusDays(reconcileDays - 1); !day.isAfter(yesterday); day = day.plusDays(1)) {
+            if (isClosed(day)) {
+                reconcileDay(day);
+            }
+        }
+
+        LocalDate day = closedDayRepository.findLatestCheckpointDateTime()
+                .map(latest -> latest.withZoneSameInstant(ZoneOffset.UTC).toLocalDate())
+                .orElseGet(() -> balanceCheckpointRepository.findLatestCheckpointDateTime()
+                        .map(latest -> latest.withZoneSameInstant(ZoneOffset.UTC).toLocalDate().minusDays(1))
+                        .orElse(yesterday));
+
+        for (; !day.isAfter(yesterday); day = day.plusDays(1)) {
+            checkpointDay(day);
+        }
+    }
+
+    /**
+     * Checkpoints every account that was open at some point during the day, in chunks that each commit on their own. The
+     * closing balance is the previous day's plus the day's own transactions. Accounts already checkpointed for the day are
+     * skipped, so reruns, including after an interrupted run, are safe. The last chunk marks the day closed.
+     */
+    public int checkpointDay(LocalDate day) {
+        ZonedDateTime startOfDay = day.atStartOfDay(ZoneOffset.UTC);
+        ZonedDateTime checkpointDateTime = startOfDay.plusDays(1);
+
+        if (checkpointDateTime.isAfter(ZonedDateTime.now(ZoneOffset.UTC))) {
+            throw new IllegalArgumentException("Cannot checkpoint " + day + " before the day has ended.");
+        }
+
+        List<List<Account>> chunks = Lists.partition(accountRepository.findAccountsOpenDuring(startOfDay, checkpointDateTime), chunkSize);
+        int written = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            List<Account> accounts = chunks.get(i);
+            boolean lastChunk = i == chunks.size() - 1;
+            written += chunkTransaction.execute(status -> {
+                int checkpoints = checkpointAccounts(accounts, startOfDay, checkpointDateTime);
+                if (lastChunk) {
+                    markClosed(checkpointDateTime);
+                }
+                return checkpoints;
+            });
+        }
+        if (chunks.isEmpty()) {
+            chunkTransaction.execute(status -> {
+                markClosed(checkpointDateTime);
+                return null;
+            });
+        }
+
+        log.info("Wrote {} balance checkpoints for {}", written, day);
+        return written;
+    }
+
+    private void markClosed(ZonedDateTime checkpointDateTime) {
+        if (!closedDayRepository.exists(checkpointDateTime)) {
+            closedDayRepository.save(ClosedDay.builder()
+                    .checkpointDateTime(checkpointDateTime)
+                    .closedDateTime(ZonedDateTime.now(ZoneOffset.UTC))
+                    .build());
+        }
+    }
+
+    private boolean isClosed(LocalDate day) {
+        return closedDayRepository.exists(day.plusDays(1).atStartOfDay(ZoneOffset.UTC));
+    }
+
+    /**
+     * Brings a closed day's checkpoints back in line with the ledger: any account missing one is checkpointed, and any whose day
+     * totals no longer match its transactions has them replaced, with the difference carried into its later checkpoints.
+     * A correction only applies if the totals are still those read, so concurrent reconciliations cannot apply it twice.
+     *
+     * @return the number of checkpoints written or corrected
+     */
+    public int reconcileDay(LocalDate day) {
+        ZonedDateTime startOfDay = day.atStartOfDay(ZoneOffset.UTC);
+        ZonedDateTime checkpointDateTime = startOfDay.plusDays(1);
+
+        int reconciled = Lists.partition(accountRepository.findAccountsOpenDuring(startOfDay, checkpointDateTime), chunkSize)
+                .stream()
+                .mapToInt(accounts -> chunkTransaction.execute(status -> checkpointAccounts(accounts, startOfDay, checkpointDateTime)
+                        + reconcileAccounts(accounts, startOfDay, checkpointDateTime)))
+                .sum();
+
+        if (reconciled > 0) {
+            log.warn("Reconciled {} balance checkpoints for {} with transactions written after it was closed", reconciled, day);
+        }
+        return reconciled;
+    }
+
+    private int reconcileAccounts(List<Account> accounts, ZonedDateTime startOfDay, ZonedDateTime checkpointDateTime) {
+        List<AccountTotals> dayTotals = dayTotalsOf(accounts, startOfDay, checkpointDateTime);
+        Map<Long, Long> dayCredits = dayTotals.stream().collect(Collectors.toMap(AccountTotals::getAccountId, AccountTotals::getCreditsPence, Long::sum));
+        Map<Long, Long> dayDebits = dayTotals.stream().collect(Collectors.toMap(AccountTotals::getAccountId, AccountTotals::getDebitsPence, Long::sum));
+
+        int corrected = 0;
+        List<Long> accountIds = accounts.stream().map(Account::getAccountId).collect(Collectors.toList());
+        for (BalanceCheckpoint checkpoint : balanceCheckpointRepository.findByCheckpointDateTimeAndAccountIdIn(checkpointDateTime, accountIds)) {
+            // Checkpoints written before day totals were recorded have nothing to compare.
+            if (checkpoint.getCreditsPence() == null || checkpoint.getDebitsPence() == null) {
+                continue;
+            }
+            long creditsPence = dayCredits.getOrDefault(checkpoint.getAccountId(), 0L);
+            long debitsPence = dayDebits.getOrDefault(checkpoint.getAccountId(), 0L);
+            if (creditsPence == checkpoint.getCreditsPence() && debitsPence == checkpoint.getDebitsPence()) {
+                continue;
+            }
+
+            if (balanceCheckpointRepository.correctTotals(checkpoint.getCheckpointId(), checkpoint.getCreditsPence(), checkpoint.getDebitsPence(), creditsPence, debitsPence) == 1) {
+                long correctionPence = (creditsPence - checkpoint.getCreditsPence()) - (debitsPence - checkpoint.getDebitsPence());
+                balanceCheckpointRepository.adjustBalancesAfter(checkpoint.getAccountId(), checkpointDateTime, correctionPence);
+                corrected++;
+            }
+        }
+        return corrected;
+    }
+
+    private int checkpointAccounts(List<Account> accounts, ZonedDateTime startOfDay, ZonedDateTime checkpointDateTime) {
+        List<Long> accountIds = accounts.stream().map(Account::getAccountId).collect(Collectors.toList());
+        Set<Long> checkpointedAccountIds = balanceCheckpointRepository.findByCheckpointDateTimeAndAccountIdIn(checkpointDateTime, accountIds)
+                .stream()
+                .map(BalanceCheckpoint::getAccountId)
+                .collect(Collectors.toSet());
+        Map<Long, Long> openingBalances = balanceCheckpointRepository.findByCheckpointDateTimeAndAccountIdIn(startOfDay, accountIds)
+                .stream()
+                .collect(Collectors.toMap(BalanceCheckpoint::getAccountId, BalanceCheckpoint::getBalancePence));
+        List<AccountTotals> dayTotals = dayTotalsOf(accounts, startOfDay, checkpointDateTime);
+        Map<Long, Long> dayCredits = dayTotals.stream().collect(Collectors.toMap(AccountTotals::getAccountId, AccountTotals::getCreditsPence, Long::sum));
+        Map<Long, Long> dayDebits = dayTotals.stream().collect(Collectors.toMap(AccountTotals::getAccountId, AccountTotals::getDebitsPence, Long::sum));
+
+        List<BalanceCheckpoint> checkpoints = accounts.stream()
+                .filter(account -> !checkpointedAccountIds.contains(account.getAccountId()))
+                .map(account -> {
+                    long creditsPence = dayCredits.getOrDefault(account.getAccountId(), 0L);
+                    long debitsPence = dayDebits.getOrDefault(account.getAccountId(), 0L);
+                    // Only an account's first close, or the first after a missed day, has to sum its earlier ledger.
+                    long openingPence = Optional.ofNullable(openingBalances.get(account.getAccountId()))
+                            .orElseGet(() -> accountService.closingBalanceOf(account, startOfDay));
+
+                    return BalanceCheckpoint.builder()
+                            .accountId(account.getAccountId())
+                            .checkpointDateTime(checkpointDateTime)
+                            .balancePence(openingPence + creditsPence - debitsPence)
+                            .creditsPence(creditsPence)
+                            .debitsPence(debitsPence)
+                            .build();
+                })
+                .collect(Collectors.toList());
+
+        balanceCheckpointRepository.save(checkpoints);
+        return checkpoints.size();
+    }
+
+    private List<AccountTotals> dayTotalsOf(List<Account> accounts, ZonedDateTime startOfDay, ZonedDateTime checkpointDateTime) {
+        List<Account> closedAccounts = accounts.stream()
+                .filter(account -> account.getAccountStatus() == Account.AccountStatuses.CLOSED)
+                .collect(Collectors.toList());
+        if (closedAccounts.isEmpty()) {
+            return transactionRepository.sumCreditsAndDebitsByAccountFromBefore(accounts, startOfDay, checkpointDateTime);
+        }
+        return transactionArchiveService.consistentRead(() -> Stream.concat(
+                transactionRepository.sumCreditsAndDebitsByAccountFromBefore(accounts, startOfDay, checkpointDateTime).stream(),
+                archivedTransactionRepository.sumCreditsAndDebitsByAccountFromBefore(closedAccounts, startOfDay, checkpointDateTime).stream())
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * The stored closing balances and totals of the establishment's accounts for a day, or nothing if the day's close has not
+     * completed.
+     */
+    public Optional<List<DailyBalance>> establishmentDailyBalances(String establishmentId, LocalDate day) {
+        ZonedDateTime checkpointDateTime = day.plusDays(1).atStartOfDay(ZoneOffset.UTC);
+        if (!closedDayRepository.exists(checkpointDateTime)) {
+            return Optional.empty();
+        }
+
+        return Optional.of(balanceCheckpointRepository.findPrisonerDailyBalances(establishmentId, checkpointDateTime)
+                .stream()
+                .map(balance -> DailyBalance.builder()
+                        .prisonerId(balance.getPrisonerId())
+                        .accountName(balance.getAccountName())
+                        .closingBalancePence(balance.getClosingBalancePence())
+                        .creditsPence(balance.getCreditsPence())
+                        .debitsPence(balance.getDebitsPence())
+                        .build())
+                .collect(Collectors.toList()));
+    }
+}
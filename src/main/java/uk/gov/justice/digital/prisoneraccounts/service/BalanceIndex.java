@@ -0,0 +1,422 @@
+package uk.gov.justice.digital.prisoneraccounts.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+
+/**
+ * Current balances held in parallel primitive arrays, one slot per account, so that an estate of a few hundred thousand
+ * accounts costs tens of bytes each and scanning them allocates nothing. Account ids find their slot through an open
+ * addressing table, and establishment, prisoner and account name strings are interned once as int ordinals. Open accounts
+ * are indexed by establishment, as a dense list of slots, and by prisoner, as a chain through the slots. A closed account
+ * keeps its slot, and so its sequence number, until it is removed. Once {@link #removeOlderThan} has run, an account the index
+ * no longer holds only comes back from a read at least that recent, so a slow read cannot resurrect a closed account.
+ * <p>
+ * Not thread safe: callers must keep writers apart from each other and from readers.
+ */
+public class BalanceIndex {
+
+    /**
+     * Receives open accounts without a per account allocation; the strings are the index's interned copies.
+     */
+    public interface AccountVisitor {
+        void visit(String prisonerId, String accountName, long balancePence);
+    }
+
+    private static final int NONE = -1;
+    private static final byte FREE = 0;
+    private static final byte OPEN = 1;
+    private static final byte CLOSED = 2;
+
+    private final Ordinals establishmentOrdinals = new Ordinals();
+    private final Ordinals prisonerOrdinals = new Ordinals();
+    private final Ordinals accountNameOrdinals = new Ordinals();
+
+    private long[] accountIds;
+    private long[] balancesPence;
+    private long[] sequences;
+    private int[] establishments;
+    private int[] prisoners;
+    private int[] accountNames;
+    private byte[] states;
+    private int[] positionsInEstablishment;
+    private int[] nextOfPrisoner;
+    private int[] previousOfPrisoner;
+    private int slotCount;
+    private int[] freeSlots = new int[16];
+    private int freeSlotCount;
+    private int accountCount;
+    private long removedBefore;
+
+    private int[][] establishmentSlots = new int[16][];
+    private int[] establishmentSizes = new int[16];
+    private int[] prisonerHeads = filled(new int[1024]);
+
+    private long[] tableKeys;
+    private int[] tableSlots;
+    private int tableMask;
+
+    public BalanceIndex() {
+        this(1024);
+    }
+
+    public BalanceIndex(int expectedAccounts) {
+        int capacity = Math.max(16, expectedAccounts);
+        accountIds = new long[capacity];
+        balancesPence = new long[capacity];
+        sequences = new long[capacity];
+        establishments = new int[capacity];
+        prisoners = new int[capacity];
+        accountNames = new int[capacity];
+        states = new byte[capacity];
+        positionsInEstablishment = new int[capacity];
+        nextOfPrisoner = new int[capacity];
+        previousOfPrisoner = new int[capacity];
+
+        int tableCapacity = Integer.highestOneBit(capacity * 4 / 3) << 1;
+        tableKeys = new long[tableCapacity];
+        tableSlots = filled(new int[tableCapacity]);
+        tableMask = tableCapacity - 1;
+    }
+
+    /**
+     * Records the account as of the read with the given sequence number, unless it already holds a later read, or does not hold
+     * it and the read is older than the last {@link #removeOlderThan}.
+     *
+     * @return whether the account was updated
+     */
+    public boolean put(long accountId, String establishmentId, String prisonerId, String accountName, boolean open, long balancePence, long sequence) {
+        int slot = slotOf(accountId);
+        if (slot == NONE) {
+            if (sequence < removedBefore) {
+                return false;
+            }
+            slot = allocate(accountId);
+        } else if (sequences[slot] > sequence) {
+            return false;
+        }
+
+        int establishment = establishmentOrdinals.of(establishmentId);
+        int prisoner = prisonerOrdinals.of(prisonerId);
+        boolean wasOpen = states[slot] == OPEN;
+        boolean relink = !wasOpen || !open || establishments[slot] != establishment || prisoners[slot] != prisoner;
+        if (wasOpen && relink) {
+            unlink(slot);
+        }
+
+        establishments[slot] = establishment;
+        prisoners[slot] = prisoner;
+        accountNames[slot] = accountNameOrdinals.of(accountName);
+        balancesPence[slot] = balancePence;
+        sequences[slot] = sequence;
+        states[slot] = open ? OPEN : CLOSED;
+
+        if (open && relink) {
+            link(slot);
+        }
+        return true;
+    }
+
+    public boolean remove(long accountId) {
+        int slot = tableRemove(accountId);
+        if (slot == NONE) {
+            return false;
+        }
+        if (states[slot] == OPEN) {
+            unlink(slot);
+        }
+        states[slot] = FREE;
+        if (freeSlotCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeSlotCount++] = slot;
+        accountCount--;
+        return true;
+    }
+
+    /**
+     * Removes every account, open or closed, last recorded from a read before the given sequence number.
+     *
+     * @return the number of accounts removed
+     */
+    public int removeOlderThan(long sequence) {
+        removedBefore = Math.max(removedBefore, sequence);
+        int removed = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (states[slot] != FREE && sequences[slot] < sequence) {
+                remove(accountIds[slot]);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public OptionalLong balanceOf(String establishmentId, String prisonerId, String accountName) {
+        int establishment = establishmentOrdinals.find(establishmentId);
+        int prisoner = prisonerOrdinals.find(prisonerId);
+        int name = accountNameOrdinals.find(accountName);
+        if (establishment == NONE || prisoner == NONE || name == NONE) {
+            return OptionalLong.empty();
+        }
+
+        for (int slot = prisonerHeadOf(prisoner); slot != NONE; slot = nextOfPrisoner[slot]) {
+            if (establishments[slot] == establishment && accountNames[slot] == name) {
+                return OptionalLong.of(balancesPence[slot]);
+            }
+        }
+        return OptionalLong.empty();
+    }
+
+    public void forEachOpenAccount(String establishmentId, String prisonerId, AccountVisitor visitor) {
+        int establishment = establishmentOrdinals.find(establishmentId);
+        int prisoner = prisonerOrdinals.find(prisonerId);
+        if (establishment == NONE || prisoner == NONE) {
+            return;
+        }
+
+        for (int slot = prisonerHeadOf(prisoner); slot != NONE; slot = nextOfPrisoner[slot]) {
+            if (establishments[slot] == establishment) {
+                visitor.visit(prisonerId, accountNameOrdinals.name(accountNames[slot]), balancesPence[slot]);
+            }
+        }
+    }
+
+    public void forEachOpenAccount(String establishmentId, AccountVisitor visitor) {
+        int establishment = establishmentOrdinals.find(establishmentId);
+        if (establishmentSizeOf(establishment) == 0) {
+            return;
+        }
+
+        int[] slots = establishmentSlots[establishment];
+        for (int i = 0; i < establishmentSizes[establishment]; i++) {
+            int slot = slots[i];
+            visitor.visit(prisonerOrdinals.name(prisoners[slot]), accountNameOrdinals.name(accountNames[slot]), balancesPence[slot]);
+        }
+    }
+
+    public long establishmentBalancePence(String establishmentId) {
+        int establishment = establishmentOrdinals.find(establishmentId);
+        if (establishmentSizeOf(establishment) == 0) {
+            return 0;
+        }
+
+        int[] slots = establishmentSlots[establishment];
+        long balancePence = 0;
+        for (int i = 0; i < establishmentSizes[establishment]; i++) {
+            balancePence += balancesPence[slots[i]];
+        }
+        return balancePence;
+    }
+
+    /**
+     * Accounts held, open or closed.
+     */
+    public int size() {
+        return accountCount;
+    }
+
+    /**
+     * Bytes held by the arrays, leaving out the interned strings.
+     */
+    public long arrayBytes() {
+        long bytes = (long) accountIds.length * (3 * Long.BYTES + 6 * Integer.BYTES + 1)
+                + (long) tableKeys.length * (Long.BYTES + Integer.BYTES)
+                + (long) (freeSlots.length + establishmentSizes.length + prisonerHeads.length) * Integer.BYTES;
+        for (int[] slots : establishmentSlots) {
+            bytes += slots == null ? 0 : (long) slots.length * Integer.BYTES;
+        }
+        return bytes;
+    }
+
+    // Strings are interned on every put but only open accounts are linked, so an ordinal may lie past the end of these arrays.
+    private int prisonerHeadOf(int prisoner) {
+        return prisoner < prisonerHeads.length ? prisonerHeads[prisoner] : NONE;
+    }
+
+    private int establishmentSizeOf(int establishment) {
+        return establishment != NONE && establishment < establishmentSizes.length ? establishmentSizes[establishment] : 0;
+    }
+
+    private int allocate(long accountId) {
+        int slot;
+        if (freeSlotCount > 0) {
+            slot = freeSlots[--freeSlotCount];
+        } else {
+            if (slotCount == accountIds.length) {
+                growSlots(slotCount + slotCount / 2);
+            }
+            slot = slotCount++;
+        }
+        accountIds[slot] = accountId;
+        tablePut(accountId, slot);
+        accountCount++;
+        return slot;
+    }
+
+    private void link(int slot) {
+        int establishment = establishments[slot];
+        if (establishment >= establishmentSlots.length) {
+            establishmentSlots = Arrays.copyOf(establishmentSlots, establishment * 2);
+            establishmentSizes = Arrays.copyOf(establishmentSizes, establishment * 2);
+        }
+        int size = establishmentSizes[establishment];
+        int[] slots = establishmentSlots[establishment];
+        if (slots == null) {
+            slots = establishmentSlots[establishment] = new int[16];
+        } else if (size == slots.length) {
+            slots = establishmentSlots[establishment] = Arrays.copyOf(slots, size * 2);
+        }
+        slots[size] = slot;
+        positionsInEstablishment[slot] = size;
+        establishmentSizes[establishment] = size + 1;
+
+        int prisoner = prisoners[slot];
+        if (prisoner >= prisonerHeads.length) {
+            int length = prisonerHeads.length;
+            prisonerHeads = Arrays.copyOf(prisonerHeads, Math.max(prisoner + 1, length * 2));
+            Arrays.fill(prisonerHeads, length, prisonerHeads.length, NONE);
+        }
+        int head = prisonerHeads[prisoner];
+        nextOfPrisoner[slot] = head;
+        previousOfPrisoner[slot] = NONE;
+        if (head != NONE) {
+            previousOfPrisoner[head] = slot;
+        }
+        prisonerHeads[prisoner] = slot;
+    }
+
+    private void unlink(int slot) {
+        int establishment = establishments[slot];
+        int position = positionsInEstablishment[slot];
+        int last = --establishmentSizes[establishment];
+        int moved = establishmentSlots[establishment][last];
+        establishmentSlots[establishment][position] = moved;
+        positionsInEstablishment[moved] = position;
+
+        int next = nextOfPrisoner[slot];
+        int previous = previousOfPrisoner[slot];
+        if (previous == NONE) {
+            prisonerHeads[prisoners[slot]] = next;
+        } else {
+            nextOfPrisoner[previous] = next;
+        }
+        if (next != NONE) {
+            previousOfPrisoner[next] = previous;
+        }
+    }
+
+    private void growSlots(int capacity) {
+        accountIds = Arrays.copyOf(accountIds, capacity);
+        balancesPence = Arrays.copyOf(balancesPence, capacity);
+        sequences = Arrays.copyOf(sequences, capacity);
+        establishments = Arrays.copyOf(establishments, capacity);
+        prisoners = Arrays.copyOf(prisoners, capacity);
+        accountNames = Arrays.copyOf(accountNames, capacity);
+        states = Arrays.copyOf(states, capacity);
+        positionsInEstablishment = Arrays.copyOf(positionsInEstablishment, capacity);
+        nextOfPrisoner = Arrays.copyOf(nextOfPrisoner, capacity);
+        previousOfPrisoner = Arrays.copyOf(previousOfPrisoner, capacity);
+    }
+
+    private int slotOf(long accountId) {
+        for (int i = tableIndexOf(accountId); tableSlots[i] != NONE; i = (i + 1) & tableMask) {
+            if (tableKeys[i] == accountId) {
+                return tableSlots[i];
+            }
+        }
+        return NONE;
+    }
+
+    private void tablePut(long accountId, int slot) {
+        if ((accountCount + 1) * 4L > tableSlots.length * 3L) {
+            resizeTable(tableSlots.length * 2);
+        }
+        int i = tableIndexOf(accountId);
+        while (tableSlots[i] != NONE) {
+            i = (i + 1) & tableMask;
+        }
+        tableKeys[i] = accountId;
+        tableSlots[i] = slot;
+    }
+
+    private int tableRemove(long accountId) {
+        int i = tableIndexOf(accountId);
+        while (tableSlots[i] != NONE && tableKeys[i] != accountId) {
+            i = (i + 1) & tableMask;
+        }
+        int slot = tableSlots[i];
+        if (slot == NONE) {
+            return NONE;
+        }
+
+        // Shift later entries of the probe run back into the gap, so lookups never stop early at an emptied entry.
+        int gap = i;
+        for (int j = (i + 1) & tableMask; tableSlots[j] != NONE; j = (j + 1) & tableMask) {
+            int home = tableIndexOf(tableKeys[j]);
+            if (((j - home) & tableMask) >= ((j - gap) & tableMask)) {
+                tableKeys[gap] = tableKeys[j];
+                tableSlots[gap] = tableSlots[j];
+                gap = j;
+            }
+        }
+        tableSlots[gap] = NONE;
+        return slot;
+    }
+
+    private void resizeTable(int capacity) {
+        long[] keys = tableKeys;
+        int[] slots = tableSlots;
+        tableKeys = new long[capacity];
+        tableSlots = filled(new int[capacity]);
+        tableMask = capacity - 1;
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != NONE) {
+                int j = tableIndexOf(keys[i]);
+                while (tableSlots[j] != NONE) {
+                    j = (j + 1) & tableMask;
+                }
+                tableKeys[j] = keys[i];
+                tableSlots[j] = slots[i];
+            }
+        }
+    }
+
+    private int tableIndexOf(long accountId) {
+        long hash = accountId * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & tableMask;
+    }
+
+    private static int[] filled(int[] array) {
+        Arrays.fill(array, NONE);
+        return array;
+    }
+
+    /**
+     * Interns strings as dense ordinals. Ordinals are never released, so a prisoner keeps theirs after their accounts close.
+     */
+    private static class Ordinals {
+        private final Map<String, Integer> ordinals = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+
+        int of(String name) {
+            Integer ordinal = ordinals.get(name);
+            if (ordinal == null) {
+                ordinal = names.size();
+                ordinals.put(name, ordinal);
+                names.add(name);
+            }
+            return ordinal;
+        }
+
+        int find(String name) {
+            return ordinals.getOrDefault(name, NONE);
+        }
+
+        String name(int ordinal) {
+            return names.get(ordinal);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package uk.gov.justice.digital.prisoneraccounts.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.gov.justice.digital.prisoneraccounts.api.AccountState;
+import uk.gov.justice.digital.prisoneraccounts.api.Balance;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+import uk.gov.justice.digital.prisoneraccounts.jpa.projection.AccountBalanceView;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.AccountBalanceRepository;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * In-memory current balances of open accounts, by establishment, prisoner and account name, for the query endpoints, held
+ * in a {@link BalanceIndex} behind a read-write lock. It is built from the stored balances at startup. After a transaction that changes balances or opens or closes accounts commits,
+ * those accounts are read back, so a caller sees its own writes on this instance.
+ * <p>
+ * Every read takes a sequence number before it queries, and an account only takes values from a later read than the one it
+ * holds, so reads that finish out of order cannot roll it back. Writes made by other instances are only picked up by a full
+ * resync every {@code prisoneraccounts.readmodel.resyncms}, so the model is off unless {@code prisoneraccounts.readmodel.enabled}
+ * is set.
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "prisoneraccounts.readmodel.enabled", havingValue = "true")
+public class BalanceReadModel {
+
+    private final AccountBalanceRepository accountBalanceRepository;
+    private final TransactionTemplate readTransaction;
+    private final AtomicLong sequence = new AtomicLong();
+    private final BalanceIndex balanceIndex = new BalanceIndex();
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+    // When the last resync began reading: every commit before then, from any instance, has been applied.
+    private volatile long appliedAsOfMillis = System.currentTimeMillis();
+
+    @Autowired
+    public BalanceReadModel(AccountBalanceRepository accountBalanceRepository, PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
+        this.accountBalanceRepository = accountBalanceRepository;
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.readTransaction.setReadOnly(true);
+
+        Gauge.builder("prisoneraccounts.readmodel.lag", this, model -> (System.currentTimeMillis() - model.appliedAsOfMillis) / 1000.0)
+                .description("Age of the oldest commit, made through another instance, that the read model may not reflect yet")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("prisoneraccounts.readmodel.accounts", this, model -> model.read(model.balanceIndex::size))
+                .description("Accounts held by the read model, including recently closed ones")
+                .register(meterRegistry);
+        Gauge.builder("prisoneraccounts.readmodel.index.size", this, model -> model.read(model.balanceIndex::arrayBytes))
+                .description("Bytes held by the read model's balance arrays")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    @Scheduled(fixedDelayString = "${prisoneraccounts.readmodel.resyncms:60000}", initialDelayString = "${prisoneraccounts.readmodel.resyncms:60000}")
+    public void resync() {
+        long readStartedMillis = System.currentTimeMillis();
+        long readSequence = sequence.incrementAndGet();
+        List<AccountBalanceView> balances = readTransaction.execute(status -> accountBalanceRepository.findAccountBalancesByStatus(Account.AccountStatuses.OPEN));
+
+        write(() -> {
+            balances.forEach(balance -> apply(readSequence, balance));
+            // Anything not read back by this resync, nor refreshed since it began, has been removed or closed elsewhere.
+            balanceIndex.removeOlderThan(readSequence);
+        });
+
+        appliedAsOfMillis = readStartedMillis;
+        log.debug("Read model resynchronised with {} open accounts", balances.size());
+    }
+
+    /**
+     * Reads the accounts back once the current transaction commits, or straight away outside a transaction.
+     */
+    @SuppressWarnings("unchecked")
+    public void changed(Collection<Long> accountIds) {
+        if (accountIds.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            refresh(accountIds);
+            return;
+        }
+
+        Set<Long> changedAccountIds = (Set<Long>) TransactionSynchronizationManager.getResource(this);
+        if (changedAccountIds == null) {
+            Set<Long> committedAccountIds = new HashSet<>();
+            changedAccountIds = committedAccountIds;
+            TransactionSynchronizationManager.bindResource(this, committedAccountIds);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    refresh(committedAccountIds);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(BalanceReadModel.this);
+                }
+            });
+        }
+        changedAccountIds.addAll(accountIds);
+    }
+
+    public Optional<Balance> balanceOf(String establishmentId, String prisonerId, String accountName) {
+        OptionalLong maybeBalancePence = read(() -> balanceIndex.balanceOf(establishmentId, prisonerId, accountName));
+
+        return maybeBalancePence.isPresent()
+                ? Optional.of(Balance.builder().accountName(accountName).amountPence(maybeBalancePence.getAsLong()).build())
+                : Optional.empty();
+    }
+
+    public List<Balance> prisonerBalances(String establishmentId, String prisonerId) {
+        List<Balance> balances = new ArrayList<>();
+        scan(() -> balanceIndex.forEachOpenAccount(establishmentId, prisonerId, (prisoner, accountName, balancePence) -> balances.add(Balance.builder()
+                .accountName(accountName)
+                .amountPence(balancePence)
+                .build())));
+        return balances;
+    }
+
+    public Map<String, List<AccountState>> establishmentAccountsSummary(String establishmentId) {
+        Map<String, List<AccountState>> accountStates = new HashMap<>();
+        scan(() -> balanceIndex.forEachOpenAccount(establishmentId, (prisonerId, accountName, balancePence) -> accountStates
+                .computeIfAbsent(prisonerId, prisoner -> new ArrayList<>())
+                .add(AccountState.builder()
+                        .accountName(accountName)
+                        .amountPence(balancePence)
+                        .accountStatus(Account.AccountStatuses.OPEN)
+                        .build())));
+        return accountStates;
+    }
+
+    public long establishmentBalancePence(String establishmentId) {
+        return read(() -> balanceIndex.establishmentBalancePence(establishmentId));
+    }
+
+    private void refresh(Collection<Long> accountIds) {
+        long readSequence = sequence.incrementAndGet();
+        List<AccountBalanceView> balances = readTransaction.execute(status -> accountBalanceRepository.findAccountBalances(accountIds));
+
+        write(() -> balances.forEach(balance -> apply(readSequence, balance)));
+    }
+
+    private void apply(long readSequence, AccountBalanceView balance) {
+        balanceIndex.put(balance.getAccountId(), balance.getEstablishmentId(), balance.getPrisonerId(), balance.getAccountName(),
+                balance.getAccountStatus() == Account.AccountStatuses.OPEN, balance.getBalancePence(), readSequence);
+    }
+
+    private <T> T read(Supplier<T> query) {
+        indexLock.readLock().lock();
+        try {
+            return query.get();
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    private void scan(Runnable query) {
+        indexLock.readLock().lock();
+        try {
+            query.run();
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    private void write(Runnable update) {
+        indexLock.writeLock().lock();
+        try {
+            update.run();
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+}
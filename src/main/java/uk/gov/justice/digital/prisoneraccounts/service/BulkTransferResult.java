@@ -0,0 +1,16 @@
+package uk.gov.justice.digital.prisoneraccounts.service;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * What {@link PrisonerTransferService#transferPrisonersAccounts} moved in one transaction.
+ */
+@Value
+@Builder
+public class BulkTransferResult {
+
+    private final int prisoners;
+    private final int accounts;
+    private final long amountPence;
+}
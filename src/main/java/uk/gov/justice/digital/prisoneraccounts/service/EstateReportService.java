@@ -0,0 +1,103 @@
+package uk.gov.justice.digital.prisoneraccounts.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import uk.gov.justice.digital.prisoneraccounts.api.AccountState;
+import uk.gov.justice.digital.prisoneraccounts.api.EstablishmentSummary;
+import uk.gov.justice.digital.prisoneraccounts.api.EstablishmentTransferSummary;
+import uk.gov.justice.digital.prisoneraccounts.api.EstateSummary;
+import uk.gov.justice.digital.prisoneraccounts.api.TransferIn;
+import uk.gov.justice.digital.prisoneraccounts.api.TransferOut;
+import uk.gov.justice.digital.prisoneraccounts.config.SqlDiagnosticsConfig;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.AccountRepository;
+
+import javax.annotation.PreDestroy;
+import java.time.ZonedDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Estate-wide balance and transfer settlement report. Each establishment's account and transfer summaries are computed on a
+ * bounded pool and merged. The pool never takes more than half of the connection pool, leaving the rest for ledger traffic.
+ * Statements run on the pool are counted against the requesting thread.
+ */
+@Service
+@Slf4j
+public class EstateReportService {
+
+    private final AccountService accountService;
+    private final PrisonerTransferService prisonerTransferService;
+    private final AccountRepository accountRepository;
+    private final ExecutorService executor;
+
+    @Autowired
+    public EstateReportService(AccountService accountService,
+                               PrisonerTransferService prisonerTransferService,
+                               AccountRepository accountRepository,
+                               @Value("${prisoneraccounts.estatereport.parallelism:4}") int parallelism,
+                               @Value("${spring.datasource.tomcat.max-active:100}") int maxConnections) {
+        this.accountService = accountService;
+        this.prisonerTransferService = prisonerTransferService;
+        this.accountRepository = accountRepository;
+        int threads = Math.max(1, Math.min(parallelism, maxConnections / 2));
+        log.info("Estate reports run on {} threads", threads);
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("estate-report-%d").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public EstateSummary estateSummary(ZonedDateTime atDateTime) {
+        List<CompletableFuture<EstablishmentSummary>> partitions = accountRepository.findEstablishmentIdsWithAccountsCreatedBefore(atDateTime)
+                .stream()
+                .map(establishmentId -> CompletableFuture.supplyAsync(SqlDiagnosticsConfig.countedAgainstCaller(() -> establishmentSummary(establishmentId, atDateTime)), executor))
+                .collect(Collectors.toList());
+
+        List<EstablishmentSummary> establishments = partitions.stream()
+                .map(CompletableFuture::join)
+                .sorted(Comparator.comparing(EstablishmentSummary::getEstablishmentId))
+                .collect(Collectors.toList());
+
+        return EstateSummary.builder()
+                .atDateTime(atDateTime)
+                .prisoners(establishments.stream().mapToInt(EstablishmentSummary::getPrisoners).sum())
+                .accounts(establishments.stream().mapToInt(EstablishmentSummary::getAccounts).sum())
+                .balancePence(establishments.stream().mapToLong(EstablishmentSummary::getBalancePence).sum())
+                .amountToRequestPence(establishments.stream().mapToLong(EstablishmentSummary::getAmountToRequestPence).sum())
+                .amountToTransferPence(establishments.stream().mapToLong(EstablishmentSummary::getAmountToTransferPence).sum())
+                .establishments(establishments)
+                .build();
+    }
+
+    private EstablishmentSummary establishmentSummary(String establishmentId, ZonedDateTime atDateTime) {
+        Map<String, List<AccountState>> accounts = accountService.establishmentAccountsSummary(establishmentId, Optional.of(atDateTime))
+                .entrySet()
+                .stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, prisonerAccounts -> prisonerAccounts.getValue().stream()
+                        .filter(account -> account.getAccountStatus() == Account.AccountStatuses.OPEN)
+                        .collect(Collectors.toList())));
+        accounts.values().removeIf(List::isEmpty);
+        EstablishmentTransferSummary transfers = prisonerTransferService.prisonerTransferAccountsSummary(establishmentId, Optional.empty(), Optional.of(atDateTime));
+
+        return EstablishmentSummary.builder()
+                .establishmentId(establishmentId)
+                .prisoners(accounts.size())
+                .accounts(accounts.values().stream().mapToInt(List::size).sum())
+                .balancePence(accounts.values().stream().flatMap(List::stream).mapToLong(AccountState::getAmountPence).sum())
+                .amountToRequestPence(transfers.getTransferredIn().stream().mapToLong(TransferIn::getAmountToRequestPence).sum())
+                .amountToTransferPence(transfers.getTransferredOut().stream().mapToLong(TransferOut::getAmountToTransferPence).sum())
+                .build();
+    }
+}
@@ -0,0 +1,149 @@
+package uk.gov.justice.digital.prisoneraccounts.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import uk.gov.justice.digital.prisoneraccounts.api.AccountState;
+import uk.gov.justice.digital.prisoneraccounts.api.Evacuation;
+
+import javax.annotation.PreDestroy;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Moves prisoners' accounts from one establishment to another as a background job. The prisoners are split into chunks that
+ * are transferred in parallel, each in its own transaction, so a failing chunk is rolled back and reported without undoing the
+ * rest. Jobs are only held in memory, and only the most recent {@code prisoneraccounts.evacuation.retainedjobs} of them.
+ */
+@Service
+@Slf4j
+public class EvacuationService {
+
+    private final AccountService accountService;
+    private final PrisonerTransferService prisonerTransferService;
+    private final int chunkSize;
+    private final ExecutorService executor;
+    private final Cache<String, Evacuation> evacuations;
+
+    @Autowired
+    public EvacuationService(AccountService accountService,
+                             PrisonerTransferService prisonerTransferService,
+                             @Value("${prisoneraccounts.evacuation.chunksize:100}") int chunkSize,
+                             @Value("${prisoneraccounts.evacuation.threads:4}") int threads,
+                             @Value("${prisoneraccounts.evacuation.retainedjobs:100}") long retainedJobs) {
+        this.accountService = accountService;
+        this.prisonerTransferService = prisonerTransferService;
+        this.chunkSize = chunkSize;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("evacuation-%d").setDaemon(true).build());
+        this.evacuations = CacheBuilder.newBuilder().maximumSize(retainedJobs).build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * What an evacuation would move right now: the given prisoners, or every prisoner with an open account at the establishment.
+     */
+    public Evacuation plan(String fromEstablishmentId, String toEstablishmentId, Optional<Collection<String>> maybePrisonerIds) {
+        return planOf(fromEstablishmentId, toEstablishmentId, openAccountsOf(fromEstablishmentId, maybePrisonerIds));
+    }
+
+    private Evacuation planOf(String fromEstablishmentId, String toEstablishmentId, Map<String, List<AccountState>> accounts) {
+        return Evacuation.builder()
+                .fromEstablishmentId(fromEstablishmentId)
+                .toEstablishmentId(toEstablishmentId)
+                .status(Evacuation.Statuses.DRY_RUN)
+                .prisoners(accounts.size())
+                .accounts(accounts.values().stream().mapToInt(List::size).sum())
+                .amountPence(accounts.values().stream().flatMap(List::stream).mapToLong(AccountState::getAmountPence).sum())
+                .failedPrisonerIds(new ArrayList<>())
+                .build();
+    }
+
+    /**
+     * Starts an evacuation and returns it as it stands; poll {@link #evacuation} for progress.
+     */
+    public Evacuation start(String fromEstablishmentId, String toEstablishmentId, Optional<Collection<String>> maybePrisonerIds) {
+        Map<String, List<AccountState>> accounts = openAccountsOf(fromEstablishmentId, maybePrisonerIds);
+        List<List<String>> chunks = Lists.partition(accounts.keySet().stream().sorted().collect(Collectors.toList()), chunkSize);
+
+        Evacuation evacuation = planOf(fromEstablishmentId, toEstablishmentId, accounts).toBuilder()
+                .evacuationId(UUID.randomUUID().toString())
+                .status(Evacuation.Statuses.RUNNING)
+                .startedDateTime(ZonedDateTime.now(ZoneOffset.UTC))
+                .build();
+        evacuations.put(evacuation.getEvacuationId(), evacuation);
+
+        if (chunks.isEmpty()) {
+            complete(evacuation);
+        }
+
+        AtomicInteger remainingChunks = new AtomicInteger(chunks.size());
+        for (List<String> chunk : chunks) {
+            executor.execute(() -> {
+                transferChunk(evacuation, chunk);
+                if (remainingChunks.decrementAndGet() == 0) {
+                    complete(evacuation);
+                }
+            });
+        }
+
+        return snapshotOf(evacuation);
+    }
+
+    public Optional<Evacuation> evacuation(String evacuationId) {
+        return Optional.ofNullable(evacuations.getIfPresent(evacuationId)).map(this::snapshotOf);
+    }
+
+    private Map<String, List<AccountState>> openAccountsOf(String establishmentId, Optional<Collection<String>> maybePrisonerIds) {
+        Map<String, List<AccountState>> accounts = accountService.establishmentAccountsSummary(establishmentId, Optional.empty());
+        maybePrisonerIds.ifPresent(prisonerIds -> accounts.keySet().retainAll(prisonerIds));
+        return accounts;
+    }
+
+    private void transferChunk(Evacuation evacuation, List<String> prisonerIds) {
+        try {
+            BulkTransferResult result = prisonerTransferService.transferPrisonersAccounts(prisonerIds, evacuation.getFromEstablishmentId(), evacuation.getToEstablishmentId());
+            synchronized (evacuation) {
+                evacuation.setPrisonersTransferred(evacuation.getPrisonersTransferred() + result.getPrisoners());
+                evacuation.setAccountsTransferred(evacuation.getAccountsTransferred() + result.getAccounts());
+                evacuation.setAmountTransferredPence(evacuation.getAmountTransferredPence() + result.getAmountPence());
+            }
+        } catch (Exception e) {
+            log.warn("Evacuation {} failed to transfer {} prisoners from {}", evacuation.getEvacuationId(), prisonerIds.size(), evacuation.getFromEstablishmentId(), e);
+            synchronized (evacuation) {
+                evacuation.getFailedPrisonerIds().addAll(prisonerIds);
+            }
+        }
+    }
+
+    private void complete(Evacuation evacuation) {
+        synchronized (evacuation) {
+            evacuation.setStatus(evacuation.getFailedPrisonerIds().isEmpty() ? Evacuation.Statuses.COMPLETED : Evacuation.Statuses.COMPLETED_WITH_FAILURES);
+            evacuation.setCompletedDateTime(ZonedDateTime.now(ZoneOffset.UTC));
+        }
+    }
+
+    private Evacuation snapshotOf(Evacuation evacuation) {
+        synchronized (evacuation) {
+            return evacuation.toBuilder().failedPrisonerIds(new ArrayList<>(evacuation.getFailedPrisonerIds())).build();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package uk.gov.justice.digital.prisoneraccounts.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.stereotype.Component;
+import uk.gov.justice.digital.prisoneraccounts.api.AccountState;
+import uk.gov.justice.digital.prisoneraccounts.api.EstablishmentTransferSummary;
+import uk.gov.justice.digital.prisoneraccounts.journal.JournalBacklog;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Size-bounded cache of reports whose whole time window ends before the settled horizon. The ledger is append-only, so such a
+ * report can never change and is computed at most once per establishment and window while it stays cached. A window is not
+ * settled while a journal record dated at or before its end is still waiting to be projected. Reports computed
+ * while an archive run holds the archive lock are returned but not cached.
+ * <p>
+ * When {@code prisoneraccounts.reportcache.directory} is set, each cached report is also written there as JSON, deleted again
+ * when it is evicted, and loaded back at startup.
+ */
+@Component
+@Slf4j
+public class HistoricReportCache {
+
+    public enum Report {
+        ACCOUNTS_SUMMARY(new TypeReference<Map<String, List<AccountState>>>() {
+        }),
+        TRANSFER_SUMMARY(new TypeReference<EstablishmentTransferSummary>() {
+        });
+
+        private final TypeReference<?> valueType;
+
+        Report(TypeReference<?> valueType) {
+            this.valueType = valueType;
+        }
+    }
+
+    private final Cache<ReportKey, Object> reports;
+    private final long settledHorizonSeconds;
+    private final Optional<Path> directory;
+    private final ObjectMapper objectMapper;
+    private final TransactionArchiveService transactionArchiveService;
+    private final JournalBacklog journalBacklog;
+
+    @Autowired
+    public HistoricReportCache(@Value("${prisoneraccounts.reportcache.maximumsize:500}") long maximumSize,
+                               @Value("${prisoneraccounts.reportcache.settledhorizonseconds:3600}") long settledHorizonSeconds,
+                               @Value("${prisoneraccounts.reportcache.directory:}") String directory,
+                               MappingJackson2HttpMessageConverter jsonConverter,
+                               TransactionArchiveService transactionArchiveService,
+                               JournalBacklog journalBacklog) {
+        this.settledHorizonSeconds = settledHorizonSeconds;
+        this.directory = Optional.of(directory).filter(dir -> !dir.isEmpty()).map(Paths::get);
+        this.objectMapper = jsonConverter.getObjectMapper();
+        this.transactionArchiveService = transactionArchiveService;
+        this.journalBacklog = journalBacklog;
+        this.reports = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .<ReportKey, Object>removalListener(removal -> {
+                    if (removal.getCause() != RemovalCause.REPLACED) {
+                        deletePersisted(removal.getKey());
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Returns the cached report for the window, computing and caching it if the window is settled. Unsettled windows are always computed.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Report report, String establishmentId, ZonedDateTime from, ZonedDateTime to, Supplier<T> compute) {
+        if (!isSettled(to)) {
+            return compute.get();
+        }
+
+        ReportKey key = new ReportKey(report, establishmentId, from.toInstant(), to.toInstant());
+        Object cached = reports.getIfPresent(key);
+        if (cached != null) {
+            return (T) cached;
+        }
+        if (transactionArchiveService.isArchiving()) {
+            return compute.get();
+        }
+        try {
+            return (T) reports.get(key, () -> {
+                T value = compute.get();
+                if (transactionArchiveService.isArchiving()) {
+                    throw new ComputedWhileArchiving(value);
+                }
+                persist(key, value);
+                return value;
+            });
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof ComputedWhileArchiving) {
+                return (T) ((ComputedWhileArchiving) e.getCause()).value;
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public long size() {
+        return reports.size();
+    }
+
+    private boolean isSettled(ZonedDateTime to) {
+        return !to.isAfter(ZonedDateTime.now(ZoneOffset.UTC).minusSeconds(settledHorizonSeconds))
+                && journalBacklog.oldestTransactionDateTime().map(to::isBefore).orElse(true);
+    }
+
+    @PostConstruct
+    public void loadPersisted() throws IOException {
+        if (!directory.isPresent()) {
+            return;
+        }
+        Files.createDirectories(directory.get());
+
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory.get())) {
+            files = listing
+                    .filter(file -> file.getFileName().toString().endsWith(".json"))
+                    .sorted(Comparator.comparing(this::lastModified))
+                    .collect(Collectors.toList());
+        }
+
+        // Oldest first, so that if there are more files than fit, the least recently written are the ones evicted.
+        for (Path file : files) {
+            try {
+                PersistedReport persisted = objectMapper.readValue(file.toFile(), PersistedReport.class);
+                ReportKey key = persisted.getKey();
+                reports.put(key, objectMapper.convertValue(persisted.getValue(), objectMapper.getTypeFactory().constructType(key.getReport().valueType)));
+            } catch (IOException | IllegalArgumentException e) {
+                log.warn("Discarding unreadable cached report {}", file, e);
+                Files.deleteIfExists(file);
+            }
+        }
+        log.info("Loaded {} cached reports from {}", reports.size(), directory.get());
+    }
+
+    private void persist(ReportKey key, Object value) {
+        directory.ifPresent(dir -> {
+            try {
+                Path file = fileFor(key);
+                Path partial = Files.createTempFile(dir, "report", ".partial");
+                objectMapper.writeValue(partial.toFile(), new PersistedReport(key, objectMapper.valueToTree(value)));
+                Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private void deletePersisted(ReportKey key) {
+        directory.ifPresent(dir -> {
+            try {
+                Files.deleteIfExists(fileFor(key));
+            } catch (IOException e) {
+                log.warn("Could not delete cached report for {}", key, e);
+            }
+        });
+    }
+
+    private Path fileFor(ReportKey key) {
+        String id = key.getEstablishmentId() + "|" + key.getFrom() + "|" + key.getTo();
+        return directory.get().resolve(key.getReport().name().toLowerCase() + "-" + Hashing.sha256().hashString(id, StandardCharsets.UTF_8) + ".json");
+    }
+
+    private long lastModified(Path file) {
+        return file.toFile().lastModified();
+    }
+
+    /**
+     * Carries a report computed while an archive run started out of the cache loader, so that it is returned without being cached.
+     */
+    private static class ComputedWhileArchiving extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private final transient Object value;
+
+        private ComputedWhileArchiving(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    private static class ReportKey {
+        private Report report;
+        private String establishmentId;
+        private Instant from;
+        private Instant to;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    private static class PersistedReport {
+        private ReportKey key;
+        private JsonNode value;
+    }
+}
@@ -0,0 +1,17 @@
+package uk.gov.justice.digital.prisoneraccounts.service;
+
+/**
+ * A request parameter the client sent is malformed or out of range, such as a paging limit or cursor.
+ */
+public class InvalidRequestException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public InvalidRequestException(String message) {
+        super(message);
+    }
+
+    public InvalidRequestException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
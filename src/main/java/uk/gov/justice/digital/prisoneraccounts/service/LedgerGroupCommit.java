@@ -0,0 +1,167 @@
+package uk.gov.justice.digital.prisoneraccounts.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import uk.gov.justice.digital.prisoneraccounts.api.BulkLedgerResult;
+import uk.gov.justice.digital.prisoneraccounts.api.Operations;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Transaction;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit for single ledger postings, enabled by {@code prisoneraccounts.groupcommit.enabled}. Postings are queued and a
+ * single committer gathers them for up to {@code prisoneraccounts.groupcommit.windowms} or
+ * {@code prisoneraccounts.groupcommit.maxbatch} entries, then posts them with {@link TransactionService#postAll} in one database
+ * transaction. Postings are applied in arrival order, so each account's entries keep their order and every debit is checked
+ * against the running balance. A batch's statements serve every posting in it, so they are not counted against any request's
+ * query count.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "prisoneraccounts.groupcommit.enabled", havingValue = "true")
+public class LedgerGroupCommit {
+
+    private final TransactionService transactionService;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final BlockingQueue<QueuedPosting> queue = new LinkedBlockingQueue<>();
+    private final DistributionSummary batchSizes;
+    private final Timer commitWaits;
+
+    private volatile boolean running;
+    private Thread committer;
+
+    @Autowired
+    public LedgerGroupCommit(TransactionService transactionService,
+                             MeterRegistry meterRegistry,
+                             @Value("${prisoneraccounts.groupcommit.windowms:2}") long windowMillis,
+                             @Value("${prisoneraccounts.groupcommit.maxbatch:500}") int maxBatch) {
+        this.transactionService = transactionService;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatch = maxBatch;
+        this.batchSizes = DistributionSummary.builder("prisoneraccounts.groupcommit.batch.size")
+                .description("Postings committed together")
+                .register(meterRegistry);
+        this.commitWaits = Timer.builder("prisoneraccounts.groupcommit.wait")
+                .description("Time from queueing a posting to its commit")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        committer = new Thread(this::commitContinuously, "ledger-group-commit");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        committer.interrupt();
+        committer.join();
+        List<QueuedPosting> abandoned = new ArrayList<>();
+        queue.drainTo(abandoned);
+        abandoned.forEach(queued -> queued.getResult().completeExceptionally(new IllegalStateException("Ledger group commit stopped")));
+    }
+
+    /**
+     * Queues the posting and returns its transaction once the batch holding it has committed.
+     */
+    public Transaction post(LedgerPosting posting) throws DebitNotSupportedException, InsufficientFundsException, AccountClosedException {
+        QueuedPosting queued = new QueuedPosting(posting, new CompletableFuture<>(), System.nanoTime());
+        queue.add(queued);
+
+        BulkLedgerResult result;
+        try {
+            result = queued.getResult().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for ledger group commit", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ledger group commit failed", e.getCause());
+        }
+
+        switch (result.getOutcome()) {
+            case INSUFFICIENT_FUNDS:
+                throw new InsufficientFundsException(result.getMessage());
+            case ACCOUNT_CLOSED:
+                throw new AccountClosedException(result.getMessage());
+            case DEBIT_NOT_SUPPORTED:
+                throw new DebitNotSupportedException(result.getMessage());
+            default:
+                return Transaction.builder()
+                        .transactionId(result.getTransactionId())
+                        .account(posting.getAccount())
+                        .transactionType(posting.getOperation() == Operations.DEBIT ? Transaction.TransactionTypes.DEBIT : Transaction.TransactionTypes.CREDIT)
+                        .amountPence(posting.getAmountPence())
+                        .transactionDateTime(result.getTransactionDateTime())
+                        .description(posting.getDescription())
+                        .clientReference(posting.getClientRef())
+                        .build();
+        }
+    }
+
+    private void commitContinuously() {
+        while (running) {
+            List<QueuedPosting> batch = new ArrayList<>(maxBatch);
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    QueuedPosting next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                batch.forEach(queued -> queue.add(queued));
+                return;
+            }
+            commit(batch);
+        }
+    }
+
+    private void commit(List<QueuedPosting> batch) {
+        List<LedgerPosting> postings = new ArrayList<>(batch.size());
+        batch.forEach(queued -> postings.add(queued.getPosting()));
+        batchSizes.record(batch.size());
+
+        try {
+            List<BulkLedgerResult> results = transactionService.postAll(postings);
+            long committedNanos = System.nanoTime();
+            for (int i = 0; i < batch.size(); i++) {
+                commitWaits.record(committedNanos - batch.get(i).getQueuedNanos(), TimeUnit.NANOSECONDS);
+                batch.get(i).getResult().complete(results.get(i));
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to commit {} ledger postings", batch.size(), e);
+            batch.forEach(queued -> queued.getResult().completeExceptionally(e));
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class QueuedPosting {
+        private final LedgerPosting posting;
+        private final CompletableFuture<BulkLedgerResult> result;
+        private final long queuedNanos;
+    }
+}
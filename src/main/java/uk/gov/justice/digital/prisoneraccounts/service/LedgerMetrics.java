@@ -0,0 +1,46 @@
+package uk.gov.justice.digital.prisoneraccounts.service;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.AccountRepository;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts rejected ledger postings by exception and gauges the number of open accounts. The open account count is queried at
+ * most once per {@code prisoneraccounts.metrics.openaccountsrefreshseconds}, however often the registry is scraped.
+ */
+@Component
+public class LedgerMetrics {
+
+    private final MeterRegistry meterRegistry;
+    // Gauges only hold their state weakly.
+    private final Supplier<Long> openAccounts;
+
+    @Autowired
+    public LedgerMetrics(MeterRegistry meterRegistry,
+                         AccountRepository accountRepository,
+                         @Value("${prisoneraccounts.metrics.openaccountsrefreshseconds:30}") long openAccountsRefreshSeconds) {
+        this.meterRegistry = meterRegistry;
+
+        this.openAccounts = Suppliers.memoizeWithExpiration(
+                () -> accountRepository.countByAccountStatus(Account.AccountStatuses.OPEN), openAccountsRefreshSeconds, TimeUnit.SECONDS);
+        Gauge.builder("prisoneraccounts.accounts.open", openAccounts, Supplier::get)
+                .description("Number of open accounts")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Counts the rejection and returns the exception, to be thrown by the caller.
+     */
+    public <E extends Exception> E rejected(E exception) {
+        meterRegistry.counter("prisoneraccounts.ledger.rejections", "exception", exception.getClass().getSimpleName()).increment();
+        return exception;
+    }
+}
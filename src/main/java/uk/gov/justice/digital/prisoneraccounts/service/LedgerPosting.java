@@ -0,0 +1,20 @@
+package uk.gov.justice.digital.prisoneraccounts.service;
+
+import lombok.Builder;
+import lombok.Value;
+import uk.gov.justice.digital.prisoneraccounts.api.Operations;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+
+/**
+ * A single ledger entry against an already resolved account, as posted by {@link TransactionService#postAll}.
+ */
+@Value
+@Builder
+public class LedgerPosting {
+
+    private final Account account;
+    private final long amountPence;
+    private final Operations operation;
+    private final String description;
+    private final String clientRef;
+}
@@ -1,29 +1,65 @@
 package uk.gov.justice.digital.prisoneraccounts.service;
 
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Table;
+import io.micrometer.core.annotation.Timed;
 import lombok.val;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import uk.gov.justice.digital.prisoneraccounts.api.BulkLedgerEntry;
+import uk.gov.justice.digital.prisoneraccounts.api.BulkLedgerResult;
 import uk.gov.justice.digital.prisoneraccounts.api.Operations;
+import uk.gov.justice.digital.prisoneraccounts.journal.JournalService;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
 import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Transaction;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @Service
 public class LedgerService {
 
     private final AccountService accountService;
     private final TransactionService transactionService;
+    private final Optional<JournalService> journalService;
+    private final Optional<LedgerGroupCommit> groupCommit;
 
     @Autowired
-    public LedgerService(AccountService accountService, TransactionService transactionService) {
+    public LedgerService(AccountService accountService, TransactionService transactionService, Optional<JournalService> journalService, Optional<LedgerGroupCommit> groupCommit) {
         this.accountService = accountService;
         this.transactionService = transactionService;
+        this.journalService = journalService;
+        this.groupCommit = groupCommit;
     }
 
+    @Timed("prisoneraccounts.ledger.post")
     public Transaction postTransaction(String establishmentId, String prisonerId, String accountName, String description, String clientRef, long amountPence, Operations operation) throws DebitNotSupportedException, InsufficientFundsException, AccountClosedException {
 
         val account = accountService.getOrCreateAccount(establishmentId, prisonerId, accountName, Optional.empty());
 
+        if (journalService.isPresent()) {
+            if (operation == Operations.DEBIT) {
+                accountService.checkNotSavingsAccount(account);
+            }
+            return journalService.get().post(account, operation, amountPence, description, clientRef);
+        }
+
+        if (groupCommit.isPresent()) {
+            return groupCommit.get().post(LedgerPosting.builder()
+                    .account(account)
+                    .amountPence(amountPence)
+                    .operation(operation)
+                    .description(description)
+                    .clientRef(clientRef)
+                    .build());
+        }
+
         Transaction result = null;
         switch (operation) {
             case CREDIT:
@@ -36,4 +72,68 @@ public class LedgerService {
         }
         return result;
     }
+
+    /**
+     * Bulk form of {@link #postTransaction} for one establishment: accounts are resolved together and every entry gets its own result.
+     * Entries that fail validation are reported as invalid and take no further part in the batch.
+     */
+    @Timed("prisoneraccounts.ledger.post.bulk")
+    @Transactional
+    public List<BulkLedgerResult> postTransactions(String establishmentId, List<BulkLedgerEntry> entries) {
+        List<Optional<String>> problems = entries.stream().map(this::problemWith).collect(Collectors.toList());
+        List<BulkLedgerEntry> validEntries = IntStream.range(0, entries.size())
+                .filter(i -> !problems.get(i).isPresent())
+                .mapToObj(entries::get)
+                .collect(Collectors.toList());
+
+        SetMultimap<String, String> accountNamesByPrisonerId = HashMultimap.create();
+        validEntries.forEach(entry -> accountNamesByPrisonerId.put(entry.getPrisonerId(), entry.getAccountName()));
+
+        Table<String, String, Account> accounts = accountService.getOrCreateAccounts(establishmentId, accountNamesByPrisonerId);
+
+        Iterator<BulkLedgerResult> posted = transactionService.postAll(validEntries.stream()
+                .map(entry -> LedgerPosting.builder()
+                        .account(accounts.get(entry.getPrisonerId(), entry.getAccountName()))
+                        .amountPence(entry.getAmountPence())
+                        .operation(entry.getOperation())
+                        .description(entry.getDescription())
+                        .clientRef(entry.getClientRef())
+                        .build())
+                .collect(Collectors.toList()))
+                .iterator();
+
+        List<BulkLedgerResult> results = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            BulkLedgerEntry entry = entries.get(i);
+            results.add(problems.get(i)
+                    .map(problem -> BulkLedgerResult.builder()
+                            .prisonerId(entry == null ? null : entry.getPrisonerId())
+                            .accountName(entry == null ? null : entry.getAccountName())
+                            .clientRef(entry == null ? null : entry.getClientRef())
+                            .outcome(BulkLedgerResult.Outcomes.INVALID)
+                            .message(problem)
+                            .build())
+                    .orElseGet(posted::next));
+        }
+        return results;
+    }
+
+    private Optional<String> problemWith(BulkLedgerEntry entry) {
+        if (entry == null) {
+            return Optional.of("Entry is missing.");
+        }
+        if (entry.getPrisonerId() == null || entry.getPrisonerId().isEmpty()) {
+            return Optional.of("prisonerId is required.");
+        }
+        if (entry.getAccountName() == null || entry.getAccountName().isEmpty()) {
+            return Optional.of("accountName is required.");
+        }
+        if (entry.getOperation() != Operations.CREDIT && entry.getOperation() != Operations.DEBIT) {
+            return Optional.of("operation must be CREDIT or DEBIT.");
+        }
+        if (entry.getAmountPence() <= 0) {
+            return Optional.of("amountPence must be greater than zero.");
+        }
+        return Optional.empty();
+    }
 }
@@ -1,5 +1,8 @@
 package uk.gov.justice.digital.prisoneraccounts.service;
 
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Table;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -7,116 +10,158 @@ import uk.gov.justice.digital.prisoneraccounts.api.EstablishmentTransferSummary;
 import uk.gov.justice.digital.prisoneraccounts.api.TransferIn;
 import uk.gov.justice.digital.prisoneraccounts.api.TransferOut;
 import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+import uk.gov.justice.digital.prisoneraccounts.journal.JournalService;
 import uk.gov.justice.digital.prisoneraccounts.jpa.entity.PrisonerTransfer;
+import uk.gov.justice.digital.prisoneraccounts.jpa.projection.CounterpartyPrisonerAmount;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.AccountRepository;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.ArchivedTransactionRepository;
 import uk.gov.justice.digital.prisoneraccounts.jpa.repository.PrisonerTransferRepository;
 
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class PrisonerTransferService {
 
+    public static final String TRANSFER_DESCRIPTION = "prisoner transfer";
+
     private final AccountService accountService;
     private final TransactionService transactionService;
     private final PrisonerTransferRepository prisonerTransferRepository;
+    private final AccountRepository accountRepository;
+    private final ArchivedTransactionRepository archivedTransactionRepository;
+    private final HistoricReportCache historicReportCache;
+    private final TransactionArchiveService transactionArchiveService;
+    private final Optional<JournalService> journalService;
 
     @Autowired
-    public PrisonerTransferService(AccountService accountService, TransactionService transactionService, PrisonerTransferRepository prisonerTransferRepository) {
+    public PrisonerTransferService(AccountService accountService, TransactionService transactionService, PrisonerTransferRepository prisonerTransferRepository, AccountRepository accountRepository, ArchivedTransactionRepository archivedTransactionRepository, HistoricReportCache historicReportCache, TransactionArchiveService transactionArchiveService, Optional<JournalService> journalService) {
         this.accountService = accountService;
         this.transactionService = transactionService;
         this.prisonerTransferRepository = prisonerTransferRepository;
+        this.accountRepository = accountRepository;
+        this.archivedTransactionRepository = archivedTransactionRepository;
+        this.historicReportCache = historicReportCache;
+        this.transactionArchiveService = transactionArchiveService;
+        this.journalService = journalService;
     }
 
-    @Transactional
-    private void transferAccountsToEstablishmentId(List<Account> accounts, String toEstablishmentId, PrisonerTransfer prisonerTransfer) throws DebitNotSupportedException, InsufficientFundsException, AccountClosedException {
-        for (Account sourceAccount : accounts) {
-            Account targetAccount = accountService.getOrCreateAccount(toEstablishmentId, sourceAccount.getPrisonerId(), sourceAccount.getAccountName(), Optional.of(prisonerTransfer));
-
-            transactionService.transferFunds(sourceAccount, targetAccount, accountService.currentBalanceOf(sourceAccount).getAmountPence(), "prisoner transfer");
-            accountService.closeAccount(sourceAccount);
-        }
-    }
-
-
-    @Transactional
+    /**
+     * Moves each account's whole balance, read under the balance lock, so that nothing posted before the move is left on the
+     * closed account.
+     */
+    @Transactional(rollbackFor = Exception.class)
     public void transferPrisonerAccounts(String prisonerId, String fromEstablishmentId, String toEstablishmentId) throws InsufficientFundsException, AccountClosedException, DebitNotSupportedException {
         List<Account> accounts = accountService.prisonerOpenAccounts(fromEstablishmentId, prisonerId);
+        journalService.ifPresent(journal -> journal.holdAccounts(accounts));
         PrisonerTransfer prisonerTransfer = prisonerTransferRepository.save(PrisonerTransfer.builder()
                 .fromEstablishmentId(fromEstablishmentId)
                 .toEstablishmentId(toEstablishmentId)
                 .prisonerId(prisonerId)
                 .build());
-        transferAccountsToEstablishmentId(accounts, toEstablishmentId, prisonerTransfer);
-        prisonerTransferRepository.save(prisonerTransfer.toBuilder().accountsTransferDateTime(ZonedDateTime.now(ZoneOffset.UTC)).build());
 
-    }
+        Map<Account, Account> targetAccountsBySource = new LinkedHashMap<>();
+        for (Account sourceAccount : accounts) {
+            targetAccountsBySource.put(sourceAccount, accountService.getOrCreateAccount(toEstablishmentId, sourceAccount.getPrisonerId(), sourceAccount.getAccountName(), Optional.of(prisonerTransfer)));
+        }
+        // Dated after the target accounts are opened, so that they exist by the time of the legs that fund them.
+        ZonedDateTime transferDateTime = ZonedDateTime.now(ZoneOffset.UTC);
+        transactionService.transferAllFunds(targetAccountsBySource, transferDateTime, TRANSFER_DESCRIPTION);
+        accountService.closeAccounts(accounts, transferDateTime);
 
-    private List<PrisonerTransfer> getPrisonerTransfersToEstablishmentId(String establishmentId, Optional<ZonedDateTime> from, Optional<ZonedDateTime> to) {
+        prisonerTransferRepository.save(prisonerTransfer.toBuilder().accountsTransferDateTime(transferDateTime).build());
+    }
 
-        if (from.isPresent() && to.isPresent()) {
-            return prisonerTransferRepository.findAllByToEstablishmentIdAndAccountsTransferDateTimeBetween(establishmentId, from, to);
-        } else if (from.isPresent() && !to.isPresent()) {
-            return prisonerTransferRepository.findAllByToEstablishmentIdAndAccountsTransferDateTimeGreaterThanEqual(establishmentId, from);
-        } else if (!from.isPresent() && to.isPresent()) {
-            return prisonerTransferRepository.findAllByToEstablishmentIdAndAccountsTransferDateTimeLessThanEqual(establishmentId, to);
-        } else {
-            return prisonerTransferRepository.findAllByToEstablishmentId(establishmentId);
+    /**
+     * Bulk form of {@link #transferPrisonerAccounts} for one transaction's worth of prisoners. Transfer records, target accounts,
+     * ledger legs and closures are each written as a batch. Prisoners without open accounts at the source are skipped.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public BulkTransferResult transferPrisonersAccounts(Collection<String> prisonerIds, String fromEstablishmentId, String toEstablishmentId) throws AccountClosedException {
+        List<Account> sourceAccounts = prisonerIds.isEmpty() ? Collections.emptyList()
+                : accountRepository.findByEstablishmentIdAndPrisonerIdInAndAccountStatus(fromEstablishmentId, prisonerIds, Account.AccountStatuses.OPEN);
+        if (sourceAccounts.isEmpty()) {
+            return BulkTransferResult.builder().build();
         }
-    }
+        journalService.ifPresent(journal -> journal.holdAccounts(sourceAccounts));
+
+        ZonedDateTime transferDateTime = ZonedDateTime.now(ZoneOffset.UTC);
+        Map<String, PrisonerTransfer> prisonerTransfers = prisonerTransferRepository.save(sourceAccounts.stream()
+                .map(Account::getPrisonerId)
+                .distinct()
+                .map(prisonerId -> PrisonerTransfer.builder()
+                        .fromEstablishmentId(fromEstablishmentId)
+                        .toEstablishmentId(toEstablishmentId)
+                        .prisonerId(prisonerId)
+                        .accountsTransferDateTime(transferDateTime)
+                        .build())
+                .collect(Collectors.toList()))
+                .stream()
+                .collect(Collectors.toMap(PrisonerTransfer::getPrisonerId, Function.identity()));
 
-    private List<PrisonerTransfer> getPrisonerTransfersFromEstablishmentId(String establishmentId, Optional<ZonedDateTime> from, Optional<ZonedDateTime> to) {
+        SetMultimap<String, String> accountNamesByPrisonerId = HashMultimap.create();
+        sourceAccounts.forEach(account -> accountNamesByPrisonerId.put(account.getPrisonerId(), account.getAccountName()));
+        Table<String, String, Account> targetAccounts = accountService.getOrCreateAccounts(toEstablishmentId, accountNamesByPrisonerId, prisonerTransfers, transferDateTime);
 
-        if (from.isPresent() && to.isPresent()) {
-            return prisonerTransferRepository.findAllByFromEstablishmentIdAndAccountsTransferDateTimeBetween(establishmentId, from, to);
-        } else if (from.isPresent() && !to.isPresent()) {
-            return prisonerTransferRepository.findAllByFromEstablishmentIdAndAccountsTransferDateTimeGreaterThanEqual(establishmentId, from);
-        } else if (!from.isPresent() && to.isPresent()) {
-            return prisonerTransferRepository.findAllByFromEstablishmentIdAndAccountsTransferDateTimeLessThanEqual(establishmentId, to);
-        } else {
-            return prisonerTransferRepository.findAllByFromEstablishmentId(establishmentId);
-        }
+        Map<Account, Account> targetAccountsBySource = new LinkedHashMap<>();
+        sourceAccounts.forEach(account -> targetAccountsBySource.put(account, targetAccounts.get(account.getPrisonerId(), account.getAccountName())));
+
+        long amountPence = transactionService.transferAllFunds(targetAccountsBySource, transferDateTime, TRANSFER_DESCRIPTION);
+        accountService.closeAccounts(sourceAccounts, transferDateTime);
+
+        return BulkTransferResult.builder()
+                .prisoners(prisonerTransfers.size())
+                .accounts(sourceAccounts.size())
+                .amountPence(amountPence)
+                .build();
     }
 
     public EstablishmentTransferSummary prisonerTransferAccountsSummary(String establishmentId, Optional<ZonedDateTime> from, Optional<ZonedDateTime> to) {
-        List<PrisonerTransfer> transfersIn = getPrisonerTransfersToEstablishmentId(establishmentId, from, to);
-        List<PrisonerTransfer> transfersOut = getPrisonerTransfersFromEstablishmentId(establishmentId, from, to);
+        ZonedDateTime fromDateTime = from.orElse(TimeBounds.EARLIEST);
+        ZonedDateTime toDateTime = to.orElse(TimeBounds.LATEST);
 
-        List<Account> accountsIn = accountService.accountsForPrisonerTransfers(transfersIn);
-        List<Account> accountsOut = accountService.accountsForPrisonerTransfers(transfersOut);
-
-        Map<String, List<Account>> accountsInGroupedByEstablishment = accountsIn.stream().collect(Collectors.groupingBy(acc -> acc.getPrisonerTransfer().getFromEstablishmentId(), Collectors.toList()));
-        Map<String, List<Account>> accountsOutGroupedByEstablishment = accountsOut.stream().collect(Collectors.groupingBy(acc -> acc.getPrisonerTransfer().getToEstablishmentId(), Collectors.toList()));
+        return historicReportCache.get(HistoricReportCache.Report.TRANSFER_SUMMARY, establishmentId, fromDateTime, toDateTime,
+                () -> transactionArchiveService.consistentRead(() -> prisonerTransferAccountsSummaryBetween(establishmentId, fromDateTime, toDateTime)));
+    }
 
-        List<TransferIn> transferInList = accountsInGroupedByEstablishment.keySet()
+    private EstablishmentTransferSummary prisonerTransferAccountsSummaryBetween(String establishmentId, ZonedDateTime fromDateTime, ZonedDateTime toDateTime) {
+        // A prisoner may appear in both the live and archived amounts; the summary only takes a set of prisoners and a total.
+        Map<String, List<CounterpartyPrisonerAmount>> amountsIn = Stream.concat(
+                accountRepository.findTransferredInAmounts(establishmentId, fromDateTime, toDateTime).stream(),
+                archivedTransactionRepository.findTransferredInAmounts(establishmentId, fromDateTime, toDateTime).stream())
+                .collect(Collectors.groupingBy(CounterpartyPrisonerAmount::getEstablishmentId));
+        Map<String, List<CounterpartyPrisonerAmount>> amountsOut = Stream.concat(
+                accountRepository.findTransferredOutAmounts(establishmentId, fromDateTime, toDateTime).stream(),
+                archivedTransactionRepository.findTransferredOutAmounts(establishmentId, fromDateTime, toDateTime).stream())
+                .collect(Collectors.groupingBy(CounterpartyPrisonerAmount::getEstablishmentId));
+
+        List<TransferIn> transferInList = amountsIn.entrySet()
                 .stream()
-                .map(estId ->
+                .map(entry ->
                         TransferIn.builder()
-                                .prisonerIds(accountsInGroupedByEstablishment.get(estId).stream().map(Account::getPrisonerId).collect(Collectors.toSet()))
-                                .amountToRequestPence(accountsInGroupedByEstablishment.get(estId)
-                                        .stream()
-                                        .mapToLong(
-                                                account -> accountService.balanceAsOf(account, Optional.of(account.getPrisonerTransfer().getAccountsTransferDateTime())).getAmountPence())
-                                        .sum())
-                                .fromEstablishmentId(estId)
+                                .prisonerIds(prisonerIdsOf(entry.getValue()))
+                                .amountToRequestPence(totalOf(entry.getValue()))
+                                .fromEstablishmentId(entry.getKey())
                                 .build())
                 .collect(Collectors.toList());
 
-
-        List<TransferOut> transferOutList = accountsOutGroupedByEstablishment.keySet()
+        List<TransferOut> transferOutList = amountsOut.entrySet()
                 .stream()
-                .map(estId ->
+                .map(entry ->
                         TransferOut.builder()
-                                .prisonerIds(accountsOutGroupedByEstablishment.get(estId).stream().map(Account::getPrisonerId).collect(Collectors.toSet()))
-                                .amountToTransferPence(accountsOutGroupedByEstablishment.get(estId)
-                                        .stream()
-                                        .mapToLong(
-                                                account -> accountService.balanceAsOf(account, Optional.of(account.getPrisonerTransfer().getAccountsTransferDateTime())).getAmountPence())
-                                        .sum())
-                                .toEstablishmentId(estId)
+                                .prisonerIds(prisonerIdsOf(entry.getValue()))
+                                .amountToTransferPence(totalOf(entry.getValue()))
+                                .toEstablishmentId(entry.getKey())
                                 .build())
                 .collect(Collectors.toList());
 
@@ -124,8 +169,14 @@ public class PrisonerTransferService {
                 .transferredIn(transferInList)
                 .transferredOut(transferOutList)
                 .build();
+    }
 
+    private Set<String> prisonerIdsOf(List<CounterpartyPrisonerAmount> amounts) {
+        return amounts.stream().map(CounterpartyPrisonerAmount::getPrisonerId).collect(Collectors.toSet());
+    }
 
+    private long totalOf(List<CounterpartyPrisonerAmount> amounts) {
+        return amounts.stream().mapToLong(CounterpartyPrisonerAmount::getAmountPence).sum();
     }
 
 }
@@ -0,0 +1,16 @@
+package uk.gov.justice.digital.prisoneraccounts.service;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+/**
+ * Stand-ins for an absent end of a date range, so range queries need not be written once per combination of bounds.
+ */
+final class TimeBounds {
+
+    static final ZonedDateTime EARLIEST = ZonedDateTime.of(1970, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+    static final ZonedDateTime LATEST = ZonedDateTime.of(9999, 12, 31, 23, 59, 59, 0, ZoneOffset.UTC);
+
+    private TimeBounds() {
+    }
+}
@@ -0,0 +1,184 @@
+package uk.gov.justice.digital.prisoneraccounts.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.ArchiveLockRepository;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.ArchivedTransactionRepository;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.TransactionRepository;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Moves the transactions of accounts closed for longer than the retention period from TRANSACTIONS to ARCHIVED_TRANSACTIONS,
+ * keeping the live table and its indexes to the accounts that are still posted to. Each batch is copied and deleted in its
+ * own transaction, so a run can be interrupted and resumed at any point. Reads of closed accounts merge in the archive.
+ * <p>
+ * A run only archives while it holds the lease on the {@code ARCHIVE_LOCK} row, so only one instance archives at a time. Each
+ * batch renews the lease and increments the row's generation in the batch's own transaction, and stops if another run has
+ * taken the lease over. Reads that combine the live and archived tables use {@link #consistentRead} to see each batch in
+ * exactly one of them.
+ */
+@Service
+@Slf4j
+public class TransactionArchiveService {
+
+    private final TransactionRepository transactionRepository;
+    private final ArchivedTransactionRepository archivedTransactionRepository;
+    private final ArchiveLockRepository archiveLockRepository;
+    private final TransactionTemplate batchTransaction;
+    private final TransactionTemplate heldReadTransaction;
+    private final Counter archivedTransactions;
+    private final int retentionDays;
+    private final int batchSize;
+    private final long pauseMs;
+    private final long leaseSeconds;
+    private final int readAttempts;
+
+    @Autowired
+    public TransactionArchiveService(TransactionRepository transactionRepository,
+                                     ArchivedTransactionRepository archivedTransactionRepository,
+                                     ArchiveLockRepository archiveLockRepository,
+                                     PlatformTransactionManager transactionManager,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${prisoneraccounts.archive.retentiondays:365}") int retentionDays,
+                                     @Value("${prisoneraccounts.archive.batchsize:1000}") int batchSize,
+                                     @Value("${prisoneraccounts.archive.pausems:0}") long pauseMs,
+                                     @Value("${prisoneraccounts.archive.leaseseconds:300}") long leaseSeconds,
+                                     @Value("${prisoneraccounts.archive.readattempts:3}") int readAttempts) {
+        this.transactionRepository = transactionRepository;
+        this.archivedTransactionRepository = archivedTransactionRepository;
+        this.archiveLockRepository = archiveLockRepository;
+        this.batchTransaction = new TransactionTemplate(transactionManager);
+        this.heldReadTransaction = new TransactionTemplate(transactionManager);
+        this.heldReadTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.archivedTransactions = meterRegistry.counter("prisoneraccounts.archive.transactions");
+        this.retentionDays = retentionDays;
+        this.batchSize = batchSize;
+        this.pauseMs = pauseMs;
+        this.leaseSeconds = leaseSeconds;
+        this.readAttempts = readAttempts;
+    }
+
+    @Scheduled(cron = "${prisoneraccounts.archive.cron:0 30 1 * * *}", zone = "UTC")
+    public void archiveClosedAccounts() {
+        archiveAccountsClosedBefore(ZonedDateTime.now(ZoneOffset.UTC).minusDays(retentionDays));
+    }
+
+    /**
+     * Archives every transaction of accounts closed before {@code closedBefore}, pausing between batches to leave room for
+     * the posting load. Does nothing while another run holds the archive lock. Returns the number of transactions moved.
+     */
+    public int archiveAccountsClosedBefore(ZonedDateTime closedBefore) {
+        String owner = UUID.randomUUID().toString();
+        if (batchTransaction.execute(status -> archiveLockRepository.acquire(owner, now(), leaseEnd())) == 0) {
+            log.info("Skipping the archive of accounts closed before {}, another run holds the archive lock", closedBefore);
+            return 0;
+        }
+
+        int moved = 0;
+        try {
+            for (int batch = batchSize; batch == batchSize && !Thread.currentThread().isInterrupted(); ) {
+                if (moved > 0) {
+                    pause();
+                }
+                batch = batchTransaction.execute(status -> archiveBatch(owner, closedBefore));
+                moved += batch;
+                archivedTransactions.increment(batch);
+            }
+        } finally {
+            batchTransaction.execute(status -> archiveLockRepository.advance(owner, now()));
+        }
+
+        log.info("Archived {} transactions of accounts closed before {}", moved, closedBefore);
+        return moved;
+    }
+
+    private int archiveBatch(String owner, ZonedDateTime closedBefore) {
+        List<Long> transactionIds = transactionRepository.findArchivableTransactionIds(Account.AccountStatuses.CLOSED, closedBefore, new PageRequest(0, batchSize));
+        if (transactionIds.isEmpty()) {
+            return 0;
+        }
+        // Locks the row until the batch commits, so runs on other instances cannot move the same transactions.
+        if (archiveLockRepository.advance(owner, leaseEnd()) == 0) {
+            log.warn("Stopping the archive run, its lease was taken over by another run");
+            return 0;
+        }
+        archivedTransactionRepository.copyFromTransactions(transactionIds);
+        return transactionRepository.deleteByTransactionIdIn(transactionIds);
+    }
+
+    /**
+     * Whether a run holds the archive lock, on this or any other instance.
+     */
+    public boolean isArchiving() {
+        return archiveLockRepository.findLockedUntil().isAfter(now());
+    }
+
+    /**
+     * Runs a read that combines live and archived transactions so that it sees every archive batch in exactly one table,
+     * repeating it if a batch committed part way through. After {@code prisoneraccounts.archive.readattempts} attempts, the
+     * last one holds archive batches off until it ends, within the caller's transaction if there is one.
+     */
+    public <T> T consistentRead(Supplier<T> read) {
+        for (int attempt = 1; attempt < readAttempts; attempt++) {
+            long generation = archiveLockRepository.findGeneration();
+            T result = read.get();
+            if (archiveLockRepository.findGeneration() == generation) {
+                return result;
+            }
+        }
+
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return heldRead(read);
+        }
+        return heldReadTransaction.execute(status -> heldRead(read));
+    }
+
+    /**
+     * Holds archive batches off until the caller's transaction ends, for reads that cannot be repeated.
+     */
+    public void holdArchive() {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Holding the archive requires a transaction");
+        }
+        archiveLockRepository.findForUpdate();
+    }
+
+    private <T> T heldRead(Supplier<T> read) {
+        holdArchive();
+        return read.get();
+    }
+
+    private ZonedDateTime now() {
+        return ZonedDateTime.now(ZoneOffset.UTC);
+    }
+
+    private ZonedDateTime leaseEnd() {
+        return now().plusSeconds(leaseSeconds);
+    }
+
+    private void pause() {
+        if (pauseMs > 0) {
+            try {
+                Thread.sleep(pauseMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
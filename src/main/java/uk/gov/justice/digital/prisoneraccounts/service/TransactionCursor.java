@@ -0,0 +1,42 @@
+package uk.gov.justice.digital.prisoneraccounts.service;
+
+import lombok.Value;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Transaction;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Position in a transaction history ordered by (transactionDateTime, transactionId). Clients see it only as an opaque token.
+ */
+@Value
+public class TransactionCursor {
+
+    private final ZonedDateTime transactionDateTime;
+    private final long transactionId;
+
+    public static TransactionCursor after(Transaction transaction) {
+        return new TransactionCursor(transaction.getTransactionDateTime(), transaction.getTransactionId());
+    }
+
+    public static TransactionCursor decode(String token) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("\\|");
+            if (parts.length != 2) {
+                throw new InvalidRequestException("Invalid cursor: " + token);
+            }
+            return new TransactionCursor(Instant.parse(parts[0]).atZone(ZoneOffset.UTC), Long.parseLong(parts[1]));
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            throw new InvalidRequestException("Invalid cursor: " + token, e);
+        }
+    }
+
+    public String encode() {
+        String position = transactionDateTime.toInstant() + "|" + transactionId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+}
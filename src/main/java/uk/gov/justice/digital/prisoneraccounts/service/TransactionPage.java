@@ -0,0 +1,13 @@
+package uk.gov.justice.digital.prisoneraccounts.service;
+
+import lombok.Value;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Transaction;
+
+import java.util.List;
+import java.util.Optional;
+
+@Value
+public class TransactionPage {
+    private final List<Transaction> transactions;
+    private final Optional<TransactionCursor> next;
+}
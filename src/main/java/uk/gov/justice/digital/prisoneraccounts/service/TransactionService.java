@@ -1,32 +1,61 @@
 package uk.gov.justice.digital.prisoneraccounts.service;
 
+import com.google.common.collect.Iterators;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import uk.gov.justice.digital.prisoneraccounts.api.BulkLedgerResult;
+import uk.gov.justice.digital.prisoneraccounts.api.TransactionExportRecord;
+import uk.gov.justice.digital.prisoneraccounts.journal.JournalService;
 import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
 import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Transaction;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.ArchivedTransaction;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.ArchivedTransactionRepository;
 import uk.gov.justice.digital.prisoneraccounts.jpa.repository.TransactionRepository;
 
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class TransactionService {
 
     private final AccountService accountService;
     private final TransactionRepository transactionRepository;
+    private final ArchivedTransactionRepository archivedTransactionRepository;
+    private final LedgerMetrics ledgerMetrics;
+    private final TransactionArchiveService transactionArchiveService;
+    private final Optional<JournalService> journalService;
 
     @Autowired
-    public TransactionService(AccountService accountService, TransactionRepository transactionRepository) {
+    public TransactionService(AccountService accountService, TransactionRepository transactionRepository, ArchivedTransactionRepository archivedTransactionRepository, LedgerMetrics ledgerMetrics, TransactionArchiveService transactionArchiveService, Optional<JournalService> journalService) {
         this.accountService = accountService;
         this.transactionRepository = transactionRepository;
+        this.archivedTransactionRepository = archivedTransactionRepository;
+        this.ledgerMetrics = ledgerMetrics;
+        this.transactionArchiveService = transactionArchiveService;
+        this.journalService = journalService;
     }
 
+    @Timed("prisoneraccounts.transactions")
+    @Transactional
     public Transaction creditAccount(Account account, Long amountPence, String description, String clientRef) throws AccountClosedException {
 
         checkNotClosed(account);
+        accountService.adjustBalance(account, amountPence);
 
         return transactionRepository.save(Transaction.builder()
                 .account(account)
@@ -38,9 +67,12 @@ public class TransactionService {
     }
 
 
+    @Timed("prisoneraccounts.transactions")
+    @Transactional
     public Transaction debitAccount(Account account, Long amountPence, String description, String clientRef) throws DebitNotSupportedException, InsufficientFundsException, AccountClosedException {
-        checkSufficientFunds(account, amountPence);
         checkNotClosed(account);
+        holdAccounts(Collections.singleton(account));
+        accountService.debitBalance(account, amountPence);
 
         return transactionRepository.save(Transaction.builder()
                 .account(account)
@@ -51,20 +83,194 @@ public class TransactionService {
                 .build());
     }
 
+    /**
+     * Posts a batch of entries in one transaction. The balances of every account involved are locked and read once, each entry is
+     * checked against a running balance in memory, and accepted entries and the closing balances are queued for write so that
+     * Hibernate can batch them.
+     * A rejected entry is reported in its result and does not affect the rest of the batch.
+     */
+    @Transactional
+    public List<BulkLedgerResult> postAll(List<LedgerPosting> postings) {
+        if (postings.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Account> accounts = postings.stream()
+                .map(LedgerPosting::getAccount)
+                .collect(Collectors.toList());
+        holdAccounts(accounts);
+        Map<Long, Long> openingBalances = accountService.lockBalancesOf(accounts);
+        Map<Long, Long> balances = new HashMap<>(openingBalances);
+
+        List<BulkLedgerResult> results = new ArrayList<>(postings.size());
+        for (LedgerPosting posting : postings) {
+            BulkLedgerResult.BulkLedgerResultBuilder result = BulkLedgerResult.builder()
+                    .prisonerId(posting.getAccount().getPrisonerId())
+                    .accountName(posting.getAccount().getAccountName())
+                    .clientRef(posting.getClientRef());
+            try {
+                Transaction transaction = transactionRepository.save(transactionOf(posting, balances));
+                result.outcome(BulkLedgerResult.Outcomes.POSTED)
+                        .transactionId(transaction.getTransactionId())
+                        .transactionDateTime(transaction.getTransactionDateTime());
+            } catch (InsufficientFundsException e) {
+                result.outcome(BulkLedgerResult.Outcomes.INSUFFICIENT_FUNDS).message(e.getMessage());
+            } catch (AccountClosedException e) {
+                result.outcome(BulkLedgerResult.Outcomes.ACCOUNT_CLOSED).message(e.getMessage());
+            } catch (DebitNotSupportedException e) {
+                result.outcome(BulkLedgerResult.Outcomes.DEBIT_NOT_SUPPORTED).message(e.getMessage());
+            }
+            results.add(result.build());
+        }
+
+        balances.entrySet().removeIf(balance -> balance.getValue().equals(openingBalances.get(balance.getKey())));
+        accountService.storeLockedBalances(balances);
+
+        return results;
+    }
+
+    /**
+     * Moves the whole balance of each source account to its target as at {@code transactionDateTime}. Every balance involved is
+     * locked in account id order, and the ledger legs and balances are written as batches. Returns the total amount moved.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public long transferAllFunds(Map<Account, Account> targetAccountsBySource, ZonedDateTime transactionDateTime, String description) throws AccountClosedException {
+        List<Account> accounts = new ArrayList<>(targetAccountsBySource.keySet());
+        accounts.addAll(targetAccountsBySource.values());
+        for (Account account : accounts) {
+            checkNotClosed(account);
+        }
+
+        holdAccounts(targetAccountsBySource.keySet());
+        Map<Long, Long> balances = accountService.lockBalancesOf(accounts);
+        List<Transaction> legs = new ArrayList<>();
+        long totalPence = 0;
+
+        for (Map.Entry<Account, Account> transfer : targetAccountsBySource.entrySet()) {
+            Account source = transfer.getKey();
+            Account target = transfer.getValue();
+            long amountPence = lockedBalanceOf(source, balances);
+            lockedBalanceOf(target, balances);
+            String clientRef = UUID.randomUUID().toString();
+
+            legs.add(transferLegOf(source, Transaction.TransactionTypes.DEBIT, amountPence, description, clientRef, transactionDateTime));
+            legs.add(transferLegOf(target, Transaction.TransactionTypes.CREDIT, amountPence, description, clientRef, transactionDateTime));
+            balances.put(source.getAccountId(), 0L);
+            balances.merge(target.getAccountId(), amountPence, Long::sum);
+            totalPence += amountPence;
+        }
+
+        transactionRepository.save(legs);
+        accountService.storeLockedBalances(balances);
+        return totalPence;
+    }
+
+    private Transaction transferLegOf(Account account, Transaction.TransactionTypes transactionType, long amountPence, String description, String clientRef, ZonedDateTime transactionDateTime) {
+        return Transaction.builder()
+                .account(account)
+                .amountPence(amountPence)
+                .description(description)
+                .clientReference(clientRef)
+                .transactionType(transactionType)
+                .transactionDateTime(transactionDateTime)
+                .build();
+    }
+
+    private Transaction transactionOf(LedgerPosting posting, Map<Long, Long> balances) throws DebitNotSupportedException, InsufficientFundsException, AccountClosedException {
+        Account account = posting.getAccount();
+        Transaction.TransactionTypes transactionType;
+
+        switch (posting.getOperation()) {
+            case DEBIT:
+                accountService.checkNotSavingsAccount(account);
+                long balancePence = lockedBalanceOf(account, balances);
+                if (balancePence < posting.getAmountPence()) {
+                    throw ledgerMetrics.rejected(new InsufficientFundsException("Insufficient funds."));
+                }
+                balances.put(account.getAccountId(), balancePence - posting.getAmountPence());
+                transactionType = Transaction.TransactionTypes.DEBIT;
+                break;
+            case CREDIT:
+                balances.put(account.getAccountId(), lockedBalanceOf(account, balances) + posting.getAmountPence());
+                transactionType = Transaction.TransactionTypes.CREDIT;
+                break;
+            default:
+                throw new IllegalStateException("Unsupported operation " + posting.getOperation());
+        }
+
+        return Transaction.builder()
+                .account(account)
+                .amountPence(posting.getAmountPence())
+                .description(posting.getDescription())
+                .clientReference(posting.getClientRef())
+                .transactionType(transactionType)
+                .build();
+    }
+
+    /**
+     * In journal mode, keeps postings to the accounts out of the journal until this transaction completes.
+     */
+    private void holdAccounts(Collection<Account> accounts) {
+        journalService.ifPresent(journal -> journal.holdAccounts(accounts));
+    }
+
     private void checkNotClosed(Account account) throws AccountClosedException {
         if (account.getAccountStatus() == Account.AccountStatuses.CLOSED) {
-            throw new AccountClosedException("Account " + account.getAccountId() + " is closed. New transactions not permitted.");
+            throw closed(account);
         }
     }
 
-    private void checkSufficientFunds(Account acc, Long amountPence) throws InsufficientFundsException {
-        if (accountService.currentBalanceOf(acc).getAmountPence() < amountPence) {
-            throw new InsufficientFundsException("Insufficient funds.");
+    /**
+     * The balance locked by {@link AccountService#lockBalancesOf}, which only returns balances of accounts open in the database.
+     */
+    private long lockedBalanceOf(Account account, Map<Long, Long> balances) throws AccountClosedException {
+        checkNotClosed(account);
+        Long balancePence = balances.get(account.getAccountId());
+        if (balancePence == null) {
+            throw closed(account);
         }
+        return balancePence;
+    }
+
+    private AccountClosedException closed(Account account) {
+        return ledgerMetrics.rejected(new AccountClosedException("Account " + account.getAccountId() + " is closed. New transactions not permitted."));
     }
 
+    /**
+     * Ledger order: by transaction time, then id.
+     */
+    private static final Comparator<Transaction> LEDGER_ORDER = Comparator.comparing(Transaction::getTransactionDateTime).thenComparing(Transaction::getTransactionId);
+    private static final Comparator<TransactionExportRecord> EXPORT_ORDER = Comparator.comparing(TransactionExportRecord::getTransactionDateTime).thenComparing(TransactionExportRecord::getTransactionId);
+
+    /**
+     * The account's transactions, including any archived ones once the account is closed.
+     */
     public List<Transaction> getTransactions(Account account, Optional<ZonedDateTime> from, Optional<ZonedDateTime> to) {
+        if (account.getAccountStatus() != Account.AccountStatuses.CLOSED) {
+            return liveTransactions(account, from, to);
+        }
+
+        return transactionArchiveService.consistentRead(() -> {
+            List<Transaction> transactions = liveTransactions(account, from, to);
+            List<Transaction> archived = archivedTransactions(Collections.singletonList(account), from, to);
+            if (archived.isEmpty()) {
+                return transactions;
+            }
+            List<Transaction> merged = new ArrayList<>(archived);
+            merged.addAll(transactions);
+            merged.sort(LEDGER_ORDER);
+            return merged;
+        });
+    }
 
+    private List<Transaction> archivedTransactions(List<Account> accounts, Optional<ZonedDateTime> from, Optional<ZonedDateTime> to) {
+        return archivedTransactionRepository.findAllByAccounts(accounts, from.orElse(TimeBounds.EARLIEST), to.orElse(TimeBounds.LATEST))
+                .stream()
+                .map(ArchivedTransaction::toTransaction)
+                .collect(Collectors.toList());
+    }
+
+    private List<Transaction> liveTransactions(Account account, Optional<ZonedDateTime> from, Optional<ZonedDateTime> to) {
         if (from.isPresent() && to.isPresent()) {
             return transactionRepository.findAllByAccountAndTransactionDateTimeBetweenOrderByTransactionDateTimeAsc(account, from, to);
         } else if (from.isPresent() && !to.isPresent()) {
@@ -76,10 +282,90 @@ public class TransactionService {
         }
     }
 
-    @Transactional
+    /**
+     * The archive is only read when some of the accounts are closed. Each store returns its own first {@code limit + 1}
+     * rows after the cursor, and the merged page is cut from the two. Transactions with the excluded description are
+     * filtered out by the queries, so pages stay full.
+     */
+    public TransactionPage getTransactionsPage(List<Account> accounts, Optional<ZonedDateTime> from, Optional<ZonedDateTime> to, Optional<TransactionCursor> after, Optional<String> excludedDescription, int limit) {
+        List<Account> closedAccounts = accounts.stream()
+                .filter(account -> account.getAccountStatus() == Account.AccountStatuses.CLOSED)
+                .collect(Collectors.toList());
+        if (closedAccounts.isEmpty()) {
+            return transactionsPage(accounts, closedAccounts, from, to, after, excludedDescription, limit);
+        }
+        return transactionArchiveService.consistentRead(() -> transactionsPage(accounts, closedAccounts, from, to, after, excludedDescription, limit));
+    }
+
+    private TransactionPage transactionsPage(List<Account> accounts, List<Account> closedAccounts, Optional<ZonedDateTime> from, Optional<ZonedDateTime> to, Optional<TransactionCursor> after, Optional<String> excludedDescription, int limit) {
+        ZonedDateTime afterDateTime = after.map(TransactionCursor::getTransactionDateTime).orElse(TimeBounds.EARLIEST);
+        long afterTransactionId = after.map(TransactionCursor::getTransactionId).orElse(Long.MIN_VALUE);
+        List<Transaction> transactions = transactionRepository.findPageByAccounts(
+                accounts,
+                from.orElse(TimeBounds.EARLIEST),
+                to.orElse(TimeBounds.LATEST),
+                afterDateTime,
+                afterTransactionId,
+                excludedDescription.orElse(null),
+                new PageRequest(0, limit + 1));
+
+        if (!closedAccounts.isEmpty()) {
+            List<Transaction> archived = archivedTransactionRepository.findPageByAccounts(
+                    closedAccounts,
+                    from.orElse(TimeBounds.EARLIEST),
+                    to.orElse(TimeBounds.LATEST),
+                    afterDateTime,
+                    afterTransactionId,
+                    excludedDescription.orElse(null),
+                    new PageRequest(0, limit + 1))
+                    .stream()
+                    .map(ArchivedTransaction::toTransaction)
+                    .collect(Collectors.toList());
+            if (!archived.isEmpty()) {
+                archived.addAll(transactions);
+                archived.sort(LEDGER_ORDER);
+                transactions = archived;
+            }
+        }
+
+        if (transactions.size() > limit) {
+            List<Transaction> page = transactions.subList(0, limit);
+            return new TransactionPage(page, Optional.of(TransactionCursor.after(page.get(limit - 1))));
+        }
+        return new TransactionPage(transactions, Optional.empty());
+    }
+
+    /**
+     * Live and archived records are both streamed in ledger order and merged as they are read. Records already passed to
+     * the consumer cannot be read again, so the export holds archive batches off until it finishes.
+     */
+    @Transactional(readOnly = true)
+    public void exportEstablishmentTransactions(String establishmentId, Optional<ZonedDateTime> from, Optional<ZonedDateTime> to, Consumer<TransactionExportRecord> consumer) {
+        ZonedDateTime fromDateTime = from.orElse(TimeBounds.EARLIEST);
+        ZonedDateTime toDateTime = to.orElse(TimeBounds.LATEST);
+        transactionArchiveService.holdArchive();
+        try (Stream<TransactionExportRecord> records = transactionRepository.streamEstablishmentTransactions(establishmentId, fromDateTime, toDateTime);
+             Stream<TransactionExportRecord> archivedRecords = archivedTransactionRepository.streamEstablishmentTransactions(establishmentId, fromDateTime, toDateTime)) {
+            Iterators.mergeSorted(Arrays.asList(records.iterator(), archivedRecords.iterator()), EXPORT_ORDER)
+                    .forEachRemaining(consumer);
+        }
+    }
+
+    /**
+     * Both balance rows are written in ascending account id order so that opposing transfers cannot deadlock. Any failure rolls
+     * back both legs.
+     */
+    @Timed("prisoneraccounts.transactions")
+    @Transactional(rollbackFor = Exception.class)
     public void transferFunds(Account sourceAccount, Account targetAccount, long amountPence, String description) throws DebitNotSupportedException, InsufficientFundsException, AccountClosedException {
         String clientRef = UUID.randomUUID().toString();
-        debitAccount(sourceAccount, amountPence, description, clientRef);
-        creditAccount(targetAccount, amountPence, description, clientRef);
+        holdAccounts(Collections.singleton(sourceAccount));
+        if (sourceAccount.getAccountId() < targetAccount.getAccountId()) {
+            debitAccount(sourceAccount, amountPence, description, clientRef);
+            creditAccount(targetAccount, amountPence, description, clientRef);
+        } else {
+            creditAccount(targetAccount, amountPence, description, clientRef);
+            debitAccount(sourceAccount, amountPence, description, clientRef);
+        }
     }
 }
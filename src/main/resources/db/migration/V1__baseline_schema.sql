@@ -0,0 +1,56 @@
+-- Schema as previously generated by Hibernate auto-DDL.
+
+create sequence account_seq start with 1 increment by ${idAllocationSize};
+create sequence balance_checkpoint_seq start with 1 increment by ${idAllocationSize};
+create sequence prisoner_transfer_seq start with 1 increment by ${idAllocationSize};
+create sequence transaction_seq start with 1 increment by ${idAllocationSize};
+
+create table prisoner_transfers (
+    transfer_id bigint not null,
+    accounts_transfer_date_time timestamp,
+    from_establishment_id varchar(255) not null,
+    prisoner_id varchar(255) not null,
+    to_establishment_id varchar(255) not null,
+    primary key (transfer_id)
+);
+
+create table accounts (
+    account_id bigint not null,
+    account_closed_date_time timestamp,
+    account_created_date_time timestamp not null,
+    account_name varchar(255) not null,
+    account_status varchar(255) not null,
+    account_type varchar(255) not null,
+    establishment_id varchar(255) not null,
+    prisoner_id varchar(255) not null,
+    prisoner_transfer_transfer_id bigint,
+    primary key (account_id),
+    constraint fk_accounts_prisoner_transfer foreign key (prisoner_transfer_transfer_id) references prisoner_transfers
+);
+
+create table transactions (
+    transaction_id bigint not null,
+    amount_pence bigint not null,
+    client_reference varchar(255),
+    description varchar(255),
+    transaction_date_time timestamp not null,
+    transaction_type varchar(255) not null,
+    account_account_id bigint not null,
+    primary key (transaction_id),
+    constraint fk_transactions_account foreign key (account_account_id) references accounts
+);
+
+create table account_balances (
+    account_id bigint not null,
+    balance_pence bigint not null,
+    primary key (account_id)
+);
+
+create table balance_checkpoints (
+    checkpoint_id bigint not null,
+    account_id bigint not null,
+    balance_pence bigint not null,
+    checkpoint_date_time timestamp not null,
+    primary key (checkpoint_id),
+    constraint uk_balance_checkpoints_account_date_time unique (account_id, checkpoint_date_time)
+);
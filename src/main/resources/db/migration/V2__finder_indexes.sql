@@ -0,0 +1,25 @@
+-- Composite indexes for the repository finders, most selective column first.
+
+-- AccountRepository: findByEstablishmentIdAndPrisonerIdAndAccountNameAndAccountStatus,
+-- findByEstablishmentIdAndPrisonerId(In)AndAccountStatus
+create index idx_accounts_establishment_prisoner on accounts (establishment_id, prisoner_id, account_name, account_status);
+
+-- AccountRepository: findByEstablishmentIdAndAccountStatus, findByEstablishmentIdAndAccountCreatedDateTimeBefore
+create index idx_accounts_establishment_status on accounts (establishment_id, account_status, account_created_date_time);
+create index idx_accounts_establishment_created on accounts (establishment_id, account_created_date_time);
+
+-- AccountRepository: findByPrisonerIdAndAccountNameOrderByAccountCreatedDateTimeAsc
+create index idx_accounts_prisoner_account_name on accounts (prisoner_id, account_name, account_created_date_time);
+
+-- AccountRepository: findAccountsOpenDuring
+create index idx_accounts_created on accounts (account_created_date_time);
+
+-- AccountRepository: findByPrisonerTransferIn and the transferred in/out joins
+create index idx_accounts_prisoner_transfer on accounts (prisoner_transfer_transfer_id);
+
+-- TransactionRepository: findAllByAccount..., sumSignedAmountPence..., findPageByAccounts and the establishment joins
+create index idx_transactions_account_date_time on transactions (account_account_id, transaction_date_time, transaction_id);
+
+-- AccountRepository and ArchivedTransactionRepository: findTransferredInAmounts and findTransferredOutAmounts
+create index idx_prisoner_transfers_from on prisoner_transfers (from_establishment_id, accounts_transfer_date_time);
+create index idx_prisoner_transfers_to on prisoner_transfers (to_establishment_id, accounts_transfer_date_time);
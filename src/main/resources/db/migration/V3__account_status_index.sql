@@ -0,0 +1,2 @@
+-- AccountRepository: countByAccountStatus, behind the open accounts gauge
+create index idx_accounts_status on accounts (account_status);
@@ -0,0 +1,6 @@
+-- Projected position of each ledger journal, advanced with the transactions projected from it
+create table journal_positions (
+    journal_name varchar(255) not null,
+    projected_position bigint not null,
+    primary key (journal_name)
+);
@@ -0,0 +1,6 @@
+-- The day's credit and debit totals of each end-of-day close; null for checkpoints written before they were recorded
+alter table balance_checkpoints add column credits_pence bigint;
+alter table balance_checkpoints add column debits_pence bigint;
+
+-- BalanceCheckpointRepository: findLatestCheckpointDateTime, existsByCheckpointDateTime
+create index idx_balance_checkpoints_date_time on balance_checkpoints (checkpoint_date_time);
@@ -0,0 +1,18 @@
+-- Transactions of accounts closed for longer than the retention period, moved out of TRANSACTIONS with their original ids
+create table archived_transactions (
+    transaction_id bigint not null,
+    amount_pence bigint not null,
+    client_reference varchar(255),
+    description varchar(255),
+    transaction_date_time timestamp not null,
+    transaction_type varchar(255) not null,
+    account_account_id bigint not null,
+    primary key (transaction_id),
+    constraint fk_archived_transactions_account foreign key (account_account_id) references accounts
+);
+
+-- ArchivedTransactionRepository: the same account and date access paths as TRANSACTIONS
+create index idx_archived_transactions_account_date_time on archived_transactions (account_account_id, transaction_date_time, transaction_id);
+
+-- TransactionRepository: findArchivableTransactionIds
+create index idx_accounts_status_closed on accounts (account_status, account_closed_date_time);
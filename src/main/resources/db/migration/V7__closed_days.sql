@@ -0,0 +1,11 @@
+-- Days whose close has completed, written with the close's last chunk
+create table closed_days (
+    checkpoint_date_time timestamp not null,
+    closed_date_time timestamp not null,
+    primary key (checkpoint_date_time)
+);
+
+-- Days closed before completion was recorded. The latest of them may have been interrupted, so it is left to be closed again.
+insert into closed_days (checkpoint_date_time, closed_date_time)
+select distinct checkpoint_date_time, current_timestamp from balance_checkpoints
+where checkpoint_date_time < (select max(checkpoint_date_time) from balance_checkpoints);
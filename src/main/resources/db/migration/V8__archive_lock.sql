@@ -0,0 +1,12 @@
+-- The single row guarding the transaction archive job: an instance only archives while it holds the lease. Every archive
+-- batch increments generation in its own transaction, so readers combining live and archived rows can tell when a batch
+-- committed between their reads
+create table archive_lock (
+    lock_id integer not null,
+    locked_by varchar(255),
+    locked_until timestamp not null,
+    generation bigint not null,
+    primary key (lock_id)
+);
+
+insert into archive_lock (lock_id, locked_by, locked_until, generation) values (1, null, timestamp '1970-01-01 00:00:00', 0);
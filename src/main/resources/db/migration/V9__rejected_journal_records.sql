@@ -0,0 +1,19 @@
+-- Journal records the projector could not apply, kept so that acknowledged postings can be reconciled rather than lost
+create sequence rejected_journal_record_seq start with 1 increment by ${idAllocationSize};
+
+create table rejected_journal_records (
+    rejected_record_id bigint not null,
+    journal_name varchar(255) not null,
+    account_id bigint not null,
+    transaction_type varchar(255) not null,
+    amount_pence bigint not null,
+    transaction_date_time timestamp not null,
+    description varchar(255),
+    client_reference varchar(255),
+    reason varchar(255) not null,
+    rejected_date_time timestamp not null,
+    primary key (rejected_record_id)
+);
+
+-- RejectedJournalRecordRepository: findByAccountIdOrderByTransactionDateTimeAsc
+create index idx_rejected_journal_records_account on rejected_journal_records (account_id, transaction_date_time);
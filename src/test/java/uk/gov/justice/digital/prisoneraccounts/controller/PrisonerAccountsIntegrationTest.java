@@ -1,6 +1,7 @@
 package uk.gov.justice.digital.prisoneraccounts.controller;
 
 import io.restassured.RestAssured;
+import io.restassured.response.Response;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -8,17 +9,32 @@ import org.springframework.boot.context.embedded.LocalServerPort;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import uk.gov.justice.digital.prisoneraccounts.api.Balance;
+import uk.gov.justice.digital.prisoneraccounts.api.BulkLedgerEntry;
+import uk.gov.justice.digital.prisoneraccounts.api.BulkLedgerResult;
+import uk.gov.justice.digital.prisoneraccounts.api.Evacuation;
+import uk.gov.justice.digital.prisoneraccounts.api.EvacuationRequest;
 import uk.gov.justice.digital.prisoneraccounts.api.LedgerEntry;
 import uk.gov.justice.digital.prisoneraccounts.api.Operations;
 import uk.gov.justice.digital.prisoneraccounts.api.TransactionDetail;
 import uk.gov.justice.digital.prisoneraccounts.api.TransferRequest;
 
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static io.restassured.RestAssured.given;
 import static io.restassured.RestAssured.when;
+import static io.restassured.path.json.JsonPath.from;
 import static org.assertj.core.api.Assertions.assertThat;
+import static uk.gov.justice.digital.prisoneraccounts.controller.SqlQueryCountMatchers.atMostQueries;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -468,4 +484,373 @@ public class PrisonerAccountsIntegrationTest {
                 .then()
                 .statusCode(200);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void canPageThroughTransactionsWithCursor() {
+        String establishmentId = UUID.randomUUID().toString();
+        String prisonerId = UUID.randomUUID().toString();
+
+        for (int i = 0; i < 5; i++) {
+            given()
+                    .body(newLedgerEntry()).
+                    when()
+                    .contentType("application/json")
+                    .put("/establishments/{establishmentId}/prisoners/{prisonerId}/accounts/cash", establishmentId, prisonerId).
+                    then()
+                    .statusCode(200);
+        }
+
+        TransactionDetail[] allTransactions = given()
+                .get("/establishments/{establishmentId}/prisoners/{prisonerId}/accounts/cash/transactions", establishmentId, prisonerId)
+                .then()
+                .statusCode(200)
+                .extract().body().as(TransactionDetail[].class);
+
+        List<TransactionDetail> establishmentPages = new ArrayList<>();
+        List<TransactionDetail> prisonerPages = new ArrayList<>();
+        String establishmentCursor = null;
+        String prisonerCursor = null;
+        int pageCount = 0;
+        do {
+            Response establishmentPage = transactionsPage("/establishments/{establishmentId}/prisoners/{prisonerId}/accounts/cash/transactions", establishmentCursor, establishmentId, prisonerId);
+            Response prisonerPage = transactionsPage("/prisoners/{prisonerId}/accounts/cash/transactions", prisonerCursor, prisonerId);
+
+            establishmentPages.addAll(Arrays.asList(establishmentPage.as(TransactionDetail[].class)));
+            prisonerPages.addAll(Arrays.asList(prisonerPage.as(TransactionDetail[].class)));
+            establishmentCursor = establishmentPage.header(AccountController.NEXT_CURSOR_HEADER);
+            prisonerCursor = prisonerPage.header(AccountController.NEXT_CURSOR_HEADER);
+            pageCount++;
+        } while (establishmentCursor != null);
+
+        assertThat(pageCount).isEqualTo(3);
+        assertThat(prisonerCursor).isNull();
+        assertThat(establishmentPages).containsExactly(allTransactions);
+        assertThat(prisonerPages).containsExactly(allTransactions);
+
+        given()
+                .queryParam("after", "not-a-cursor")
+                .get("/prisoners/{prisonerId}/accounts/cash/transactions", prisonerId)
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    public void pagedAndUnpagedPrisonerHistoriesLeaveOutTransferLegs() {
+        String fromEstablishmentId = UUID.randomUUID().toString();
+        String toEstablishmentId = UUID.randomUUID().toString();
+        String prisonerId = UUID.randomUUID().toString();
+
+        given()
+                .body(newLedgerEntry()).
+                when()
+                .contentType("application/json")
+                .put("/establishments/{establishmentId}/prisoners/{prisonerId}/accounts/cash", fromEstablishmentId, prisonerId).
+                then()
+                .statusCode(200);
+
+        given()
+                .queryParam("toEstablishmentId", toEstablishmentId)
+                .post("/establishments/{establishmentId}/prisoners/{prisonerId}/transfer", fromEstablishmentId, prisonerId)
+                .then()
+                .statusCode(200);
+
+        TransactionDetail[] unpaged = given()
+                .get("/prisoners/{prisonerId}/accounts/cash/transactions", prisonerId)
+                .then()
+                .statusCode(200)
+                .extract().body().as(TransactionDetail[].class);
+
+        assertThat(unpaged).extracting("description").containsExactly("Gift");
+        assertThat(transactionsPage("/prisoners/{prisonerId}/accounts/cash/transactions", null, prisonerId).as(TransactionDetail[].class))
+                .containsExactly(unpaged);
+    }
+
+    @Test
+    public void canExportEstablishmentTransactionsAsNdjsonAndCsv() {
+        String establishmentId = UUID.randomUUID().toString();
+        String prisonerId = UUID.randomUUID().toString();
+
+        for (int i = 0; i < 3; i++) {
+            given()
+                    .body(newLedgerEntry()).
+                    when()
+                    .contentType("application/json")
+                    .put("/establishments/{establishmentId}/prisoners/{prisonerId}/accounts/cash", establishmentId, prisonerId).
+                    then()
+                    .statusCode(200);
+        }
+
+        String ndjson = given()
+                .basePath("/reporting")
+                .get("/establishments/{establishmentId}/transactions", establishmentId)
+                .then()
+                .statusCode(200)
+                .contentType(TransactionExportFormat.NDJSON.getContentType())
+                .extract().asString();
+
+        List<String> jsonLines = Arrays.asList(ndjson.split("\n"));
+        assertThat(jsonLines).hasSize(3);
+        jsonLines.forEach(line -> assertThat(line).startsWith("{"));
+        jsonLines.forEach(line -> assertThat(from(line).getString("prisonerId")).isEqualTo(prisonerId));
+        jsonLines.forEach(line -> assertThat(from(line).getString("transactionType")).isEqualTo("CREDIT"));
+        assertThat(jsonLines).extracting(line -> from(line).getLong("transactionId")).isSorted();
+
+        String csv = given()
+                .basePath("/reporting")
+                .queryParam("format", "CSV")
+                .get("/establishments/{establishmentId}/transactions", establishmentId)
+                .then()
+                .statusCode(200)
+                .contentType(TransactionExportFormat.CSV.getContentType())
+                .extract().asString();
+
+        List<String> csvLines = Arrays.asList(csv.split("\n"));
+        assertThat(csvLines).hasSize(4);
+        assertThat(csvLines.get(0)).startsWith("prisonerId,accountName,transactionId");
+        csvLines.subList(1, 4).forEach(line -> assertThat(line).startsWith(prisonerId + ",cash,"));
+
+        given()
+                .basePath("/reporting")
+                .queryParam("format", "XML")
+                .get("/establishments/{establishmentId}/transactions", establishmentId)
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    public void canPostLedgerEntriesInBulk() {
+        String establishmentId = UUID.randomUUID().toString();
+        String prisonerId = UUID.randomUUID().toString();
+
+        List<BulkLedgerEntry> entries = Arrays.asList(
+                bulkLedgerEntry(prisonerId, "cash", Operations.CREDIT, 500l),
+                bulkLedgerEntry(prisonerId, "cash", Operations.DEBIT, 200l),
+                bulkLedgerEntry(prisonerId, "cash", Operations.DEBIT, 400l),
+                bulkLedgerEntry(prisonerId, "savings", Operations.DEBIT, 50l));
+
+        BulkLedgerResult[] results = given()
+                .body(entries)
+                .contentType("application/json")
+                .post("/establishments/{establishmentId}/ledger", establishmentId)
+                .then()
+                .statusCode(200)
+                .extract().body().as(BulkLedgerResult[].class);
+
+        assertThat(results).extracting("outcome").containsExactly(
+                BulkLedgerResult.Outcomes.POSTED,
+                BulkLedgerResult.Outcomes.POSTED,
+                BulkLedgerResult.Outcomes.INSUFFICIENT_FUNDS,
+                BulkLedgerResult.Outcomes.DEBIT_NOT_SUPPORTED);
+        assertThat(results[0].getTransactionId()).isNotNull();
+        assertThat(results[2].getTransactionId()).isNull();
+
+        Balance balance = given()
+                .get("/establishments/{establishmentId}/prisoners/{prisonerId}/accounts/cash/balance", establishmentId, prisonerId)
+                .then()
+                .statusCode(200)
+                .extract().body().as(Balance.class);
+
+        assertThat(balance.getAmountPence()).isEqualTo(300l);
+    }
+
+    @Test
+    public void publishesAccountCacheMetrics() {
+        given()
+                .basePath("/")
+                .get("/metrics")
+                .then()
+                .statusCode(200)
+                .body("'cache.accounts.size'", notNullValue())
+                .body("'cache.accounts.hit.count'", notNullValue())
+                .body("'cache.accounts.miss.count'", notNullValue())
+                .body("'cache.accounts.eviction.count'", notNullValue());
+    }
+
+    @Test
+    public void publishesServiceMetricsForPrometheus() {
+        String establishmentId = UUID.randomUUID().toString();
+        String prisonerId = UUID.randomUUID().toString();
+
+        given()
+                .body(LedgerEntry.builder()
+                        .clientRef(UUID.randomUUID().toString())
+                        .description("Canteen")
+                        .operation(Operations.DEBIT)
+                        .amountPence(1)
+                        .build()).
+                when()
+                .contentType("application/json")
+                .put("/establishments/{establishmentId}/prisoners/{prisonerId}/accounts/cash", establishmentId, prisonerId).
+                then()
+                .statusCode(400);
+
+        String scrape = given()
+                .basePath("/")
+                .get("/prometheus")
+                .then()
+                .statusCode(200)
+                .extract().asString();
+
+        assertThat(scrape)
+                .contains("prisoneraccounts_ledger_post_seconds_bucket{")
+                .contains("prisoneraccounts_ledger_post_seconds{class=\"uk.gov.justice.digital.prisoneraccounts.service.LedgerService\",method=\"postTransaction\",quantile=\"0.99\",}")
+                .contains("prisoneraccounts_transactions_seconds_count{class=\"uk.gov.justice.digital.prisoneraccounts.service.TransactionService\",method=\"debitAccount\",}")
+                .contains("prisoneraccounts_ledger_rejections_total{exception=\"InsufficientFundsException\",}")
+                .containsPattern("prisoneraccounts_accounts_open \\d")
+                .contains("http_server_requests_seconds_bucket{exception=\"InsufficientFundsException\",method=\"PUT\",status=\"400\",uri=\"/prisoneraccounts/establishments/{establishmentId}/prisoners/{prisonerId}/accounts/{accountName}\",");
+    }
+
+    @Test
+    public void reportsRunTheSameNumberOfQueriesWhateverTheEstablishmentSize() {
+        String smallEstablishmentId = establishmentWithTransferredPrisoners(2);
+        String largeEstablishmentId = establishmentWithTransferredPrisoners(20);
+
+        for (String[] report : new String[][]{
+                {"/prisoneraccounts", "/establishments/{establishmentId}/prisoners/accounts"},
+                {"/reporting", "/establishments/{establishmentId}/prisoners/accounts?atDateTime=" + ZonedDateTime.now(ZoneOffset.UTC)},
+                {"/reporting", "/establishments/{establishmentId}/prisonertransfers"},
+                {"/reporting", "/establishments/{establishmentId}/balances/discrepancies"}}) {
+            assertThat(queryCountOf(report[0], report[1], largeEstablishmentId))
+                    .as(report[0] + report[1])
+                    .isEqualTo(queryCountOf(report[0], report[1], smallEstablishmentId));
+        }
+
+        when()
+                .get("/establishments/{establishmentId}/prisoners/{prisonerId}/accounts/cash/balance", largeEstablishmentId, "prisoner-0")
+                .then()
+                .statusCode(200)
+                .header(SqlQueryCountFilter.QUERY_COUNT_HEADER, atMostQueries(2))
+                .header(SqlQueryCountFilter.QUERY_TIME_HEADER, notNullValue());
+    }
+
+    @Test
+    public void canEvacuateAnEstablishment() throws InterruptedException {
+        String fromEstablishmentId = UUID.randomUUID().toString();
+        String toEstablishmentId = UUID.randomUUID().toString();
+
+        given()
+                .body(IntStream.range(0, 3)
+                        .mapToObj(i -> bulkLedgerEntry("prisoner-" + i, "cash", Operations.CREDIT, 100l))
+                        .collect(Collectors.toList()))
+                .contentType("application/json")
+                .post("/establishments/{establishmentId}/ledger", fromEstablishmentId)
+                .then()
+                .statusCode(200);
+
+        given()
+                .body(EvacuationRequest.builder().toEstablishmentId(fromEstablishmentId).build())
+                .contentType("application/json")
+                .post("/establishments/{establishmentId}/evacuations", fromEstablishmentId)
+                .then()
+                .statusCode(400);
+
+        given()
+                .body(EvacuationRequest.builder().toEstablishmentId(toEstablishmentId).dryRun(true).build())
+                .contentType("application/json")
+                .post("/establishments/{establishmentId}/evacuations", fromEstablishmentId)
+                .then()
+                .statusCode(200)
+                .body("status", equalTo(Evacuation.Statuses.DRY_RUN.name()))
+                .body("prisoners", equalTo(3))
+                .body("amountPence", equalTo(300));
+
+        String evacuationId = given()
+                .body(EvacuationRequest.builder().toEstablishmentId(toEstablishmentId).build())
+                .contentType("application/json")
+                .post("/establishments/{establishmentId}/evacuations", fromEstablishmentId)
+                .then()
+                .statusCode(202)
+                .body("prisoners", equalTo(3))
+                .extract().path("evacuationId");
+
+        String status = Evacuation.Statuses.RUNNING.name();
+        for (int attempt = 0; attempt < 100 && status.equals(Evacuation.Statuses.RUNNING.name()); attempt++) {
+            Thread.sleep(50);
+            status = when()
+                    .get("/evacuations/{evacuationId}", evacuationId)
+                    .then()
+                    .statusCode(200)
+                    .extract().path("status");
+        }
+        assertThat(status).isEqualTo(Evacuation.Statuses.COMPLETED.name());
+
+        when()
+                .get("/establishments/{establishmentId}/prisoners/{prisonerId}/accounts/cash/balance", toEstablishmentId, "prisoner-2")
+                .then()
+                .statusCode(200)
+                .body("amountPence", equalTo(100));
+
+        when()
+                .get("/evacuations/{evacuationId}", UUID.randomUUID().toString())
+                .then()
+                .statusCode(404);
+    }
+
+    private String establishmentWithTransferredPrisoners(int prisoners) {
+        String sendingEstablishmentId = UUID.randomUUID().toString();
+        String establishmentId = UUID.randomUUID().toString();
+
+        given()
+                .body(IntStream.range(0, prisoners)
+                        .mapToObj(i -> bulkLedgerEntry("prisoner-" + i, "cash", Operations.CREDIT, 100l))
+                        .collect(Collectors.toList()))
+                .contentType("application/json")
+                .post("/establishments/{establishmentId}/ledger", sendingEstablishmentId)
+                .then()
+                .statusCode(200);
+
+        for (int i = 0; i < prisoners; i++) {
+            given()
+                    .queryParam("toEstablishmentId", establishmentId)
+                    .post("/establishments/{establishmentId}/prisoners/{prisonerId}/transfer", sendingEstablishmentId, "prisoner-" + i)
+                    .then()
+                    .statusCode(200);
+        }
+        return establishmentId;
+    }
+
+    @Test
+    public void estateReportQueryCountIncludesItsPoolsStatements() {
+        establishmentWithTransferredPrisoners(2);
+
+        int queryCount = Integer.parseInt(given()
+                .basePath("/reporting")
+                .get("/estate?atDateTime=" + ZonedDateTime.now(ZoneOffset.UTC))
+                .then()
+                .statusCode(200)
+                .extract().header(SqlQueryCountFilter.QUERY_COUNT_HEADER));
+
+        assertThat(queryCount).isGreaterThan(queryCountOf("/reporting", "/establishments/{establishmentId}/prisonertransfers", UUID.randomUUID().toString()));
+    }
+
+    private int queryCountOf(String basePath, String path, String establishmentId) {
+        return Integer.parseInt(given()
+                .basePath(basePath)
+                .get(path, establishmentId)
+                .then()
+                .statusCode(200)
+                .header(SqlQueryCountFilter.QUERY_COUNT_HEADER, atMostQueries(7))
+                .extract().header(SqlQueryCountFilter.QUERY_COUNT_HEADER));
+    }
+
+    private BulkLedgerEntry bulkLedgerEntry(String prisonerId, String accountName, Operations operation, long amountPence) {
+        return BulkLedgerEntry.builder()
+                .prisonerId(prisonerId)
+                .accountName(accountName)
+                .operation(operation)
+                .amountPence(amountPence)
+                .clientRef(UUID.randomUUID().toString())
+                .description("canteen")
+                .build();
+    }
+
+    private Response transactionsPage(String path, String cursor, Object... pathParams) {
+        return given()
+                .queryParam("limit", 2)
+                .queryParams(cursor == null ? Collections.emptyMap() : Collections.singletonMap("after", cursor))
+                .get(path, pathParams)
+                .then()
+                .statusCode(200)
+                .extract().response();
+    }
+}
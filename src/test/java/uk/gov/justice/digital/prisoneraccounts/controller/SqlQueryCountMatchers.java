@@ -0,0 +1,22 @@
+package uk.gov.justice.digital.prisoneraccounts.controller;
+
+import org.hamcrest.FeatureMatcher;
+import org.hamcrest.Matcher;
+
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ * Matchers for the {@link SqlQueryCountFilter#QUERY_COUNT_HEADER} header, e.g.
+ * {@code .then().header(SqlQueryCountFilter.QUERY_COUNT_HEADER, atMostQueries(3))}.
+ */
+public class SqlQueryCountMatchers {
+
+    public static Matcher<String> atMostQueries(int maxQueries) {
+        return new FeatureMatcher<String, Integer>(lessThanOrEqualTo(maxQueries), "query count", "query count") {
+            @Override
+            protected Integer featureValueOf(String header) {
+                return Integer.valueOf(header);
+            }
+        };
+    }
+}
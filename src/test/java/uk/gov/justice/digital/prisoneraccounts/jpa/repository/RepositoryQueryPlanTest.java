@@ -0,0 +1,236 @@
+package uk.gov.justice.digital.prisoneraccounts.jpa.repository;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.ArchivedTransaction;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.PrisonerTransfer;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Transaction;
+
+import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs every query declared on the account, transaction and archived transaction repositories, captures the SQL Hibernate issues and
+ * asks H2 for its plan, failing if any table is read with a full scan.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector=uk.gov.justice.digital.prisoneraccounts.jpa.repository.RepositoryQueryPlanTest$RecordingStatementInspector")
+@RunWith(SpringJUnit4ClassRunner.class)
+public class RepositoryQueryPlanTest {
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private ArchivedTransactionRepository archivedTransactionRepository;
+
+    @Autowired
+    private PrisonerTransferRepository prisonerTransferRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private Account account;
+    private PrisonerTransfer prisonerTransfer;
+
+    @Before
+    public void setup() {
+        prisonerTransfer = prisonerTransferRepository.save(PrisonerTransfer.builder()
+                .fromEstablishmentId("FROM")
+                .toEstablishmentId("TO")
+                .prisonerId(UUID.randomUUID().toString())
+                .build());
+        account = accountRepository.save(Account.builder()
+                .establishmentId("TO")
+                .prisonerId(prisonerTransfer.getPrisonerId())
+                .accountName("cash")
+                .accountType(Account.AccountTypes.FULL_ACCESS)
+                .prisonerTransfer(prisonerTransfer)
+                .build());
+        // An empty or tiny table is always cheapest to scan, so the archive gets enough rows for its plans to be realistic.
+        long firstArchivedId = ThreadLocalRandom.current().nextLong(Long.MAX_VALUE / 2);
+        archivedTransactionRepository.save(LongStream.range(firstArchivedId, firstArchivedId + 1000)
+                .mapToObj(transactionId -> ArchivedTransaction.builder()
+                        .transactionId(transactionId)
+                        .account(account)
+                        .transactionType(Transaction.TransactionTypes.CREDIT)
+                        .amountPence(1L)
+                        .transactionDateTime(now().minusDays(400))
+                        .build())
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void repositoryQueriesUseIndexes() {
+        Map<String, Runnable> queries = new LinkedHashMap<>();
+        queries.putAll(accountQueries());
+        queries.putAll(transactionQueries());
+        queries.putAll(archivedTransactionQueries());
+
+        assertThat(queries.keySet()).containsOnlyElementsOf(declaredQueriesOf(AccountRepository.class, TransactionRepository.class, ArchivedTransactionRepository.class));
+        assertThat(declaredQueriesOf(AccountRepository.class, TransactionRepository.class, ArchivedTransactionRepository.class)).containsOnlyElementsOf(queries.keySet());
+
+        List<String> tableScans = new ArrayList<>();
+        queries.forEach((query, execution) -> statementsIssuedBy(execution).forEach(sql -> {
+            String plan = planOf(sql);
+            if (plan.contains(".tableScan")) {
+                tableScans.add(query + ": " + plan);
+            }
+        }));
+
+        assertThat(tableScans).isEmpty();
+    }
+
+    private Map<String, Runnable> accountQueries() {
+        Map<String, Runnable> queries = new LinkedHashMap<>();
+        queries.put("findByEstablishmentIdAndPrisonerIdAndAccountNameAndAccountStatus", () -> accountRepository.findByEstablishmentIdAndPrisonerIdAndAccountNameAndAccountStatus("TO", "A1234BC", "cash", Account.AccountStatuses.OPEN));
+        queries.put("findByEstablishmentIdAndPrisonerIdAndAccountStatus", () -> accountRepository.findByEstablishmentIdAndPrisonerIdAndAccountStatus("TO", "A1234BC", Account.AccountStatuses.OPEN));
+        queries.put("findByEstablishmentIdAndPrisonerIdInAndAccountStatus", () -> accountRepository.findByEstablishmentIdAndPrisonerIdInAndAccountStatus("TO", Arrays.asList("A1234BC", "B2345CD"), Account.AccountStatuses.OPEN));
+        queries.put("findByPrisonerTransferIn", () -> accountRepository.findByPrisonerTransferIn(Collections.singletonList(prisonerTransfer)));
+        queries.put("findByEstablishmentIdAndAccountCreatedDateTimeBefore", () -> accountRepository.findByEstablishmentIdAndAccountCreatedDateTimeBefore("TO", now()));
+        queries.put("findByEstablishmentIdAndAccountStatus", () -> accountRepository.findByEstablishmentIdAndAccountStatus("TO", Account.AccountStatuses.OPEN));
+        queries.put("findEstablishmentIdsWithAccountsCreatedBefore", () -> accountRepository.findEstablishmentIdsWithAccountsCreatedBefore(now()));
+        queries.put("countByAccountStatus", () -> accountRepository.countByAccountStatus(Account.AccountStatuses.OPEN));
+        queries.put("findByPrisonerIdAndAccountNameOrderByAccountCreatedDateTimeAsc", () -> accountRepository.findByPrisonerIdAndAccountNameOrderByAccountCreatedDateTimeAsc("A1234BC", "cash"));
+        queries.put("findAccountsOpenDuring", () -> accountRepository.findAccountsOpenDuring(now().minusDays(1), now()));
+        queries.put("findTransferredInAmounts", () -> accountRepository.findTransferredInAmounts("TO", now().minusDays(1), now()));
+        queries.put("findTransferredOutAmounts", () -> accountRepository.findTransferredOutAmounts("FROM", now().minusDays(1), now()));
+        return queries;
+    }
+
+    private Map<String, Runnable> transactionQueries() {
+        Map<String, Runnable> queries = new LinkedHashMap<>();
+        queries.put("findAllByAccountOrderByTransactionDateTimeAsc", () -> transactionRepository.findAllByAccountOrderByTransactionDateTimeAsc(account));
+        queries.put("findAllByAccountAndTransactionDateTimeBetweenOrderByTransactionDateTimeAsc", () -> transactionRepository.findAllByAccountAndTransactionDateTimeBetweenOrderByTransactionDateTimeAsc(account, Optional.of(now().minusDays(1)), Optional.of(now())));
+        queries.put("findAllByAccountAndTransactionDateTimeLessThanEqualOrderByTransactionDateTimeAsc", () -> transactionRepository.findAllByAccountAndTransactionDateTimeLessThanEqualOrderByTransactionDateTimeAsc(account, Optional.of(now())));
+        queries.put("findAllByAccountAndTransactionDateTimeGreaterThanEqualOrderByTransactionDateTimeAsc", () -> transactionRepository.findAllByAccountAndTransactionDateTimeGreaterThanEqualOrderByTransactionDateTimeAsc(account, Optional.of(now())));
+        queries.put("sumSignedAmountPence", () -> transactionRepository.sumSignedAmountPence(account));
+        queries.put("sumSignedAmountPenceTo", () -> transactionRepository.sumSignedAmountPenceTo(account, now()));
+        queries.put("sumSignedAmountPenceBetween", () -> transactionRepository.sumSignedAmountPenceBetween(account, now().minusDays(1), now()));
+        queries.put("sumSignedAmountPenceBefore", () -> transactionRepository.sumSignedAmountPenceBefore(account, now()));
+        queries.put("sumSignedAmountPenceFromBefore", () -> transactionRepository.sumSignedAmountPenceFromBefore(account, now().minusDays(1), now()));
+        queries.put("sumCreditsAndDebitsByAccountFromBefore", () -> transactionRepository.sumCreditsAndDebitsByAccountFromBefore(Collections.singletonList(account), now().minusDays(1), now()));
+        queries.put("sumSignedAmountPenceByAccount", () -> transactionRepository.sumSignedAmountPenceByAccount("TO", Account.AccountStatuses.OPEN));
+        queries.put("sumSignedAmountPenceSinceCheckpointByAccount", () -> transactionRepository.sumSignedAmountPenceSinceCheckpointByAccount("TO", now().minusDays(1), now()));
+        queries.put("findArchivableTransactionIds", () -> transactionRepository.findArchivableTransactionIds(Account.AccountStatuses.CLOSED, now(), new PageRequest(0, 10)));
+        queries.put("deleteByTransactionIdIn", () -> transactionRepository.deleteByTransactionIdIn(Collections.singletonList(0L)));
+        queries.put("findPageByAccounts", () -> transactionRepository.findPageByAccounts(Collections.singletonList(account), now().minusDays(1), now(), now().minusDays(1), 0, "prisoner transfer", new PageRequest(0, 10)));
+        queries.put("streamEstablishmentTransactions", () -> {
+            try (Stream<?> records = transactionRepository.streamEstablishmentTransactions("TO", now().minusDays(1), now())) {
+                records.count();
+            }
+        });
+        return queries;
+    }
+
+    private Map<String, Runnable> archivedTransactionQueries() {
+        Map<String, Runnable> queries = new LinkedHashMap<>();
+        queries.put("ArchivedTransactionRepository.copyFromTransactions", () -> archivedTransactionRepository.copyFromTransactions(Collections.singletonList(0L)));
+        queries.put("ArchivedTransactionRepository.findAllByAccounts", () -> archivedTransactionRepository.findAllByAccounts(Collections.singletonList(account), now().minusDays(1), now()));
+        queries.put("ArchivedTransactionRepository.findPageByAccounts", () -> archivedTransactionRepository.findPageByAccounts(Collections.singletonList(account), now().minusDays(1), now(), now().minusDays(1), 0, "prisoner transfer", new PageRequest(0, 10)));
+        queries.put("ArchivedTransactionRepository.sumSignedAmountPence", () -> archivedTransactionRepository.sumSignedAmountPence(account));
+        queries.put("ArchivedTransactionRepository.sumSignedAmountPenceTo", () -> archivedTransactionRepository.sumSignedAmountPenceTo(account, now()));
+        queries.put("ArchivedTransactionRepository.sumSignedAmountPenceBetween", () -> archivedTransactionRepository.sumSignedAmountPenceBetween(account, now().minusDays(1), now()));
+        queries.put("ArchivedTransactionRepository.sumSignedAmountPenceBefore", () -> archivedTransactionRepository.sumSignedAmountPenceBefore(account, now()));
+        queries.put("ArchivedTransactionRepository.sumSignedAmountPenceFromBefore", () -> archivedTransactionRepository.sumSignedAmountPenceFromBefore(account, now().minusDays(1), now()));
+        queries.put("ArchivedTransactionRepository.sumSignedAmountPenceSinceCheckpointByAccount", () -> archivedTransactionRepository.sumSignedAmountPenceSinceCheckpointByAccount("TO", now().minusDays(1), now()));
+        queries.put("ArchivedTransactionRepository.sumCreditsAndDebitsByAccountFromBefore", () -> archivedTransactionRepository.sumCreditsAndDebitsByAccountFromBefore(Collections.singletonList(account), now().minusDays(1), now()));
+        queries.put("ArchivedTransactionRepository.findTransferredInAmounts", () -> archivedTransactionRepository.findTransferredInAmounts("TO", now().minusDays(1), now()));
+        queries.put("ArchivedTransactionRepository.findTransferredOutAmounts", () -> archivedTransactionRepository.findTransferredOutAmounts("FROM", now().minusDays(1), now()));
+        queries.put("ArchivedTransactionRepository.streamEstablishmentTransactions", () -> {
+            try (Stream<?> records = archivedTransactionRepository.streamEstablishmentTransactions("TO", now().minusDays(1), now())) {
+                records.count();
+            }
+        });
+        return queries;
+    }
+
+    private List<String> declaredQueriesOf(Class<?>... repositories) {
+        return Arrays.stream(repositories)
+                .flatMap(repository -> Arrays.stream(repository.getDeclaredMethods()))
+                .map(this::queryNameOf)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The archive repository mirrors the live queries' names, so its queries are qualified with the repository name.
+     */
+    private String queryNameOf(Method method) {
+        return method.getDeclaringClass() == ArchivedTransactionRepository.class
+                ? ArchivedTransactionRepository.class.getSimpleName() + "." + method.getName()
+                : method.getName();
+    }
+
+    private List<String> statementsIssuedBy(Runnable execution) {
+        RecordingStatementInspector.STATEMENTS.clear();
+        new TransactionTemplate(transactionManager).execute(status -> {
+            execution.run();
+            return null;
+        });
+        List<String> statements = new ArrayList<>(RecordingStatementInspector.STATEMENTS);
+        assertThat(statements).isNotEmpty();
+        return statements;
+    }
+
+    private String planOf(String sql) {
+        return jdbcTemplate.execute("explain " + sql, (PreparedStatement statement) -> {
+            for (int i = 1; i <= statement.getParameterMetaData().getParameterCount(); i++) {
+                statement.setObject(i, null);
+            }
+            try (ResultSet plan = statement.executeQuery()) {
+                plan.next();
+                return plan.getString(1);
+            }
+        });
+    }
+
+    private ZonedDateTime now() {
+        return ZonedDateTime.now(ZoneOffset.UTC);
+    }
+
+    public static class RecordingStatementInspector implements StatementInspector {
+
+        private static final long serialVersionUID = 1L;
+
+        static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String inspect(String sql) {
+            STATEMENTS.add(sql);
+            return sql;
+        }
+    }
+}
@@ -1,25 +1,93 @@
 package uk.gov.justice.digital.prisoneraccounts.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.rule.OutputCapture;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.gov.justice.digital.prisoneraccounts.api.AccountState;
+import uk.gov.justice.digital.prisoneraccounts.api.BulkLedgerEntry;
+import uk.gov.justice.digital.prisoneraccounts.api.BulkLedgerResult;
+import uk.gov.justice.digital.prisoneraccounts.api.EstablishmentSummary;
+import uk.gov.justice.digital.prisoneraccounts.api.EstablishmentTransferSummary;
+import uk.gov.justice.digital.prisoneraccounts.api.EstateSummary;
+import uk.gov.justice.digital.prisoneraccounts.api.Evacuation;
 import uk.gov.justice.digital.prisoneraccounts.api.Operations;
+import uk.gov.justice.digital.prisoneraccounts.api.TransactionExportRecord;
+import uk.gov.justice.digital.prisoneraccounts.api.TransferIn;
+import uk.gov.justice.digital.prisoneraccounts.config.SlowQueryLogger;
 import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.BalanceCheckpoint;
 import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Transaction;
+import uk.gov.justice.digital.prisoneraccounts.journal.JournalBacklog;
+import uk.gov.justice.digital.prisoneraccounts.journal.JournalBatch;
+import uk.gov.justice.digital.prisoneraccounts.journal.JournalProjector;
+import uk.gov.justice.digital.prisoneraccounts.journal.JournalRecord;
+import uk.gov.justice.digital.prisoneraccounts.journal.JournalService;
+import uk.gov.justice.digital.prisoneraccounts.journal.LedgerJournal;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.AccountBalanceRepository;
 import uk.gov.justice.digital.prisoneraccounts.jpa.repository.AccountRepository;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.ArchiveLockRepository;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.BalanceCheckpointRepository;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.RejectedJournalRecordRepository;
+import uk.gov.justice.digital.prisoneraccounts.jpa.repository.ClosedDayRepository;
 import uk.gov.justice.digital.prisoneraccounts.jpa.repository.TransactionRepository;
+import uk.gov.justice.digital.prisoneraccounts.testdata.SyntheticEstate;
+import uk.gov.justice.digital.prisoneraccounts.testdata.SyntheticEstateGenerator;
+import uk.gov.justice.digital.prisoneraccounts.testdata.SyntheticEstateSpec;
 
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.Assertions.tuple;
 
-@SpringBootTest
+@SpringBootTest(properties = "prisoneraccounts.readmodel.enabled=true")
 @RunWith(SpringJUnit4ClassRunner.class)
+@Slf4j
 public class PrisonerAccountsServiceTest {
 
     @Autowired
@@ -28,6 +96,9 @@ public class PrisonerAccountsServiceTest {
     @Autowired
     private TransactionRepository transactionRepository;
 
+    @Autowired
+    private AccountBalanceRepository accountBalanceRepository;
+
     @Autowired
     private TransactionService transactionService;
 
@@ -40,6 +111,60 @@ public class PrisonerAccountsServiceTest {
     @Autowired
     private PrisonerTransferService prisonerTransferService;
 
+    @Autowired
+    private BalanceCheckpointService balanceCheckpointService;
+
+    @Autowired
+    private EstateReportService estateReportService;
+
+    @Autowired
+    private BalanceCheckpointRepository balanceCheckpointRepository;
+
+    @Autowired
+    private ClosedDayRepository closedDayRepository;
+
+    @Autowired
+    private ArchiveLockRepository archiveLockRepository;
+
+    @Autowired
+    private RejectedJournalRecordRepository rejectedJournalRecordRepository;
+
+    @Autowired
+    private TransactionArchiveService transactionArchiveService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private AccountCache accountCache;
+
+    @Autowired
+    private MappingJackson2HttpMessageConverter jsonConverter;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JournalProjector journalProjector;
+
+    @Autowired
+    private LedgerMetrics ledgerMetrics;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private BalanceReadModel balanceReadModel;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Rule
+    public OutputCapture outputCapture = new OutputCapture();
+
 
     @Test
     public void canCreateNewAccount() {
@@ -234,4 +359,1097 @@ public class PrisonerAccountsServiceTest {
         assertThat(accountService.currentBalanceOf(transferredSavings).getAmountPence()).isEqualTo(3l);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void storedBalanceTracksLedger() throws DebitNotSupportedException, InsufficientFundsException, AccountClosedException {
+        String establishmentId = UUID.randomUUID().toString();
+        String prisonerId = UUID.randomUUID().toString();
+
+        Account cash = accountService.getOrCreateAccount(establishmentId, prisonerId, "cash", Optional.empty());
+        Account savings = accountService.getOrCreateAccount(establishmentId, prisonerId, "savings", Optional.empty());
+
+        transactionService.creditAccount(cash, 500l, "wages", "ref1");
+        transactionService.debitAccount(cash, 120l, "canteen", "ref2");
+        transactionService.transferFunds(cash, savings, 80l, "balance transfer");
+
+        assertThat(accountBalanceRepository.findBalancePenceByAccountId(cash.getAccountId()).get()).isEqualTo(300l);
+        assertThat(accountBalanceRepository.findBalancePenceByAccountId(savings.getAccountId()).get()).isEqualTo(80l);
+        assertThat(accountService.balanceDiscrepancies(establishmentId)).isEmpty();
+    }
+
+    @Test
+    public void reportsDiscrepancyBetweenStoredBalanceAndLedger() throws AccountClosedException {
+        String establishmentId = UUID.randomUUID().toString();
+        String prisonerId = UUID.randomUUID().toString();
+
+        Account cash = accountService.getOrCreateAccount(establishmentId, prisonerId, "cash", Optional.empty());
+        transactionService.creditAccount(cash, 500l, "wages", "ref1");
+
+        accountBalanceRepository.save(accountBalanceRepository.findOne(cash.getAccountId()).toBuilder().balancePence(400l).build());
+
+        assertThat(accountService.balanceDiscrepancies(establishmentId))
+                .extracting("accountId", "storedAmountPence", "ledgerAmountPence")
+                .containsExactly(tuple(cash.getAccountId(), 400l, 500l));
+    }
+
+    @Test
+    public void historicBalanceIsBuiltFromNearestCheckpoint() {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        ZonedDateTime startOfToday = today.atStartOfDay(ZoneOffset.UTC);
+
+        Account account = accountRepository.save(Account.builder()
+                .establishmentId(UUID.randomUUID().toString())
+                .prisonerId(UUID.randomUUID().toString())
+                .accountName("cash")
+                .accountType(Account.AccountTypes.FULL_ACCESS)
+                .accountCreatedDateTime(startOfToday.minusDays(5))
+                .build());
+
+        transactionRepository.save(transactionOf(account, Transaction.TransactionTypes.CREDIT, 100l, startOfToday.minusDays(4)));
+        transactionRepository.save(transactionOf(account, Transaction.TransactionTypes.DEBIT, 30l, startOfToday.minusDays(2)));
+        transactionRepository.save(transactionOf(account, Transaction.TransactionTypes.CREDIT, 5l, startOfToday.minusDays(1).plusHours(3)));
+
+        balanceCheckpointService.checkpointDay(today.minusDays(3));
+        balanceCheckpointService.checkpointDay(today.minusDays(2));
+
+        BalanceCheckpoint latestCheckpoint = balanceCheckpointRepository.findFirstByAccountIdAndCheckpointDateTimeLessThanEqualOrderByCheckpointDateTimeDesc(account.getAccountId(), startOfToday).get();
+        assertThat(latestCheckpoint.getCheckpointDateTime().toInstant()).isEqualTo(startOfToday.minusDays(1).toInstant());
+        assertThat(latestCheckpoint.getBalancePence()).isEqualTo(70l);
+
+        assertThat(accountService.balanceAsOf(account, Optional.of(startOfToday.minusDays(3).plusHours(1))).getAmountPence()).isEqualTo(100l);
+        assertThat(accountService.balanceAsOf(account, Optional.of(startOfToday.minusDays(1).plusHours(1))).getAmountPence()).isEqualTo(70l);
+        assertThat(accountService.balanceAsOf(account, Optional.of(startOfToday.minusDays(1).plusHours(3))).getAmountPence()).isEqualTo(75l);
+        assertThat(accountService.balanceAsOf(account, Optional.of(startOfToday.minusDays(5))).getAmountPence()).isEqualTo(0l);
+    }
+
+    @Test
+    public void checkpointingADayTwiceIsIdempotent() {
+        Account account = accountRepository.save(Account.builder()
+                .establishmentId(UUID.randomUUID().toString())
+                .prisonerId(UUID.randomUUID().toString())
+                .accountName("cash")
+                .accountType(Account.AccountTypes.FULL_ACCESS)
+                .accountCreatedDateTime(ZonedDateTime.now(ZoneOffset.UTC).minusDays(2))
+                .build());
+
+        LocalDate yesterday = LocalDate.now(ZoneOffset.UTC).minusDays(1);
+        balanceCheckpointService.checkpointDay(yesterday);
+
+        assertThat(balanceCheckpointService.checkpointDay(yesterday)).isEqualTo(0);
+        assertThat(balanceCheckpointRepository.existsByAccountIdAndCheckpointDateTime(account.getAccountId(), yesterday.plusDays(1).atStartOfDay(ZoneOffset.UTC))).isTrue();
+    }
+
+    @Test
+    public void dayCloseStoresTotalsFromTheDaysOwnTransactionsAndResumes() {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        ZonedDateTime startOfToday = today.atStartOfDay(ZoneOffset.UTC);
+        String establishmentId = UUID.randomUUID().toString();
+
+        Account account = accountRepository.save(Account.builder()
+                .establishmentId(establishmentId)
+                .prisonerId(UUID.randomUUID().toString())
+                .accountName("cash")
+                .accountType(Account.AccountTypes.FULL_ACCESS)
+                .accountCreatedDateTime(startOfToday.minusDays(5))
+                .build());
+
+        transactionRepository.save(transactionOf(account, Transaction.TransactionTypes.CREDIT, 100l, startOfToday.minusDays(4)));
+        transactionRepository.save(transactionOf(account, Transaction.TransactionTypes.CREDIT, 40l, startOfToday.minusDays(3).plusHours(1)));
+        transactionRepository.save(transactionOf(account, Transaction.TransactionTypes.DEBIT, 30l, startOfToday.minusDays(3).plusHours(2)));
+        transactionRepository.save(transactionOf(account, Transaction.TransactionTypes.DEBIT, 15l, startOfToday.minusDays(2).plusHours(1)));
+
+        balanceCheckpointService.checkpointDay(today.minusDays(3));
+        transactionRepository.save(transactionOf(account, Transaction.TransactionTypes.CREDIT, 1000l, startOfToday.minusDays(3).plusHours(3)));
+        balanceCheckpointService.checkpointDay(today.minusDays(2));
+
+        assertThat(balanceCheckpointService.establishmentDailyBalances(establishmentId, today.minusDays(3)).get())
+                .extracting("accountName", "closingBalancePence", "creditsPence", "debitsPence")
+                .containsExactly(tuple("cash", 110l, 40l, 30l));
+        assertThat(balanceCheckpointService.establishmentDailyBalances(establishmentId, today).isPresent()).isFalse();
+
+        // The late write into the closed day is picked up, and carried into the day after.
+        assertThat(balanceCheckpointService.reconcileDay(today.minusDays(3))).isEqualTo(1);
+        assertThat(balanceCheckpointService.reconcileDay(today.minusDays(3))).isEqualTo(0);
+        assertThat(balanceCheckpointService.establishmentDailyBalances(establishmentId, today.minusDays(3)).get())
+                .extracting("accountName", "closingBalancePence", "creditsPence", "debitsPence")
+                .containsExactly(tuple("cash", 1110l, 1040l, 30l));
+        assertThat(balanceCheckpointService.establishmentDailyBalances(establishmentId, today.minusDays(2)).get())
+                .extracting("accountName", "closingBalancePence", "creditsPence", "debitsPence")
+                .containsExactly(tuple("cash", 1095l, 0l, 15l));
+
+        ZonedDateTime dayEnd = startOfToday.minusDays(1);
+        balanceCheckpointRepository.delete(balanceCheckpointRepository.findByCheckpointDateTimeAndAccountIdIn(dayEnd, Collections.singletonList(account.getAccountId())));
+        closedDayRepository.delete(dayEnd);
+        assertThat(balanceCheckpointService.establishmentDailyBalances(establishmentId, today.minusDays(2)).isPresent()).isFalse();
+        assertThat(balanceCheckpointService.checkpointDay(today.minusDays(2))).isEqualTo(1);
+        assertThat(balanceCheckpointService.checkpointDay(today.minusDays(2))).isEqualTo(0);
+        assertThat(balanceCheckpointService.establishmentDailyBalances(establishmentId, today.minusDays(2)).isPresent()).isTrue();
+
+        balanceCheckpointService.closeOutstandingDays();
+        assertThat(balanceCheckpointService.establishmentDailyBalances(establishmentId, today.minusDays(1)).get())
+                .extracting("closingBalancePence", "creditsPence", "debitsPence")
+                .containsExactly(tuple(1095l, 0l, 0l));
+    }
+
+    @Test
+    public void archivingALongClosedAccountKeepsItsHistoryAndBalances() {
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        String establishmentId = UUID.randomUUID().toString();
+
+        Account account = accountRepository.save(Account.builder()
+                .establishmentId(establishmentId)
+                .prisonerId(UUID.randomUUID().toString())
+                .accountName("cash")
+                .accountType(Account.AccountTypes.FULL_ACCESS)
+                .accountCreatedDateTime(now.minusDays(500))
+                .build());
+        transactionRepository.save(transactionOf(account, Transaction.TransactionTypes.CREDIT, 100l, now.minusDays(480)));
+        transactionRepository.save(transactionOf(account, Transaction.TransactionTypes.DEBIT, 30l, now.minusDays(460)));
+        transactionRepository.save(transactionOf(account, Transaction.TransactionTypes.DEBIT, 70l, now.minusDays(420)));
+        Account closedAccount = accountRepository.save(account.toBuilder()
+                .accountStatus(Account.AccountStatuses.CLOSED)
+                .accountClosedDateTime(now.minusDays(400))
+                .build());
+
+        List<Long> transactionIds = transactionService.getTransactions(closedAccount, Optional.empty(), Optional.empty())
+                .stream().map(Transaction::getTransactionId).collect(Collectors.toList());
+        List<TransactionExportRecord> exported = new ArrayList<>();
+        transactionService.exportEstablishmentTransactions(establishmentId, Optional.empty(), Optional.empty(), exported::add);
+
+        assertThat(transactionArchiveService.archiveAccountsClosedBefore(now.minusDays(365))).isGreaterThanOrEqualTo(3);
+        assertThat(transactionArchiveService.archiveAccountsClosedBefore(now.minusDays(365))).isEqualTo(0);
+        assertThat(transactionRepository.findAllByAccountOrderByTransactionDateTimeAsc(closedAccount)).isEmpty();
+
+        assertThat(transactionService.getTransactions(closedAccount, Optional.empty(), Optional.empty()))
+                .extracting("transactionId").containsExactlyElementsOf(transactionIds);
+        assertThat(transactionService.getTransactions(closedAccount, Optional.of(now.minusDays(470)), Optional.of(now)))
+                .extracting("amountPence").containsExactly(30l, 70l);
+        TransactionPage firstPage = transactionService.getTransactionsPage(Collections.singletonList(closedAccount), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), 2);
+        assertThat(firstPage.getTransactions()).extracting("transactionId").containsExactlyElementsOf(transactionIds.subList(0, 2));
+        assertThat(transactionService.getTransactionsPage(Collections.singletonList(closedAccount), Optional.empty(), Optional.empty(), firstPage.getNext(), Optional.empty(), 2).getTransactions())
+                .extracting("transactionId").containsExactly(transactionIds.get(2));
+
+        List<TransactionExportRecord> exportedAfterArchiving = new ArrayList<>();
+        transactionService.exportEstablishmentTransactions(establishmentId, Optional.empty(), Optional.empty(), exportedAfterArchiving::add);
+        assertThat(exportedAfterArchiving).isEqualTo(exported);
+
+        assertThat(accountService.balanceAsOf(closedAccount, Optional.of(now.minusDays(450))).getAmountPence()).isEqualTo(70l);
+        assertThat(accountService.closingBalanceOf(closedAccount, now.minusDays(470))).isEqualTo(100l);
+        assertThat(accountService.establishmentAccountsSummary(establishmentId, Optional.of(now.minusDays(450))).get(closedAccount.getPrisonerId()))
+                .extracting("amountPence").containsExactly(70l);
+    }
+
+    @Test
+    public void archiveRunsWaitForTheLockAndReadsRepeatAcrossBatches() throws IOException {
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        Account account = accountRepository.save(Account.builder()
+                .establishmentId(UUID.randomUUID().toString())
+                .prisonerId(UUID.randomUUID().toString())
+                .accountName("cash")
+                .accountType(Account.AccountTypes.FULL_ACCESS)
+                .accountCreatedDateTime(now.minusDays(500))
+                .accountStatus(Account.AccountStatuses.CLOSED)
+                .accountClosedDateTime(now.minusDays(400))
+                .build());
+        transactionRepository.save(transactionOf(account, Transaction.TransactionTypes.CREDIT, 100l, now.minusDays(480)));
+
+        // Another instance's run holds the lease.
+        assertThat(transactionTemplate.<Integer>execute(status -> archiveLockRepository.acquire("other-instance", now, now.plusMinutes(5)))).isEqualTo(1);
+        try {
+            assertThat(transactionArchiveService.isArchiving()).isTrue();
+            assertThat(transactionArchiveService.archiveAccountsClosedBefore(now.minusDays(365))).isEqualTo(0);
+            assertThat(transactionRepository.findAllByAccountOrderByTransactionDateTimeAsc(account)).hasSize(1);
+
+            AtomicInteger reads = new AtomicInteger();
+            assertThat(transactionArchiveService.<Integer>consistentRead(() -> {
+                if (reads.incrementAndGet() == 1) {
+                    transactionTemplate.execute(status -> archiveLockRepository.advance("other-instance", now.plusMinutes(5)));
+                }
+                return reads.get();
+            })).isEqualTo(2);
+
+            HistoricReportCache cache = new HistoricReportCache(10, 3600, temporaryFolder.newFolder().getPath(), jsonConverter, transactionArchiveService, new JournalBacklog());
+            cache.get(HistoricReportCache.Report.ACCOUNTS_SUMMARY, "MDI", now.minusDays(30), now.minusDays(1), Collections::emptyMap);
+            assertThat(cache.size()).isEqualTo(0);
+        } finally {
+            transactionTemplate.execute(status -> archiveLockRepository.advance("other-instance", now));
+        }
+
+        assertThat(transactionArchiveService.isArchiving()).isFalse();
+        assertThat(transactionArchiveService.archiveAccountsClosedBefore(now.minusDays(365))).isGreaterThanOrEqualTo(1);
+        assertThat(transactionRepository.findAllByAccountOrderByTransactionDateTimeAsc(account)).isEmpty();
+    }
+
+    @Test
+    public void establishmentAccountsSummaryQueryCountDoesNotGrowWithEstablishment() {
+        String establishmentId = UUID.randomUUID().toString();
+        openCreditedAccounts(establishmentId, 3);
+
+        long currentStatements = statementsExecutedBy(() -> accountService.establishmentAccountsSummary(establishmentId, Optional.empty()));
+        long historicStatements = statementsExecutedBy(() -> accountService.establishmentAccountsSummary(establishmentId, Optional.of(ZonedDateTime.now(ZoneOffset.UTC))));
+
+        openCreditedAccounts(establishmentId, 10);
+
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        assertThat(statementsExecutedBy(() -> accountService.establishmentAccountsSummary(establishmentId, Optional.empty()))).isEqualTo(currentStatements);
+        assertThat(statementsExecutedBy(() -> accountService.establishmentAccountsSummary(establishmentId, Optional.of(now)))).isEqualTo(historicStatements);
+
+        Map<String, List<AccountState>> current = accountService.establishmentAccountsSummary(establishmentId, Optional.empty());
+        Map<String, List<AccountState>> historic = accountService.establishmentAccountsSummary(establishmentId, Optional.of(now));
+
+        assertThat(current).hasSize(13);
+        assertThat(historic).hasSize(13);
+        Stream.concat(current.values().stream(), historic.values().stream()).forEach(states -> assertThat(states).extracting("accountName", "amountPence", "accountStatus")
+                .containsExactlyInAnyOrder(tuple("cash", 100l, Account.AccountStatuses.OPEN), tuple("spend", 200l, Account.AccountStatuses.OPEN)));
+    }
+
+    @Test
+    public void historicEstablishmentAccountsSummaryCombinesCheckpointsAndLaterTransactions() {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        ZonedDateTime startOfToday = today.atStartOfDay(ZoneOffset.UTC);
+        String establishmentId = UUID.randomUUID().toString();
+        String prisonerId = UUID.randomUUID().toString();
+
+        Account account = accountRepository.save(Account.builder()
+                .establishmentId(establishmentId)
+                .prisonerId(prisonerId)
+                .accountName("cash")
+                .accountType(Account.AccountTypes.FULL_ACCESS)
+                .accountCreatedDateTime(startOfToday.minusDays(5))
+                .build());
+
+        transactionRepository.save(transactionOf(account, Transaction.TransactionTypes.CREDIT, 100l, startOfToday.minusDays(4)));
+        transactionRepository.save(transactionOf(account, Transaction.TransactionTypes.DEBIT, 30l, startOfToday.minusDays(2)));
+        transactionRepository.save(transactionOf(account, Transaction.TransactionTypes.CREDIT, 5l, startOfToday.minusDays(1).plusHours(3)));
+
+        balanceCheckpointService.checkpointDay(today.minusDays(3));
+
+        assertThat(accountService.establishmentAccountsSummary(establishmentId, Optional.of(startOfToday.minusDays(3).plusHours(1))).get(prisonerId))
+                .extracting("amountPence").containsExactly(100l);
+        assertThat(accountService.establishmentAccountsSummary(establishmentId, Optional.of(startOfToday.minusDays(1).plusHours(4))).get(prisonerId))
+                .extracting("amountPence").containsExactly(75l);
+    }
+
+    @Test
+    public void transferSummaryReportsBalancesAsAtTransferGroupedByEstablishment() throws InsufficientFundsException, AccountClosedException, DebitNotSupportedException {
+        String destinationId = UUID.randomUUID().toString();
+        String firstSourceId = UUID.randomUUID().toString();
+        String secondSourceId = UUID.randomUUID().toString();
+
+        String firstPrisonerId = transferredPrisoner(firstSourceId, destinationId, 100l, 50l);
+        String secondPrisonerId = transferredPrisoner(firstSourceId, destinationId, 10l);
+        String thirdPrisonerId = transferredPrisoner(secondSourceId, destinationId, 7l);
+
+        ledgerPost(destinationId, firstPrisonerId, "cash", 1000l);
+
+        EstablishmentTransferSummary destinationSummary = prisonerTransferService.prisonerTransferAccountsSummary(destinationId, Optional.empty(), Optional.empty());
+
+        assertThat(destinationSummary.getTransferredOut()).isEmpty();
+        assertThat(destinationSummary.getTransferredIn())
+                .extracting("fromEstablishmentId", "amountToRequestPence")
+                .containsExactlyInAnyOrder(tuple(firstSourceId, 160l), tuple(secondSourceId, 7l));
+        assertThat(destinationSummary.getTransferredIn().stream().filter(in -> in.getFromEstablishmentId().equals(firstSourceId)).findFirst().get().getPrisonerIds())
+                .containsExactlyInAnyOrder(firstPrisonerId, secondPrisonerId);
+
+        EstablishmentTransferSummary sourceSummary = prisonerTransferService.prisonerTransferAccountsSummary(secondSourceId, Optional.empty(), Optional.empty());
+
+        assertThat(sourceSummary.getTransferredIn()).isEmpty();
+        assertThat(sourceSummary.getTransferredOut())
+                .extracting("toEstablishmentId", "amountToTransferPence", "prisonerIds")
+                .containsExactly(tuple(destinationId, 7l, Collections.singleton(thirdPrisonerId)));
+
+        EstablishmentTransferSummary futureSummary = prisonerTransferService.prisonerTransferAccountsSummary(destinationId, Optional.of(ZonedDateTime.now(ZoneOffset.UTC).plusDays(1)), Optional.empty());
+
+        assertThat(futureSummary.getTransferredIn()).isEmpty();
+    }
+
+    @Test
+    public void transferSummaryQueryCountDoesNotGrowWithTransfers() throws InsufficientFundsException, AccountClosedException, DebitNotSupportedException {
+        String destinationId = UUID.randomUUID().toString();
+        transferredPrisoner(UUID.randomUUID().toString(), destinationId, 10l);
+
+        long statements = statementsExecutedBy(() -> prisonerTransferService.prisonerTransferAccountsSummary(destinationId, Optional.empty(), Optional.empty()));
+
+        for (int i = 0; i < 5; i++) {
+            transferredPrisoner(UUID.randomUUID().toString(), destinationId, 10l, 20l);
+        }
+
+        assertThat(statementsExecutedBy(() -> prisonerTransferService.prisonerTransferAccountsSummary(destinationId, Optional.empty(), Optional.empty())))
+                .isEqualTo(statements)
+                .isLessThanOrEqualTo(6);
+    }
+
+    @Test
+    public void concurrentDebitsAndTransfersNeverOverdrawAnAccount() throws Exception {
+        String establishmentId = UUID.randomUUID().toString();
+        int prisonerCount = 4;
+        int threadCount = 16;
+        int operationsPerThread = 200;
+        long openingPence = 1000l;
+
+        List<Account> accounts = IntStream.range(0, prisonerCount)
+                .mapToObj(i -> UUID.randomUUID().toString())
+                .flatMap(prisonerId -> Stream.of("cash", "spend").map(accountName -> {
+                    ledgerPost(establishmentId, prisonerId, accountName, openingPence);
+                    return accountService.accountFor(establishmentId, prisonerId, accountName).get();
+                }))
+                .collect(Collectors.toList());
+
+        AtomicLong debitedPence = new AtomicLong();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong lowestObservedPence = new AtomicLong(Long.MAX_VALUE);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount + 1);
+        Future<?> monitor = executor.submit(() -> {
+            while (running.get()) {
+                accountBalanceRepository.findPrisonerAccountBalances(establishmentId, Account.AccountStatuses.OPEN)
+                        .forEach(balance -> lowestObservedPence.accumulateAndGet(balance.getBalancePence(), Math::min));
+            }
+        });
+
+        long startNanos = System.nanoTime();
+        List<Future<?>> workers = IntStream.range(0, threadCount)
+                .mapToObj(thread -> executor.submit(() -> {
+                    Random random = new Random(thread);
+                    for (int i = 0; i < operationsPerThread; i++) {
+                        Account account = accounts.get(random.nextInt(accounts.size()));
+                        long amountPence = 1 + random.nextInt(20);
+                        try {
+                            if (i % 4 == 0) {
+                                Account other = accounts.get(random.nextInt(accounts.size()));
+                                if (other.getAccountId().equals(account.getAccountId())) {
+                                    continue;
+                                }
+                                transactionService.transferFunds(account, other, amountPence, "stress transfer");
+                            } else {
+                                transactionService.debitAccount(account, amountPence, "canteen", UUID.randomUUID().toString());
+                                debitedPence.addAndGet(amountPence);
+                            }
+                        } catch (InsufficientFundsException e) {
+                            rejected.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }))
+                .collect(Collectors.toList());
+
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        running.set(false);
+        monitor.get();
+        executor.shutdown();
+
+        log.info("{} operations on {} accounts across {} threads in {} ms ({} ops/s, {} rejected for insufficient funds)",
+                threadCount * operationsPerThread, accounts.size(), threadCount, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                Math.round(threadCount * operationsPerThread / (elapsedNanos / 1e9)), rejected.get());
+
+        assertThat(rejected.get()).isGreaterThan(0);
+        assertThat(lowestObservedPence.get()).isGreaterThanOrEqualTo(0l);
+        assertThat(accountService.balanceDiscrepancies(establishmentId)).isEmpty();
+
+        long closingPence = accounts.stream().mapToLong(account -> accountService.currentBalanceOf(account).getAmountPence()).sum();
+        accounts.forEach(account -> assertThat(accountService.currentBalanceOf(account).getAmountPence()).isGreaterThanOrEqualTo(0l));
+        assertThat(closingPence).isEqualTo(openingPence * accounts.size() - debitedPence.get());
+    }
+
+    @Test
+    public void bulkPostingRejectsEntriesIndividuallyAndKeepsBalancesInStep() {
+        String establishmentId = UUID.randomUUID().toString();
+        String prisonerId = UUID.randomUUID().toString();
+        ledgerPost(establishmentId, prisonerId, "cash", 100l);
+
+        List<BulkLedgerEntry> entries = new ArrayList<>();
+        IntStream.range(0, 100).forEach(i -> entries.add(bulkEntryOf(UUID.randomUUID().toString(), "spend", Operations.CREDIT, 10l)));
+        entries.add(bulkEntryOf(prisonerId, "cash", Operations.DEBIT, 60l));
+        entries.add(bulkEntryOf(prisonerId, "cash", Operations.DEBIT, 60l));
+        entries.add(bulkEntryOf(prisonerId, "cash", Operations.CREDIT, 20l));
+        entries.add(bulkEntryOf(prisonerId, "cash", Operations.DEBIT, 60l));
+        entries.add(bulkEntryOf(prisonerId, "savings", Operations.DEBIT, 1l));
+
+        List<BulkLedgerResult> results = ledgerService.postTransactions(establishmentId, entries);
+
+        assertThat(results).hasSize(entries.size());
+        assertThat(results.subList(0, 100)).extracting("outcome").containsOnly(BulkLedgerResult.Outcomes.POSTED);
+        assertThat(results.subList(100, 105)).extracting("outcome").containsExactly(
+                BulkLedgerResult.Outcomes.POSTED,
+                BulkLedgerResult.Outcomes.INSUFFICIENT_FUNDS,
+                BulkLedgerResult.Outcomes.POSTED,
+                BulkLedgerResult.Outcomes.POSTED,
+                BulkLedgerResult.Outcomes.DEBIT_NOT_SUPPORTED);
+        assertThat(results).extracting("clientRef").containsExactlyElementsOf(entries.stream().map(BulkLedgerEntry::getClientRef).collect(Collectors.toList()));
+
+        assertThat(accountService.currentBalanceOf(establishmentId, prisonerId, "cash").get().getAmountPence()).isEqualTo(0l);
+        assertThat(accountService.balanceDiscrepancies(establishmentId)).isEmpty();
+        assertThat(accountRepository.findByEstablishmentIdAndAccountStatus(establishmentId, Account.AccountStatuses.OPEN)).hasSize(102);
+    }
+
+    @Test
+    public void bulkPostingRejectsInvalidEntriesIndividually() {
+        String establishmentId = UUID.randomUUID().toString();
+        String prisonerId = UUID.randomUUID().toString();
+
+        List<BulkLedgerEntry> entries = Arrays.asList(
+                bulkEntryOf(prisonerId, "cash", Operations.CREDIT, 50l),
+                bulkEntryOf(prisonerId, "cash", null, 10l),
+                bulkEntryOf(null, "cash", Operations.CREDIT, 10l),
+                bulkEntryOf(prisonerId, null, Operations.CREDIT, 10l),
+                bulkEntryOf(prisonerId, "cash", Operations.DEBIT, -10l),
+                bulkEntryOf(prisonerId, "cash", Operations.CREDIT, 0l),
+                bulkEntryOf(prisonerId, "cash", Operations.DEBIT, 20l));
+
+        List<BulkLedgerResult> results = ledgerService.postTransactions(establishmentId, entries);
+
+        assertThat(results).extracting("outcome").containsExactly(
+                BulkLedgerResult.Outcomes.POSTED,
+                BulkLedgerResult.Outcomes.INVALID,
+                BulkLedgerResult.Outcomes.INVALID,
+                BulkLedgerResult.Outcomes.INVALID,
+                BulkLedgerResult.Outcomes.INVALID,
+                BulkLedgerResult.Outcomes.INVALID,
+                BulkLedgerResult.Outcomes.POSTED);
+        assertThat(results).extracting("clientRef").containsExactlyElementsOf(entries.stream().map(BulkLedgerEntry::getClientRef).collect(Collectors.toList()));
+        assertThat(accountService.currentBalanceOf(establishmentId, prisonerId, "cash").get().getAmountPence()).isEqualTo(30l);
+        assertThat(ledgerService.postTransactions(establishmentId, Collections.singletonList(bulkEntryOf(prisonerId, "cash", null, 10l))))
+                .extracting("outcome").containsExactly(BulkLedgerResult.Outcomes.INVALID);
+    }
+
+    @Test
+    public void bulkPostingBatchesIdAllocationAndInserts() {
+        String establishmentId = UUID.randomUUID().toString();
+        List<String> prisonerIds = IntStream.range(0, 10).mapToObj(i -> UUID.randomUUID().toString()).collect(Collectors.toList());
+        List<BulkLedgerEntry> entries = IntStream.range(0, 500)
+                .mapToObj(i -> bulkEntryOf(prisonerIds.get(i % prisonerIds.size()), "cash", Operations.CREDIT, 10l))
+                .collect(Collectors.toList());
+
+        long statements = statementsExecutedBy(() -> ledgerService.postTransactions(establishmentId, entries));
+
+        assertThat(statements).isLessThan(entries.size() / 10);
+        assertThat(accountService.balanceDiscrepancies(establishmentId)).isEmpty();
+    }
+
+    @Test
+    public void resolvedAccountsAreServedFromCacheUntilClosed() {
+        String establishmentId = UUID.randomUUID().toString();
+        String prisonerId = UUID.randomUUID().toString();
+        Account account = accountService.getOrCreateAccount(establishmentId, prisonerId, "cash", Optional.empty());
+        long hits = accountCache.stats().hitCount();
+
+        assertThat(statementsExecutedBy(() -> {
+            assertThat(accountService.getOrCreateAccount(establishmentId, prisonerId, "cash", Optional.empty()).getAccountId()).isEqualTo(account.getAccountId());
+            assertThat(accountService.accountFor(establishmentId, prisonerId, "cash").get().getAccountId()).isEqualTo(account.getAccountId());
+        })).isEqualTo(0);
+        assertThat(accountCache.stats().hitCount()).isEqualTo(hits + 2);
+
+        accountService.closeAccount(account);
+
+        assertThat(accountService.accountFor(establishmentId, prisonerId, "cash").isPresent()).isFalse();
+        assertThat(accountService.getOrCreateAccount(establishmentId, prisonerId, "cash", Optional.empty()).getAccountId()).isNotEqualTo(account.getAccountId());
+    }
+
+    @Test
+    public void postingsAgainstAStaleCachedAccountAreRejectedOnceClosed() throws AccountClosedException {
+        String establishmentId = UUID.randomUUID().toString();
+        String prisonerId = UUID.randomUUID().toString();
+        Account account = accountService.getOrCreateAccount(establishmentId, prisonerId, "cash", Optional.empty());
+        transactionService.creditAccount(account, 100l, "wages", UUID.randomUUID().toString());
+        accountRepository.save(account.toBuilder().accountStatus(Account.AccountStatuses.CLOSED).build());
+
+        assertThat(accountService.accountFor(establishmentId, prisonerId, "cash").get().getAccountStatus()).isEqualTo(Account.AccountStatuses.OPEN);
+        assertThat(catchThrowable(() -> transactionService.creditAccount(account, 10l, "wages", UUID.randomUUID().toString())))
+                .isInstanceOf(AccountClosedException.class);
+        assertThat(catchThrowable(() -> transactionService.debitAccount(account, 10l, "canteen", UUID.randomUUID().toString())))
+                .isInstanceOf(AccountClosedException.class);
+        assertThat(transactionService.postAll(Collections.singletonList(LedgerPosting.builder()
+                .account(account)
+                .amountPence(10l)
+                .operation(Operations.CREDIT)
+                .description("wages")
+                .clientRef(UUID.randomUUID().toString())
+                .build()))).extracting("outcome").containsExactly(BulkLedgerResult.Outcomes.ACCOUNT_CLOSED);
+
+        assertThat(accountService.accountFor(establishmentId, prisonerId, "cash").isPresent()).isFalse();
+        assertThat(accountBalanceRepository.findBalancePenceByAccountId(account.getAccountId()).get()).isEqualTo(100l);
+        assertThat(transactionRepository.sumSignedAmountPence(account)).isEqualTo(100l);
+    }
+
+    @Test
+    public void prisonerTransferInvalidatesCachedAccounts()throws InsufficientFundsException, AccountClosedException, DebitNotSupportedException {
+        String fromEstablishmentId = UUID.randomUUID().toString();
+        String toEstablishmentId = UUID.randomUUID().toString();
+        String prisonerId = transferredPrisoner(fromEstablishmentId, toEstablishmentId, 100l, 50l);
+
+        assertThat(accountService.accountFor(fromEstablishmentId, prisonerId, "cash").isPresent()).isFalse();
+        assertThat(accountService.accountFor(fromEstablishmentId, prisonerId, "spend").isPresent()).isFalse();
+        assertThat(accountService.accountFor(toEstablishmentId, prisonerId, "cash").get().getAccountStatus()).isEqualTo(Account.AccountStatuses.OPEN);
+    }
+
+    @Test
+    public void settledHistoricReportsAreComputedOnce() throws InsufficientFundsException, AccountClosedException, DebitNotSupportedException {
+        String establishmentId = UUID.randomUUID().toString();
+        openCreditedAccounts(establishmentId, 3);
+        transferredPrisoner(UUID.randomUUID().toString(), establishmentId, 100l);
+        ZonedDateTime settled = ZonedDateTime.now(ZoneOffset.UTC).minusDays(1);
+        ZonedDateTime unsettled = ZonedDateTime.now(ZoneOffset.UTC);
+
+        assertThat(statementsExecutedBy(() -> accountService.establishmentAccountsSummary(establishmentId, Optional.of(settled)))).isGreaterThan(0);
+        assertThat(statementsExecutedBy(() -> accountService.establishmentAccountsSummary(establishmentId, Optional.of(settled)))).isEqualTo(0);
+        assertThat(statementsExecutedBy(() -> prisonerTransferService.prisonerTransferAccountsSummary(establishmentId, Optional.empty(), Optional.of(settled)))).isGreaterThan(0);
+        assertThat(statementsExecutedBy(() -> prisonerTransferService.prisonerTransferAccountsSummary(establishmentId, Optional.empty(), Optional.of(settled)))).isEqualTo(0);
+
+        accountService.establishmentAccountsSummary(establishmentId, Optional.of(unsettled));
+        assertThat(statementsExecutedBy(() -> accountService.establishmentAccountsSummary(establishmentId, Optional.of(unsettled)))).isGreaterThan(0);
+        assertThat(statementsExecutedBy(() -> prisonerTransferService.prisonerTransferAccountsSummary(establishmentId, Optional.empty(), Optional.empty()))).isGreaterThan(0);
+    }
+
+    @Test
+    public void persistedHistoricReportsSurviveARestart() throws IOException {
+        String directory = temporaryFolder.newFolder().getPath();
+        ZonedDateTime from = ZonedDateTime.now(ZoneOffset.UTC).minusDays(30);
+        ZonedDateTime to = ZonedDateTime.now(ZoneOffset.UTC).minusDays(1);
+        Map<String, List<AccountState>> accountsSummary = Collections.singletonMap("A1234BC", Collections.singletonList(
+                AccountState.builder().accountName("cash").amountPence(100l).accountStatus(Account.AccountStatuses.OPEN).build()));
+        EstablishmentTransferSummary transferSummary = EstablishmentTransferSummary.builder()
+                .transferredIn(Collections.singletonList(TransferIn.builder().fromEstablishmentId("LEI").prisonerIds(Collections.singleton("A1234BC")).amountToRequestPence(100l).build()))
+                .transferredOut(Collections.emptyList())
+                .build();
+
+        HistoricReportCache cache = new HistoricReportCache(10, 3600, directory, jsonConverter, transactionArchiveService, new JournalBacklog());
+        cache.loadPersisted();
+        cache.get(HistoricReportCache.Report.ACCOUNTS_SUMMARY, "MDI", from, to, () -> accountsSummary);
+        cache.get(HistoricReportCache.Report.TRANSFER_SUMMARY, "MDI", from, to, () -> transferSummary);
+
+        HistoricReportCache restarted = new HistoricReportCache(10, 3600, directory, jsonConverter, transactionArchiveService, new JournalBacklog());
+        restarted.loadPersisted();
+
+        assertThat(restarted.size()).isEqualTo(2);
+        assertThat(restarted.<Map<String, List<AccountState>>>get(HistoricReportCache.Report.ACCOUNTS_SUMMARY, "MDI", from, to, () -> {
+            throw new AssertionError("report should have been loaded from disk");
+        })).isEqualTo(accountsSummary);
+        assertThat(restarted.<EstablishmentTransferSummary>get(HistoricReportCache.Report.TRANSFER_SUMMARY, "MDI", from, to, () -> {
+            throw new AssertionError("report should have been loaded from disk");
+        })).isEqualTo(transferSummary);
+    }
+
+    @Test
+    public void reportsAreNotCachedUntilTheJournalBeforeTheirWindowEndIsProjected() {
+        ZonedDateTime to = ZonedDateTime.now(ZoneOffset.UTC).minusDays(1);
+        JournalBacklog journalBacklog = new JournalBacklog();
+        HistoricReportCache cache = new HistoricReportCache(10, 3600, "", jsonConverter, transactionArchiveService, journalBacklog);
+
+        journalBacklog.appended(100l, to.plusHours(1));
+        journalBacklog.appended(200l, to.minusHours(1));
+        cache.get(HistoricReportCache.Report.ACCOUNTS_SUMMARY, "MDI", to.minusDays(1), to, Collections::emptyMap);
+        assertThat(cache.size()).isEqualTo(0);
+
+        journalBacklog.projectedTo(200l);
+        cache.get(HistoricReportCache.Report.ACCOUNTS_SUMMARY, "MDI", to.minusDays(1), to, Collections::emptyMap);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void syntheticEstatesAreReproducibleAndConsistentWithTheServices() throws SQLException, AccountClosedException {
+        SyntheticEstateSpec.SyntheticEstateSpecBuilder spec = SyntheticEstateSpec.builder()
+                .establishments(5)
+                .prisoners(200)
+                .historyDays(180)
+                .transactionsPerAccountPerWeek(2)
+                .asAt(ZonedDateTime.of(2018, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC));
+        SyntheticEstateGenerator generator = new SyntheticEstateGenerator(dataSource);
+
+        SyntheticEstate estate = generator.generate(spec.seed(7).idPrefix(uniquePrefix()).build());
+        SyntheticEstate regenerated = generator.generate(spec.seed(7).idPrefix(uniquePrefix()).build());
+        SyntheticEstate reseeded = generator.generate(spec.seed(8).idPrefix(uniquePrefix()).build());
+
+        assertThat(estate.getTransactions()).isGreaterThan(estate.getAccounts());
+        assertThat(estate.getPrisonerTransfers()).isGreaterThan(0);
+        assertThat(regenerated).isEqualToIgnoringGivenFields(estate, "establishmentIds", "prisonerIds", "elapsed");
+        assertThat(reseeded.getTotalBalancePence()).isNotEqualTo(estate.getTotalBalancePence());
+
+        long summarisedBalancePence = 0;
+        int transferredInPrisoners = 0;
+        for (String establishmentId : estate.getEstablishmentIds()) {
+            assertThat(accountService.balanceDiscrepancies(establishmentId)).isEmpty();
+            summarisedBalancePence += accountService.establishmentAccountsSummary(establishmentId, Optional.empty()).values().stream()
+                    .flatMap(List::stream)
+                    .mapToLong(AccountState::getAmountPence)
+                    .sum();
+            transferredInPrisoners += prisonerTransferService.prisonerTransferAccountsSummary(establishmentId, Optional.empty(), Optional.empty())
+                    .getTransferredIn().stream()
+                    .mapToInt(transferIn -> transferIn.getPrisonerIds().size())
+                    .sum();
+        }
+        assertThat(summarisedBalancePence).isEqualTo(estate.getTotalBalancePence());
+        assertThat(transferredInPrisoners).isGreaterThan(0);
+
+        Account account = accountService.getOrCreateAccount(estate.getEstablishmentIds().get(0), UUID.randomUUID().toString(), "cash", Optional.empty());
+        assertThat(transactionService.creditAccount(account, 100L, "after generation", "ref").getTransactionId()).isNotNull();
+    }
+
+    private String uniquePrefix() {
+        return UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    @Test
+    public void slowQueriesAreLoggedWithTheirBindParameters() throws SQLException {
+        DataSource loggingDataSource = ProxyDataSourceBuilder.create(dataSource)
+                .listener(new SlowQueryLogger(0))
+                .build();
+
+        try (Connection connection = loggingDataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("select count(*) from accounts where prisoner_id = ?")) {
+            statement.setString(1, "slow-query-prisoner");
+            statement.executeQuery().close();
+        }
+
+        assertThat(outputCapture.toString())
+                .contains("Slow query")
+                .contains("select count(*) from accounts where prisoner_id = ?")
+                .contains("slow-query-prisoner");
+    }
+
+    @Test
+    public void evacuationsMoveEveryPrisonerInParallelChunks() throws InsufficientFundsException, AccountClosedException, DebitNotSupportedException, InterruptedException {
+        String fromEstablishmentId = UUID.randomUUID().toString();
+        String toEstablishmentId = UUID.randomUUID().toString();
+        List<String> prisonerIds = IntStream.range(0, 5).mapToObj(i -> UUID.randomUUID().toString()).collect(Collectors.toList());
+        for (String prisonerId : prisonerIds) {
+            ledgerPost(fromEstablishmentId, prisonerId, "cash", 100l);
+            transactionService.creditAccount(accountService.getOrCreateAccount(fromEstablishmentId, prisonerId, "savings", Optional.empty()), 20l, "interest", "savings");
+        }
+        String stayingPrisonerId = UUID.randomUUID().toString();
+        ledgerPost(fromEstablishmentId, stayingPrisonerId, "cash", 1l);
+        List<String> evacuatedPrisonerIds = prisonerIds.subList(0, 4);
+
+        EvacuationService evacuationService = new EvacuationService(accountService, prisonerTransferService, 3, 2, 10);
+        try {
+            assertThat(evacuationService.plan(fromEstablishmentId, toEstablishmentId, Optional.of(evacuatedPrisonerIds)))
+                    .extracting("status", "prisoners", "accounts", "amountPence")
+                    .containsExactly(Evacuation.Statuses.DRY_RUN, 4, 8, 480l);
+            assertThat(accountService.prisonerOpenAccounts(fromEstablishmentId, prisonerIds.get(0))).hasSize(2);
+
+            Evacuation started = evacuationService.start(fromEstablishmentId, toEstablishmentId, Optional.of(evacuatedPrisonerIds));
+            Evacuation evacuation = started;
+            for (int attempt = 0; attempt < 100 && evacuation.getStatus() == Evacuation.Statuses.RUNNING; attempt++) {
+                Thread.sleep(50);
+                evacuation = evacuationService.evacuation(started.getEvacuationId()).get();
+            }
+
+            assertThat(evacuation)
+                    .extracting("status", "prisonersTransferred", "accountsTransferred", "amountTransferredPence", "failedPrisonerIds")
+                    .containsExactly(Evacuation.Statuses.COMPLETED, 4, 8, 480l, Collections.emptyList());
+        } finally {
+            evacuationService.shutdown();
+        }
+
+        for (String prisonerId : evacuatedPrisonerIds) {
+            assertThat(accountService.prisonerOpenAccounts(fromEstablishmentId, prisonerId)).isEmpty();
+            Account savings = accountService.accountFor(toEstablishmentId, prisonerId, "savings").get();
+            assertThat(accountService.currentBalanceOf(savings).getAmountPence()).isEqualTo(20l);
+            assertThat(savings.getPrisonerTransfer()).isNotNull();
+        }
+        assertThat(accountService.establishmentAccountsSummary(fromEstablishmentId, Optional.empty()).keySet())
+                .containsExactlyInAnyOrder(prisonerIds.get(4), stayingPrisonerId);
+        assertThat(prisonerTransferService.prisonerTransferAccountsSummary(toEstablishmentId, Optional.empty(), Optional.empty()).getTransferredIn())
+                .extracting("fromEstablishmentId", "amountToRequestPence")
+                .containsExactly(tuple(fromEstablishmentId, 480l));
+        assertThat(accountService.balanceDiscrepancies(fromEstablishmentId)).isEmpty();
+        assertThat(accountService.balanceDiscrepancies(toEstablishmentId)).isEmpty();
+    }
+
+    @Test
+    public void accountsOpenedByATransferHoldTheirBalanceFromTheTransferTime() throws AccountClosedException {
+        String fromEstablishmentId = UUID.randomUUID().toString();
+        String toEstablishmentId = UUID.randomUUID().toString();
+        String prisonerId = UUID.randomUUID().toString();
+        ledgerPost(fromEstablishmentId, prisonerId, "cash", 100l);
+        transactionService.creditAccount(accountService.getOrCreateAccount(fromEstablishmentId, prisonerId, "savings", Optional.empty()), 20l, "interest", "savings");
+
+        prisonerTransferService.transferPrisonersAccounts(Collections.singletonList(prisonerId), fromEstablishmentId, toEstablishmentId);
+        ZonedDateTime later = ZonedDateTime.now(ZoneOffset.UTC);
+
+        Account cash = accountService.accountFor(toEstablishmentId, prisonerId, "cash").get();
+        assertThat(transactionService.getTransactions(cash, Optional.empty(), Optional.empty()))
+                .extracting("transactionDateTime").containsExactly(cash.getAccountCreatedDateTime());
+        assertThat(accountService.establishmentAccountsSummary(toEstablishmentId, Optional.of(later)).get(prisonerId))
+                .extracting("accountName", "amountPence")
+                .containsExactlyInAnyOrder(tuple("cash", 100l), tuple("savings", 20l));
+    }
+
+    @Test
+    public void estateSummaryMergesEveryEstablishmentsBalancesAndTransfers() throws InsufficientFundsException, AccountClosedException, DebitNotSupportedException {
+        String firstEstablishmentId = UUID.randomUUID().toString();
+        String secondEstablishmentId = UUID.randomUUID().toString();
+        openCreditedAccounts(firstEstablishmentId, 3);
+        transferredPrisoner(firstEstablishmentId, secondEstablishmentId, 40l, 2l);
+        ZonedDateTime atDateTime = ZonedDateTime.now(ZoneOffset.UTC);
+        openCreditedAccounts(secondEstablishmentId, 1);
+
+        EstateSummary estate = estateReportService.estateSummary(atDateTime);
+
+        assertThat(estate.getEstablishments().stream()
+                .filter(establishment -> establishment.getEstablishmentId().equals(firstEstablishmentId) || establishment.getEstablishmentId().equals(secondEstablishmentId))
+                .collect(Collectors.toList()))
+                .extracting("establishmentId", "prisoners", "accounts", "balancePence", "amountToRequestPence", "amountToTransferPence")
+                .containsExactlyInAnyOrder(
+                        tuple(firstEstablishmentId, 3, 6, 900l, 0l, 42l),
+                        tuple(secondEstablishmentId, 1, 2, 42l, 42l, 0l));
+        assertThat(estate.getEstablishments()).isSortedAccordingTo(Comparator.comparing(EstablishmentSummary::getEstablishmentId));
+        assertThat(estate.getBalancePence()).isEqualTo(estate.getEstablishments().stream().mapToLong(EstablishmentSummary::getBalancePence).sum());
+        assertThat(estate.getAmountToRequestPence()).isEqualTo(estate.getAmountToTransferPence());
+    }
+
+    @Test
+    public void readModelReflectsCommittedWritesAndResyncsExternalOnes() throws InsufficientFundsException, AccountClosedException, DebitNotSupportedException {
+        String establishmentId = UUID.randomUUID().toString();
+        String toEstablishmentId = UUID.randomUUID().toString();
+        String prisonerId = UUID.randomUUID().toString();
+
+        ledgerPost(establishmentId, prisonerId, "cash", 100l);
+        ledgerPost(establishmentId, prisonerId, "spend", 40l);
+        try {
+            ledgerService.postTransaction(establishmentId, prisonerId, "spend", "canteen", UUID.randomUUID().toString(), 50l, Operations.DEBIT);
+        } catch (InsufficientFundsException expected) {
+        }
+        ledgerService.postTransactions(establishmentId, Collections.singletonList(bulkEntryOf(prisonerId, "cash", Operations.DEBIT, 30l)));
+
+        assertThat(balanceReadModel.balanceOf(establishmentId, prisonerId, "cash").get().getAmountPence()).isEqualTo(70l);
+        assertThat(balanceReadModel.prisonerBalances(establishmentId, prisonerId))
+                .extracting("accountName", "amountPence")
+                .containsOnly(tuple("cash", 70l), tuple("spend", 40l));
+        assertThat(balanceReadModel.establishmentAccountsSummary(establishmentId).get(prisonerId))
+                .extracting("accountName", "amountPence")
+                .containsOnly(tuple("cash", 70l), tuple("spend", 40l));
+
+        Account cash = accountService.accountFor(establishmentId, prisonerId, "cash").get();
+        accountBalanceRepository.save(accountBalanceRepository.findOne(cash.getAccountId()).toBuilder().balancePence(90l).build());
+        assertThat(balanceReadModel.balanceOf(establishmentId, prisonerId, "cash").get().getAmountPence()).isEqualTo(70l);
+        balanceReadModel.resync();
+        assertThat(balanceReadModel.balanceOf(establishmentId, prisonerId, "cash").get().getAmountPence()).isEqualTo(90l);
+
+        prisonerTransferService.transferPrisonerAccounts(prisonerId, establishmentId, toEstablishmentId);
+
+        assertThat(balanceReadModel.prisonerBalances(establishmentId, prisonerId)).isEmpty();
+        assertThat(balanceReadModel.establishmentAccountsSummary(establishmentId)).doesNotContainKey(prisonerId);
+        balanceReadModel.resync();
+        assertThat(balanceReadModel.prisonerBalances(establishmentId, prisonerId)).isEmpty();
+    }
+
+    @Test
+    public void balanceIndexAgreesWithAMapThroughChurn() {
+        BalanceIndex balanceIndex = new BalanceIndex(16);
+        Map<Long, AccountState> openAccounts = new HashMap<>();
+        Map<Long, String> prisonerIds = new HashMap<>();
+        Random random = new Random(42);
+
+        for (long sequence = 1; sequence <= 20000; sequence++) {
+            long accountId = random.nextInt(2000);
+            String prisonerId = "P" + accountId / 3;
+            if (random.nextInt(10) == 0) {
+                balanceIndex.remove(accountId);
+                openAccounts.remove(accountId);
+            } else {
+                boolean open = random.nextInt(8) != 0;
+                long balancePence = random.nextInt(10000);
+                balanceIndex.put(accountId, "E" + accountId % 7, prisonerId, "A" + accountId % 3, open, balancePence, sequence);
+                if (open) {
+                    openAccounts.put(accountId, AccountState.builder().accountName("A" + accountId % 3).amountPence(balancePence).build());
+                    prisonerIds.put(accountId, prisonerId);
+                } else {
+                    openAccounts.remove(accountId);
+                }
+            }
+        }
+
+        IntStream.range(0, 7).forEach(establishment -> {
+            List<Long> accountIds = openAccounts.keySet().stream().filter(accountId -> accountId % 7 == establishment).collect(Collectors.toList());
+            assertThat(balanceIndex.establishmentBalancePence("E" + establishment))
+                    .isEqualTo(accountIds.stream().mapToLong(accountId -> openAccounts.get(accountId).getAmountPence()).sum());
+
+            List<String> visited = new ArrayList<>();
+            balanceIndex.forEachOpenAccount("E" + establishment, (prisonerId, accountName, balancePence) -> visited.add(prisonerId + accountName + balancePence));
+            assertThat(visited).containsOnlyElementsOf(accountIds.stream()
+                    .map(accountId -> prisonerIds.get(accountId) + openAccounts.get(accountId).getAccountName() + openAccounts.get(accountId).getAmountPence())
+                    .collect(Collectors.toList()))
+                    .hasSize(accountIds.size());
+        });
+        openAccounts.forEach((accountId, account) -> assertThat(balanceIndex.balanceOf("E" + accountId % 7, prisonerIds.get(accountId), account.getAccountName()).getAsLong())
+                .isEqualTo(account.getAmountPence()));
+
+        assertThat(balanceIndex.put(5000l, "E0", "P5000", "A0", true, 10l, 30000l)).isTrue();
+        assertThat(balanceIndex.put(5000l, "E0", "P5000", "A0", false, 20l, 29999l)).isFalse();
+        assertThat(balanceIndex.balanceOf("E0", "P5000", "A0").getAsLong()).isEqualTo(10l);
+
+        assertThat(balanceIndex.put(5001l, "E99", "P99", "A0", false, 10l, 30000l)).isTrue();
+        assertThat(balanceIndex.establishmentBalancePence("E99")).isZero();
+        assertThat(balanceIndex.balanceOf("E99", "P99", "A0").isPresent()).isFalse();
+
+        balanceIndex.removeOlderThan(Long.MAX_VALUE);
+        assertThat(balanceIndex.size()).isZero();
+        assertThat(balanceIndex.establishmentBalancePence("E0")).isZero();
+    }
+
+    @Test
+    public void balanceIndexIgnoresReadsOlderThanARemoval() {
+        BalanceIndex balanceIndex = new BalanceIndex();
+        balanceIndex.put(1l, "E0", "P1", "cash", true, 10l, 1);
+        balanceIndex.put(1l, "E0", "P1", "cash", false, 10l, 3);
+        balanceIndex.put(2l, "E0", "P2", "cash", true, 20l, 4);
+
+        assertThat(balanceIndex.removeOlderThan(4)).isEqualTo(1);
+        assertThat(balanceIndex.put(1l, "E0", "P1", "cash", true, 10l, 2)).isFalse();
+        assertThat(balanceIndex.balanceOf("E0", "P1", "cash").isPresent()).isFalse();
+        assertThat(balanceIndex.put(3l, "E0", "P3", "cash", true, 30l, 5)).isTrue();
+        assertThat(balanceIndex.establishmentBalancePence("E0")).isEqualTo(50l);
+    }
+
+    @Test
+    public void groupCommitBatchesConcurrentPostingsWithoutOverdrawing() throws Exception {
+        Account cash = accountService.getOrCreateAccount(UUID.randomUUID().toString(), UUID.randomUUID().toString(), "cash", Optional.empty());
+        transactionService.creditAccount(cash, 150l, "wages", UUID.randomUUID().toString());
+
+        LedgerGroupCommit groupCommit = new LedgerGroupCommit(transactionService, meterRegistry, 20, 50);
+        groupCommit.start();
+        try {
+            Transaction credit = groupCommit.post(LedgerPosting.builder().account(cash).operation(Operations.CREDIT).amountPence(50l).description("gift").clientRef("first").build());
+            assertThat(credit.getTransactionId()).isNotNull();
+
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<Boolean>> debits = new ArrayList<>();
+            for (int i = 0; i < 400; i++) {
+                debits.add(executor.submit(() -> {
+                    try {
+                        return groupCommit.post(LedgerPosting.builder().account(cash).operation(Operations.DEBIT).amountPence(1l).description("canteen").clientRef(UUID.randomUUID().toString()).build()) != null;
+                    } catch (InsufficientFundsException e) {
+                        return false;
+                    }
+                }));
+            }
+            int accepted = 0;
+            for (Future<Boolean> debit : debits) {
+                accepted += debit.get() ? 1 : 0;
+            }
+            executor.shutdown();
+
+            assertThat(accepted).isEqualTo(200);
+        } finally {
+            groupCommit.stop();
+        }
+
+        assertThat(accountService.currentBalanceOf(cash).getAmountPence()).isEqualTo(0l);
+        assertThat(accountService.balanceDiscrepancies(cash.getEstablishmentId())).isEmpty();
+        assertThat(meterRegistry.find("prisoneraccounts.groupcommit.batch.size").summary().max()).isGreaterThan(1);
+    }
+
+    @Test
+    public void journalledPostingsAreProjectedAndReplayedAfterACrash() throws Exception {
+        Path directory = temporaryFolder.newFolder().toPath();
+        String journalName = UUID.randomUUID().toString();
+        Account cash = accountService.getOrCreateAccount(UUID.randomUUID().toString(), UUID.randomUUID().toString(), "cash", Optional.empty());
+
+        LedgerJournal crashed = new LedgerJournal(directory, 1 << 20, 0);
+        crashed.append(journalRecordOf(cash, Transaction.TransactionTypes.CREDIT, 500l));
+        crashed.awaitDurable(crashed.append(journalRecordOf(cash, Transaction.TransactionTypes.DEBIT, 200l)));
+
+        JournalService journalService = journalServiceIn(directory, journalName);
+        try {
+            assertThat(accountService.currentBalanceOf(cash).getAmountPence()).isEqualTo(300l);
+
+            List<Future<Boolean>> debits = new ArrayList<>();
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            for (int i = 0; i < 400; i++) {
+                debits.add(executor.submit(() -> {
+                    try {
+                        return journalService.post(cash, Operations.DEBIT, 1l, "canteen", UUID.randomUUID().toString()).getTransactionId() == null;
+                    } catch (InsufficientFundsException e) {
+                        return false;
+                    }
+                }));
+            }
+            int accepted = 0;
+            for (Future<Boolean> debit : debits) {
+                accepted += debit.get() ? 1 : 0;
+            }
+            executor.shutdown();
+
+            assertThat(accepted).isEqualTo(300);
+            journalService.awaitProjection();
+            assertThat(accountService.currentBalanceOf(cash).getAmountPence()).isEqualTo(0l);
+            assertThat(accountService.balanceDiscrepancies(cash.getEstablishmentId())).isEmpty();
+        } finally {
+            journalService.stop();
+        }
+
+        JournalService restarted = journalServiceIn(directory, journalName);
+        restarted.stop();
+        assertThat(transactionService.getTransactions(cash, Optional.empty(), Optional.empty())).hasSize(302);
+        assertThat(accountService.currentBalanceOf(cash).getAmountPence()).isEqualTo(0l);
+    }
+
+    @Test
+    public void journalProjectorRejectsPostingsThatNoLongerFit() throws Exception {
+        Path directory = temporaryFolder.newFolder().toPath();
+        String establishmentId = UUID.randomUUID().toString();
+        Account cash = accountService.getOrCreateAccount(establishmentId, UUID.randomUUID().toString(), "cash", Optional.empty());
+        Account closed = accountService.getOrCreateAccount(establishmentId, UUID.randomUUID().toString(), "cash", Optional.empty());
+        transactionService.creditAccount(cash, 100l, "wages", UUID.randomUUID().toString());
+        accountService.closeAccount(closed);
+
+        LedgerJournal crashed = new LedgerJournal(directory, 1 << 20, 0);
+        crashed.append(journalRecordOf(cash, Transaction.TransactionTypes.DEBIT, 80l));
+        crashed.append(journalRecordOf(closed, Transaction.TransactionTypes.CREDIT, 10l));
+        crashed.awaitDurable(crashed.append(journalRecordOf(cash, Transaction.TransactionTypes.DEBIT, 50l)));
+
+        JournalService journalService = journalServiceIn(directory, UUID.randomUUID().toString());
+        try {
+            assertThat(accountService.currentBalanceOf(cash).getAmountPence()).isEqualTo(20l);
+            assertThat(transactionService.getTransactions(cash, Optional.empty(), Optional.empty())).extracting("amountPence").containsExactly(100l, 80l);
+            assertThat(transactionService.getTransactions(closed, Optional.empty(), Optional.empty())).isEmpty();
+            assertThat(rejectedJournalRecordRepository.findByAccountIdOrderByTransactionDateTimeAsc(cash.getAccountId()))
+                    .extracting("transactionType", "amountPence", "reason")
+                    .containsExactly(tuple(Transaction.TransactionTypes.DEBIT, 50l, "Insufficient funds."));
+            assertThat(rejectedJournalRecordRepository.findByAccountIdOrderByTransactionDateTimeAsc(closed.getAccountId()))
+                    .extracting("transactionType", "amountPence")
+                    .containsExactly(tuple(Transaction.TransactionTypes.CREDIT, 10l));
+            assertThat(catchThrowable(() -> journalService.post(closed, Operations.CREDIT, 10l, "wages", UUID.randomUUID().toString())))
+                    .isInstanceOf(AccountClosedException.class);
+        } finally {
+            journalService.stop();
+        }
+    }
+
+    @Test
+    public void heldAccountsKeepJournalPostingsWaitingUntilTheDirectWriteCommits() throws Exception {
+        Account cash = accountService.getOrCreateAccount(UUID.randomUUID().toString(), UUID.randomUUID().toString(), "cash", Optional.empty());
+        transactionService.creditAccount(cash, 100l, "wages", UUID.randomUUID().toString());
+
+        JournalService journalService = journalServiceIn(temporaryFolder.newFolder().toPath(), UUID.randomUUID().toString());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Transaction> journalDebit = new TransactionTemplate(transactionManager).execute(status -> {
+                journalService.holdAccounts(Collections.singleton(cash));
+                Future<Transaction> waiting = executor.submit(() -> journalService.post(cash, Operations.DEBIT, 100l, "canteen", UUID.randomUUID().toString()));
+                assertThat(catchThrowable(() -> waiting.get(200, TimeUnit.MILLISECONDS))).isInstanceOf(TimeoutException.class);
+                try {
+                    transactionService.debitAccount(cash, 60l, "canteen", UUID.randomUUID().toString());
+                } catch (DebitNotSupportedException | InsufficientFundsException | AccountClosedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return waiting;
+            });
+
+            assertThat(catchThrowable(() -> journalDebit.get(5, TimeUnit.SECONDS))).hasCauseInstanceOf(InsufficientFundsException.class);
+            assertThat(accountService.currentBalanceOf(cash).getAmountPence()).isEqualTo(40l);
+        } finally {
+            executor.shutdown();
+            journalService.stop();
+        }
+    }
+
+    @Test
+    public void journalDiscardsTornRecordsAndRollsSegments() throws IOException {
+        Path directory = temporaryFolder.newFolder().toPath();
+        Account cash = accountService.getOrCreateAccount(UUID.randomUUID().toString(), UUID.randomUUID().toString(), "cash", Optional.empty());
+
+        LedgerJournal journal = new LedgerJournal(directory, 256, 0);
+        long position = 0;
+        for (int i = 1; i <= 5; i++) {
+            position = journal.append(journalRecordOf(cash, Transaction.TransactionTypes.CREDIT, i));
+        }
+        journal.awaitDurable(position);
+
+        assertThat(Files.list(directory).count()).isEqualTo(3);
+        JournalBatch batch = journal.read(0, position, 100);
+        assertThat(batch.getRecords()).extracting("amountPence").containsExactly(1l, 2l, 3l, 4l, 5l);
+        assertThat(batch.getNextPosition()).isEqualTo(position);
+
+        try (RandomAccessFile lastSegment = new RandomAccessFile(directory.resolve(String.format("%016d.journal", position / 256)).toFile(), "rw")) {
+            lastSegment.seek(position % 256 - 1);
+            lastSegment.write(0xff);
+        }
+
+        LedgerJournal reopened = new LedgerJournal(directory, 256, 0);
+        long reopenedPosition = reopened.writePosition();
+        assertThat(reopened.read(0, reopenedPosition, 100).getRecords()).extracting("amountPence").containsExactly(1l, 2l, 3l, 4l);
+
+        reopened.awaitDurable(reopened.append(journalRecordOf(cash, Transaction.TransactionTypes.CREDIT, 6l)));
+        assertThat(reopened.read(0, reopened.durablePosition(), 100).getRecords()).extracting("amountPence").containsExactly(1l, 2l, 3l, 4l, 6l);
+    }
+
+    private JournalService journalServiceIn(Path directory, String journalName) throws IOException {
+        JournalService journalService = new JournalService(accountService, journalProjector, new JournalBacklog(), ledgerMetrics, meterRegistry, journalName, directory.toString(), 1, 100, 5);
+        journalService.start();
+        return journalService;
+    }
+
+    private JournalRecord journalRecordOf(Account account, Transaction.TransactionTypes transactionType, long amountPence) {
+        return JournalRecord.builder()
+                .accountId(account.getAccountId())
+                .transactionType(transactionType)
+                .amountPence(amountPence)
+                .transactionDateTime(ZonedDateTime.now(ZoneOffset.UTC))
+                .description("journalled")
+                .clientRef(UUID.randomUUID().toString())
+                .build();
+    }
+
+    private String transferredPrisoner(String fromEstablishmentId, String toEstablishmentId, long cashPence, long... spendPence) throws InsufficientFundsException, AccountClosedException, DebitNotSupportedException {
+        String prisonerId = UUID.randomUUID().toString();
+        ledgerPost(fromEstablishmentId, prisonerId, "cash", cashPence);
+        for (long amountPence : spendPence) {
+            ledgerPost(fromEstablishmentId, prisonerId, "spend", amountPence);
+        }
+        prisonerTransferService.transferPrisonerAccounts(prisonerId, fromEstablishmentId, toEstablishmentId);
+        return prisonerId;
+    }
+
+    private void openCreditedAccounts(String establishmentId, int prisonerCount) {
+        IntStream.range(0, prisonerCount).forEach(i -> {
+            String prisonerId = UUID.randomUUID().toString();
+            ledgerPost(establishmentId, prisonerId, "cash", 100l);
+            ledgerPost(establishmentId, prisonerId, "spend", 200l);
+        });
+    }
+
+    private BulkLedgerEntry bulkEntryOf(String prisonerId, String accountName, Operations operation, long amountPence) {
+        return BulkLedgerEntry.builder()
+                .prisonerId(prisonerId)
+                .accountName(accountName)
+                .operation(operation)
+                .amountPence(amountPence)
+                .description("canteen")
+                .clientRef(UUID.randomUUID().toString())
+                .build();
+    }
+
+    private void ledgerPost(String establishmentId, String prisonerId, String accountName, long amountPence) {
+        try {
+            ledgerService.postTransaction(establishmentId, prisonerId, accountName, "wages", UUID.randomUUID().toString(), amountPence, Operations.CREDIT);
+        } catch (DebitNotSupportedException | InsufficientFundsException | AccountClosedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long statementsExecutedBy(Runnable action) {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+        action.run();
+        statistics.setStatisticsEnabled(false);
+        return statistics.getPrepareStatementCount();
+    }
+
+    private Transaction transactionOf(Account account, Transaction.TransactionTypes transactionType, long amountPence, ZonedDateTime transactionDateTime) {
+        return Transaction.builder()
+                .account(account)
+                .transactionType(transactionType)
+                .amountPence(amountPence)
+                .description("backdated")
+                .clientReference(UUID.randomUUID().toString())
+                .transactionDateTime(transactionDateTime)
+                .build();
+    }
+
+}
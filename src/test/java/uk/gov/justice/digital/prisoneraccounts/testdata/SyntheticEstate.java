@@ -0,0 +1,19 @@
+package uk.gov.justice.digital.prisoneraccounts.testdata;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+import java.util.List;
+
+@Value
+@Builder
+public class SyntheticEstate {
+    private List<String> establishmentIds;
+    private List<String> prisonerIds;
+    private long accounts;
+    private long transactions;
+    private long prisonerTransfers;
+    private long totalBalancePence;
+    private Duration elapsed;
+}
@@ -0,0 +1,320 @@
+package uk.gov.justice.digital.prisoneraccounts.testdata;
+
+import lombok.extern.slf4j.Slf4j;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Account;
+import uk.gov.justice.digital.prisoneraccounts.jpa.entity.Transaction;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Writes a seeded synthetic estate of accounts, transactions and prisoner transfers straight into the schema with batched JDBC
+ * inserts, keeping the stored account balances in step with the ledger. Each prisoner arrives at some point in the history and
+ * moves through a chain of establishments; at every transfer their accounts are emptied, closed and reopened at the receiving
+ * establishment, as {@code PrisonerTransferService} does.
+ * <p>
+ * Ids are taken from the entity sequences, which are moved past the generated rows on completion, so the database should
+ * not be written to by anything else while an estate is generated.
+ */
+@Slf4j
+public class SyntheticEstateGenerator {
+
+    private static final long SECONDS_PER_WEEK = 7 * 24 * 3600;
+
+    private final DataSource dataSource;
+
+    public SyntheticEstateGenerator(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public SyntheticEstate generate(SyntheticEstateSpec spec) throws SQLException {
+        long started = System.nanoTime();
+        List<String> establishmentIds = IntStream.range(0, spec.getEstablishments())
+                .mapToObj(i -> String.format("%s%03d", spec.getIdPrefix(), i))
+                .collect(Collectors.toList());
+        List<String> prisonerIds = IntStream.range(0, spec.getPrisoners())
+                .mapToObj(i -> spec.getIdPrefix() + prisonerNumber(i))
+                .collect(Collectors.toList());
+        double[] cumulativePopularity = cumulativePopularity(spec.getEstablishments(), spec.getEstablishmentSkew());
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (Writer writer = new Writer(connection, spec.getBatchSize())) {
+                Random seeds = new Random(spec.getSeed());
+                for (int i = 0; i < spec.getPrisoners(); i++) {
+                    generatePrisoner(spec, new Random(seeds.nextLong()), prisonerIds.get(i), establishmentIds, cumulativePopularity, writer);
+                    writer.flushIfFull();
+                    if ((i + 1) % 10000 == 0) {
+                        log.info("Generated {} of {} prisoners, {} transactions", i + 1, spec.getPrisoners(), writer.transactions);
+                    }
+                }
+                writer.flush();
+                writer.releaseIds();
+                connection.commit();
+
+                return SyntheticEstate.builder()
+                        .establishmentIds(establishmentIds)
+                        .prisonerIds(prisonerIds)
+                        .accounts(writer.accounts)
+                        .transactions(writer.transactions)
+                        .prisonerTransfers(writer.prisonerTransfers)
+                        .totalBalancePence(writer.totalBalancePence)
+                        .elapsed(Duration.ofNanos(System.nanoTime() - started))
+                        .build();
+            }
+        }
+    }
+
+    private void generatePrisoner(SyntheticEstateSpec spec, Random random, String prisonerId, List<String> establishmentIds, double[] cumulativePopularity, Writer writer) throws SQLException {
+        long end = spec.getAsAt().toEpochSecond();
+        long start = end - spec.getHistoryDays() * 24L * 3600;
+        long arrival = start + (long) (random.nextDouble() * (end - start) / 2);
+
+        int transfers = poisson(random, spec.getTransfersPerPrisoner());
+        long[] boundaries = new long[transfers + 2];
+        boundaries[0] = arrival;
+        boundaries[transfers + 1] = end;
+        for (int i = 1; i <= transfers; i++) {
+            boundaries[i] = arrival + 1 + (long) (random.nextDouble() * (end - arrival - 1));
+        }
+        Arrays.sort(boundaries, 1, transfers + 1);
+
+        long[] balances = new long[spec.getAccountNames().size()];
+        long[] accountIds = new long[balances.length];
+        Long prisonerTransferId = null;
+        int establishment = -1;
+
+        for (int stay = 0; stay <= transfers; stay++) {
+            long from = boundaries[stay];
+            long to = boundaries[stay + 1];
+            boolean current = stay == transfers;
+            int previousEstablishment = establishment;
+            establishment = pickEstablishment(random, cumulativePopularity, previousEstablishment);
+
+            if (stay > 0) {
+                prisonerTransferId = writer.prisonerTransfer(prisonerId, establishmentIds.get(previousEstablishment), establishmentIds.get(establishment), from);
+            }
+
+            for (int a = 0; a < balances.length; a++) {
+                String accountName = spec.getAccountNames().get(a);
+                boolean savings = accountName.equals("savings");
+                long previousAccountId = accountIds[a];
+                accountIds[a] = writer.account(prisonerId, establishmentIds.get(establishment), accountName, savings, from, current ? null : to, prisonerTransferId);
+
+                if (stay > 0) {
+                    writer.transaction(previousAccountId, Transaction.TransactionTypes.DEBIT, balances[a], "prisoner transfer", from);
+                    writer.transaction(accountIds[a], Transaction.TransactionTypes.CREDIT, balances[a], "prisoner transfer", from);
+                }
+
+                int count = poisson(random, spec.getTransactionsPerAccountPerWeek() * (to - from) / SECONDS_PER_WEEK);
+                long[] times = new long[count];
+                for (int t = 0; t < count; t++) {
+                    times[t] = from + (long) (random.nextDouble() * (to - from));
+                }
+                Arrays.sort(times);
+
+                for (long time : times) {
+                    long amountPence = Math.max(1L, Math.round(spec.getMedianAmountPence() * Math.exp(spec.getAmountSigma() * random.nextGaussian())));
+                    if (!savings && random.nextDouble() < spec.getDebitProbability() && balances[a] >= amountPence) {
+                        writer.transaction(accountIds[a], Transaction.TransactionTypes.DEBIT, amountPence, "canteen", time);
+                        balances[a] -= amountPence;
+                    } else {
+                        writer.transaction(accountIds[a], Transaction.TransactionTypes.CREDIT, amountPence, "wages", time);
+                        balances[a] += amountPence;
+                    }
+                }
+
+                if (!current) {
+                    writer.balance(accountIds[a], 0L);
+                }
+            }
+        }
+
+        for (int a = 0; a < balances.length; a++) {
+            writer.balance(accountIds[a], balances[a]);
+        }
+    }
+
+    private static String prisonerNumber(int i) {
+        return String.format("%c%04d%c%c", (char) ('A' + i / 6760000 % 26), i / 676 % 10000, (char) ('A' + i / 26 % 26), (char) ('A' + i % 26));
+    }
+
+    private static double[] cumulativePopularity(int establishments, double skew) {
+        double[] cumulative = new double[establishments];
+        double total = 0;
+        for (int i = 0; i < establishments; i++) {
+            total += 1 / Math.pow(i + 1, skew);
+            cumulative[i] = total;
+        }
+        return cumulative;
+    }
+
+    private static int pickEstablishment(Random random, double[] cumulativePopularity, int excluded) {
+        while (true) {
+            int index = Arrays.binarySearch(cumulativePopularity, random.nextDouble() * cumulativePopularity[cumulativePopularity.length - 1]);
+            int establishment = index >= 0 ? index : -index - 1;
+            if (establishment != excluded || cumulativePopularity.length == 1) {
+                return establishment;
+            }
+        }
+    }
+
+    private static int poisson(Random random, double mean) {
+        if (mean > 30) {
+            return (int) Math.max(0, Math.round(mean + Math.sqrt(mean) * random.nextGaussian()));
+        }
+        double limit = Math.exp(-mean);
+        double product = random.nextDouble();
+        int count = 0;
+        while (product > limit) {
+            product *= random.nextDouble();
+            count++;
+        }
+        return count;
+    }
+
+    private static class Writer implements AutoCloseable {
+
+        private final Connection connection;
+        private final int batchSize;
+        private final List<PreparedStatement> statements = new ArrayList<>();
+        private final PreparedStatement prisonerTransferInsert;
+        private final PreparedStatement accountInsert;
+        private final PreparedStatement transactionInsert;
+        private final PreparedStatement balanceInsert;
+        private final long firstPrisonerTransferId;
+        private final long firstAccountId;
+        private final long firstTransactionId;
+        private long prisonerTransfers;
+        private long accounts;
+        private long transactions;
+        private long totalBalancePence;
+        private int pending;
+
+        private Writer(Connection connection, int batchSize) throws SQLException {
+            this.connection = connection;
+            this.batchSize = batchSize;
+            // Statements are flushed in this order so that foreign keys are always satisfied.
+            prisonerTransferInsert = prepare("insert into prisoner_transfers (transfer_id, prisoner_id, from_establishment_id, to_establishment_id, accounts_transfer_date_time) values (?, ?, ?, ?, ?)");
+            accountInsert = prepare("insert into accounts (account_id, prisoner_id, establishment_id, account_name, account_type, account_status, account_created_date_time, account_closed_date_time, prisoner_transfer_transfer_id) values (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            transactionInsert = prepare("insert into transactions (transaction_id, account_account_id, transaction_type, amount_pence, description, client_reference, transaction_date_time) values (?, ?, ?, ?, ?, ?, ?)");
+            balanceInsert = prepare("insert into account_balances (account_id, balance_pence) values (?, ?)");
+            firstPrisonerTransferId = nextValue("prisoner_transfer_seq");
+            firstAccountId = nextValue("account_seq");
+            firstTransactionId = nextValue("transaction_seq");
+        }
+
+        private PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            statements.add(statement);
+            return statement;
+        }
+
+        private long nextValue(String sequence) throws SQLException {
+            try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery("select next value for " + sequence)) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+
+        private long prisonerTransfer(String prisonerId, String fromEstablishmentId, String toEstablishmentId, long transferredAt) throws SQLException {
+            long transferId = firstPrisonerTransferId + prisonerTransfers++;
+            prisonerTransferInsert.setLong(1, transferId);
+            prisonerTransferInsert.setString(2, prisonerId);
+            prisonerTransferInsert.setString(3, fromEstablishmentId);
+            prisonerTransferInsert.setString(4, toEstablishmentId);
+            prisonerTransferInsert.setTimestamp(5, timestampOf(transferredAt));
+            prisonerTransferInsert.addBatch();
+            return transferId;
+        }
+
+        private long account(String prisonerId, String establishmentId, String accountName, boolean savings, long createdAt, Long closedAt, Long prisonerTransferId) throws SQLException {
+            long accountId = firstAccountId + accounts++;
+            accountInsert.setLong(1, accountId);
+            accountInsert.setString(2, prisonerId);
+            accountInsert.setString(3, establishmentId);
+            accountInsert.setString(4, accountName);
+            accountInsert.setString(5, (savings ? Account.AccountTypes.SAVINGS : Account.AccountTypes.FULL_ACCESS).name());
+            accountInsert.setString(6, (closedAt == null ? Account.AccountStatuses.OPEN : Account.AccountStatuses.CLOSED).name());
+            accountInsert.setTimestamp(7, timestampOf(createdAt));
+            accountInsert.setTimestamp(8, closedAt == null ? null : timestampOf(closedAt));
+            if (prisonerTransferId == null) {
+                accountInsert.setNull(9, Types.BIGINT);
+            } else {
+                accountInsert.setLong(9, prisonerTransferId);
+            }
+            accountInsert.addBatch();
+            return accountId;
+        }
+
+        private void transaction(long accountId, Transaction.TransactionTypes transactionType, long amountPence, String description, long transactedAt) throws SQLException {
+            long transactionId = firstTransactionId + transactions++;
+            transactionInsert.setLong(1, transactionId);
+            transactionInsert.setLong(2, accountId);
+            transactionInsert.setString(3, transactionType.name());
+            transactionInsert.setLong(4, amountPence);
+            transactionInsert.setString(5, description);
+            transactionInsert.setString(6, String.valueOf(transactionId));
+            transactionInsert.setTimestamp(7, timestampOf(transactedAt));
+            transactionInsert.addBatch();
+            pending++;
+        }
+
+        private void balance(long accountId, long balancePence) throws SQLException {
+            balanceInsert.setLong(1, accountId);
+            balanceInsert.setLong(2, balancePence);
+            balanceInsert.addBatch();
+            totalBalancePence += balancePence;
+        }
+
+        private static Timestamp timestampOf(long epochSecond) {
+            return Timestamp.from(Instant.ofEpochSecond(epochSecond));
+        }
+
+        private void flushIfFull() throws SQLException {
+            if (pending >= batchSize) {
+                flush();
+            }
+        }
+
+        private void flush() throws SQLException {
+            for (PreparedStatement statement : statements) {
+                statement.executeBatch();
+            }
+            connection.commit();
+            pending = 0;
+        }
+
+        /**
+         * Restarts each sequence after the last id generated, so that the application allocates from there on.
+         */
+        private void releaseIds() throws SQLException {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("alter sequence prisoner_transfer_seq restart with " + (firstPrisonerTransferId + prisonerTransfers));
+                statement.execute("alter sequence account_seq restart with " + (firstAccountId + accounts));
+                statement.execute("alter sequence transaction_seq restart with " + (firstTransactionId + transactions));
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            for (PreparedStatement statement : statements) {
+                statement.close();
+            }
+        }
+    }
+}
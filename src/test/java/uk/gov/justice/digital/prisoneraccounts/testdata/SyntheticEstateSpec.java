@@ -0,0 +1,78 @@
+package uk.gov.justice.digital.prisoneraccounts.testdata;
+
+import com.google.common.collect.ImmutableList;
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+/**
+ * Shape of a synthetic estate. The defaults describe a production sized estate; the same spec always generates the same rows.
+ */
+@Value
+@Builder
+public class SyntheticEstateSpec {
+
+    @Builder.Default
+    private long seed = 1L;
+
+    /**
+     * Prefixed to every establishment and prisoner id, so that several estates can share a database.
+     */
+    @Builder.Default
+    private String idPrefix = "SYN";
+
+    @Builder.Default
+    private int establishments = 120;
+
+    @Builder.Default
+    private int prisoners = 90000;
+
+    @Builder.Default
+    private List<String> accountNames = ImmutableList.of("cash", "spends", "savings");
+
+    @Builder.Default
+    private ZonedDateTime asAt = ZonedDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS);
+
+    @Builder.Default
+    private int historyDays = 3 * 365;
+
+    /**
+     * Mean of the Poisson distributed number of transactions posted to each account per week of custody.
+     */
+    @Builder.Default
+    private double transactionsPerAccountPerWeek = 1.0;
+
+    /**
+     * Mean of the Poisson distributed number of transfers between establishments per prisoner.
+     */
+    @Builder.Default
+    private double transfersPerPrisoner = 2.0;
+
+    /**
+     * Zipf exponent of establishment popularity; zero spreads prisoners evenly.
+     */
+    @Builder.Default
+    private double establishmentSkew = 1.0;
+
+    /**
+     * Chance that a transaction on a non-savings account is a debit, when the balance covers it.
+     */
+    @Builder.Default
+    private double debitProbability = 0.45;
+
+    /**
+     * Transaction amounts are log-normally distributed around this median.
+     */
+    @Builder.Default
+    private long medianAmountPence = 500L;
+
+    @Builder.Default
+    private double amountSigma = 1.0;
+
+    @Builder.Default
+    private int batchSize = 1000;
+}